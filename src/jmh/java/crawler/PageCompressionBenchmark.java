@@ -0,0 +1,147 @@
+package crawler;
+
+import com.google.common.io.ByteStreams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compression ratio and throughput of stored pages with {@link DictionaryCodec}, with and without dictionary.
+ * Throughput is reported by JMH in pages per second, ratios are printed on setup.
+ * <p>
+ * Pages are taken from {@code pages.dir} system property (directory of pages stored in {@code files} mode),
+ * synthetic pages with shared skin are generated otherwise. Dictionary pays off on small pages where the skin
+ * does not repeat within the page itself. Run with {@code gradle jmh}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PageCompressionBenchmark {
+
+    private static final int PAGES = 300;
+    private static final int SAMPLES = 200;
+    private static final String[] WORDS = {
+            "Bruce", "Willis", "is", "an", "American", "actor", "producer", "and", "singer", "His", "career",
+            "began", "in", "1980", "Die", "Hard", "<a href=\"/wiki/Film\" title=\"Film\">film</a>"
+    };
+
+    private List<byte[]> pages;
+    private List<byte[]> compressed;
+    private DictionaryCodec codec;
+    private int next = 0;
+
+    @Setup
+    public void setUp() throws IOException {
+        String dir = System.getProperty("pages.dir");
+        pages = null == dir ? generate() : read(Paths.get(dir));
+
+        // dictionary is trained from the first pages and measured on the rest, like in storage
+        codec = DictionaryCodec.train(0, pages.subList(0, Math.min(SAMPLES, pages.size() / 2)));
+        pages = new ArrayList<>(pages.subList(Math.min(SAMPLES, pages.size() / 2), pages.size()));
+
+        long raw = 0;
+        long plain = 0;
+        long withDictionary = 0;
+        compressed = new ArrayList<>();
+        for (byte[] page : pages) {
+            raw += page.length;
+            plain += compress(DictionaryCodec.NO_DICTIONARY, page).length;
+            byte[] bytes = compress(codec, page);
+            withDictionary += bytes.length;
+            compressed.add(bytes);
+        }
+
+        System.out.printf(
+                "%n%d pages, %d bytes: deflate ratio %.2f, deflate with %d bytes dictionary ratio %.2f%n",
+                pages.size(), raw, (double) raw / plain, codec.getDictionary().length, (double) raw / withDictionary
+        );
+    }
+
+    @Benchmark
+    public int compressWithoutDictionary() throws IOException {
+        return compress(DictionaryCodec.NO_DICTIONARY, nextPage()).length;
+    }
+
+    @Benchmark
+    public int compressWithDictionary() throws IOException {
+        return compress(codec, nextPage()).length;
+    }
+
+    @Benchmark
+    public int decompressWithDictionary() throws IOException {
+        next = (next + 1) % compressed.size();
+        try (InputStream in = codec.decompress(new ByteArrayInputStream(compressed.get(next)))) {
+            return ByteStreams.toByteArray(in).length;
+        }
+    }
+
+    private byte[] nextPage() {
+        next = (next + 1) % pages.size();
+        return pages.get(next);
+    }
+
+    private static byte[] compress(DictionaryCodec codec, byte[] page) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(page.length / 4);
+        try (OutputStream compressed = codec.compress(out)) {
+            compressed.write(page);
+        }
+        return out.toByteArray();
+    }
+
+    private static List<byte[]> read(Path dir) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            files = walk.filter(p -> p.toString().endsWith(".html")).limit(SAMPLES + PAGES).collect(Collectors.toList());
+        }
+
+        List<byte[]> pages = new ArrayList<>();
+        for (Path file : files) {
+            pages.add(Files.readAllBytes(file));
+        }
+        return pages;
+    }
+
+    private static List<byte[]> generate() {
+        Random random = new Random(42);
+        StringBuilder skin = new StringBuilder("<!DOCTYPE html>\n<html class=\"client-nojs\" lang=\"en\" dir=\"ltr\">\n<head>\n");
+        // skin is the same for all pages but barely repeats within a page, like scripts and navigation
+        for (int i = 0; i < 150; i++) {
+            skin.append("<li id=\"n-").append(Long.toHexString(random.nextLong())).append("\"><a href=\"/wiki/")
+                    .append(Long.toHexString(random.nextLong())).append("\">").append(random.nextInt()).append("</a></li>\n");
+        }
+
+        List<byte[]> pages = new ArrayList<>();
+        for (int i = 0; i < SAMPLES + PAGES; i++) {
+            StringBuilder page = new StringBuilder(skin).append("<div class=\"mw-parser-output\"><p>");
+            for (int j = 0; j < 300; j++) {
+                page.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            page.append("</p></div>\n</body>\n</html>\n");
+            pages.add(page.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return pages;
+    }
+}
@@ -0,0 +1,73 @@
+package crawler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.StringTokenizer;
+
+/**
+ * Compares term counting for one article with {@link Tokenizer} against the former StringTokenizer and regex approach.
+ * <p>
+ * Goal: tokenizer should count terms of at least 50M chars per second on a single thread
+ * and be at least 5 times faster than the baseline. Run with {@code gradle jmh}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TokenizerBenchmark {
+
+    private static final String[] WORDS = {
+            "Bruce", "Willis", "is", "an", "American", "actor,", "producer", "and", "singer.", "His", "career",
+            "began", "in", "1980", "Салтыков-Щедрин", "[1]", "(born", "March", "19,", "1955)", "Die", "Hard"
+    };
+
+    private final Tokenizer tokenizer = new Tokenizer();
+    private final DocumentTerms terms = new DocumentTerms();
+    private StringBuilder text;
+
+    @Setup
+    public void setUp() {
+        // size of a typical article text
+        Random random = new Random(42);
+        text = new StringBuilder();
+        while (text.length() < 100_000) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(10) == 0 ? '\n' : ' ');
+        }
+    }
+
+    @Benchmark
+    public int tokenizer() {
+        terms.clear();
+        tokenizer.tokenize(text, terms);
+        return terms.getTerms().size();
+    }
+
+    @Benchmark
+    public int baseline() {
+        Map<String, Integer> words = new HashMap<>();
+        StringTokenizer tokens = new StringTokenizer(text.toString(), " \t\n\r\f,.:;?![]'");
+        while (tokens.hasMoreTokens()) {
+            String token = tokens.nextToken();
+            if (clean(token).length() > 0) {
+                words.merge(clean(token), 1, Integer::sum);
+            }
+        }
+        return words.size();
+    }
+
+    private static String clean(String str) {
+        return str.toLowerCase().replaceAll("[^a-zа-я\\-]", "");
+    }
+}
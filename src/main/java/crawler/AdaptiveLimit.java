@@ -0,0 +1,102 @@
+package crawler;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrency limit adjusted like TCP congestion window (additive increase, multiplicative decrease).
+ * Every successful sample taken while the limit is fully used grows it by 1/limit, that is by one per window.
+ * Failure or latency much higher than the usual one shrinks it multiplicatively, at most once per cooldown,
+ * so one burst of slow responses does not collapse the limit.
+ */
+@ThreadSafe
+class AdaptiveLimit {
+
+    private static final double BACKOFF = 0.75;
+    // latency above baseline multiplied by tolerance means that the stage is congested
+    private static final double TOLERANCE = 2.0;
+    // weight of new sample in latency baseline, baseline follows slowly
+    private static final double SMOOTHING = 0.05;
+    private static final long COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final int min;
+    private final int max;
+
+    // all fields below are guarded by this
+    private double limit;
+    private int inFlight = 0;
+    private double baselineNanos = 0;
+    private long lastDecreaseNanos;
+
+    AdaptiveLimit(int initial, int min, int max) {
+        assert min > 0 : "min limit should be positive";
+        assert min <= max : "min limit should not exceed max limit";
+
+        this.min = min;
+        this.max = max;
+        this.limit = Math.max(min, Math.min(max, initial));
+        this.lastDecreaseNanos = System.nanoTime() - COOLDOWN_NANOS;
+    }
+
+    /**
+     * Waits until number of operations in flight is below the limit.
+     */
+    synchronized void acquire() throws InterruptedException {
+        while (inFlight >= getLimit()) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    /**
+     * Completes operation started by {@link #acquire()} and takes it as a sample.
+     */
+    synchronized void release(long latencyNanos, boolean overloaded) {
+        assert inFlight > 0 : "no operations in flight";
+
+        // the limit was used if this operation was the last allowed one
+        boolean saturated = inFlight >= getLimit();
+        inFlight--;
+        sample(latencyNanos, overloaded, saturated);
+        notifyAll();
+    }
+
+    /**
+     * Completes operation started by {@link #acquire()} without taking it as a sample.
+     */
+    synchronized void cancel() {
+        assert inFlight > 0 : "no operations in flight";
+
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * @param saturated whether more concurrency was demanded at the moment of sample
+     */
+    synchronized void sample(long latencyNanos, boolean overloaded, boolean saturated) {
+        long now = System.nanoTime();
+        boolean congested = overloaded || (baselineNanos > 0 && latencyNanos > baselineNanos * TOLERANCE);
+
+        if (congested) {
+            if (now - lastDecreaseNanos >= COOLDOWN_NANOS) {
+                limit = Math.max(min, limit * BACKOFF);
+                lastDecreaseNanos = now;
+            }
+        } else if (saturated) {
+            limit = Math.min(max, limit + 1 / limit);
+        }
+
+        if (!overloaded) {
+            baselineNanos = baselineNanos == 0 ? latencyNanos : baselineNanos + (latencyNanos - baselineNanos) * SMOOTHING;
+        }
+    }
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+}
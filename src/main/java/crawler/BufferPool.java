@@ -0,0 +1,44 @@
+package crawler;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pool of equally sized heap buffers reused by streams of page bodies, so every page does not allocate its own.
+ * Buffers are allocated on demand and at most {@code capacity} of them are kept between uses.
+ * <p>
+ * Buffers are not direct: parser reads their backing array.
+ */
+@ThreadSafe
+class BufferPool {
+
+    private final int bufferSize;
+    private final BlockingQueue<ByteBuffer> free;
+
+    BufferPool(int bufferSize, int capacity) {
+        assert bufferSize > 0 : "buffer size should be positive";
+        assert capacity > 0 : "capacity should be positive";
+
+        this.bufferSize = bufferSize;
+        this.free = new ArrayBlockingQueue<>(capacity);
+    }
+
+    ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        return null == buffer ? ByteBuffer.allocate(bufferSize) : buffer;
+    }
+
+    void release(ByteBuffer buffer) {
+        assert buffer.capacity() == bufferSize : "buffer does not belong to pool";
+
+        buffer.clear();
+        // buffer above capacity is left to garbage collector
+        free.offer(buffer);
+    }
+
+    int getFreeCount() {
+        return free.size();
+    }
+}
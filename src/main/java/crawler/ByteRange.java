@@ -0,0 +1,85 @@
+package crawler;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Single range of {@code Range: bytes=...} request header resolved against body length.
+ * Several ranges in one header are not supported, whole body is sent instead as allowed by RFC 7233.
+ */
+@Immutable
+class ByteRange {
+
+    private static final String UNIT = "bytes=";
+
+    private final long start;
+    // inclusive, as in Content-Range header
+    private final long end;
+    private final long total;
+
+    private ByteRange(long start, long end, long total) {
+        this.start = start;
+        this.end = end;
+        this.total = total;
+    }
+
+    /**
+     * @return requested range or null if whole body should be sent: header is absent, malformed or has several ranges
+     */
+    @Nullable
+    static ByteRange parse(@Nullable String header, long total) {
+        assert total >= 0 : "body length should not be negative";
+
+        if (null == header || !header.startsWith(UNIT) || header.indexOf(',') >= 0) {
+            return null;
+        }
+
+        String spec = header.substring(UNIT.length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+
+        try {
+            if (dash == 0) {
+                // suffix range: last bytes of body
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix < 0) {
+                    return null;
+                }
+                return new ByteRange(Math.max(0, total - suffix), total - 1, total);
+            }
+
+            long start = Long.parseLong(spec.substring(0, dash));
+            long end = dash == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash + 1));
+            if (start < 0 || end < start) {
+                return null;
+            }
+            return new ByteRange(start, Math.min(end, total - 1), total);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Range starting after the end of body or empty suffix range is answered with 416.
+     */
+    boolean isSatisfiable() {
+        return start < total && start <= end;
+    }
+
+    long getStart() {
+        return start;
+    }
+
+    long getLength() {
+        return end - start + 1;
+    }
+
+    /**
+     * @return value of Content-Range header for satisfiable range
+     */
+    String getContentRange() {
+        return "bytes " + start + "-" + end + "/" + total;
+    }
+}
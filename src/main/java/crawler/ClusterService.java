@@ -0,0 +1,364 @@
+package crawler;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Splitter;
+import com.google.common.net.UrlEscapers;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Cluster of crawler nodes. Every page is owned by one node chosen by consistent hashing of its canonical form,
+ * node downloads and indexes only pages it owns. Pages found by other nodes are forwarded to their owner in batches,
+ * word lookups are sent to every node and their results are merged.
+ * <p>
+ * Node which does not answer lookup in {@link #findTimeoutMillis} is skipped, so lookup returns partial result.
+ * Pages for unavailable node are kept up to {@link #maxPending} and resent, pages rejected by node are dropped.
+ * <p>
+ * Without configured nodes the only node owns every page.
+ */
+@ThreadSafe
+@Service
+class ClusterService {
+
+    /**
+     * Page sent to its owner together with parameters of the task it was found by.
+     */
+    @Immutable
+    static class ForwardedPage {
+
+        private final String url;
+        private final int depth;
+        private final String taskUrl;
+        private final int taskDepth;
+
+        @JsonCreator
+        ForwardedPage(
+                @JsonProperty("url") String url,
+                @JsonProperty("depth") int depth,
+                @JsonProperty("taskUrl") String taskUrl,
+                @JsonProperty("taskDepth") int taskDepth
+        ) {
+            this.url = url;
+            this.depth = depth;
+            this.taskUrl = taskUrl;
+            this.taskDepth = taskDepth;
+        }
+
+        ForwardedPage(Page page) {
+            this(page.getUrl().toString(), page.getDepth(), page.getTask().getUrl().toString(), page.getTask().getDepth());
+        }
+
+        @JsonProperty("url")
+        String getUrl() {
+            return url;
+        }
+
+        @JsonProperty("depth")
+        int getDepth() {
+            return depth;
+        }
+
+        @JsonProperty("taskUrl")
+        String getTaskUrl() {
+            return taskUrl;
+        }
+
+        @JsonProperty("taskDepth")
+        int getTaskDepth() {
+            return taskDepth;
+        }
+    }
+
+    private static final int REPLICAS = 128;
+    private static final long DEFAULT_FIND_TIMEOUT_MILLIS = 1000;
+    private static final int DEFAULT_MAX_PENDING = 100_000;
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final OkHttpClient client = new OkHttpClient();
+
+    private final String self;
+    private final List<String> nodes;
+    // null if there is only one node
+    private final HashRing ring;
+    private final IndexService indexService;
+    private final int batchSize;
+    private final long findTimeoutMillis;
+    // pages waiting for one node
+    private final int maxPending;
+    // null if there is only one node
+    private final ScheduledExecutorService forwarder;
+
+    // all fields below are guarded by this
+    // pages waiting to be sent by owner
+    private final Map<String, List<ForwardedPage>> pending = new HashMap<>();
+    // nodes which did not accept the last batch -> pages dropped for them since then
+    private final Map<String, Integer> unavailable = new HashMap<>();
+
+    @Autowired
+    ClusterService(
+            @Autowired IndexService indexService,
+            @Value("${app.cluster.self}") String self,
+            @Value("${app.cluster.nodes}") String nodes,
+            @Value("${app.cluster.forward.batch}") int batchSize,
+            @Value("${app.cluster.forward.ms}") long forwardMillis,
+            @Value("${app.cluster.forward.max.pending}") int maxPending,
+            @Value("${app.cluster.find.timeout.ms}") long findTimeoutMillis
+    ) {
+        this(
+                indexService, self, Splitter.on(',').trimResults().omitEmptyStrings().splitToList(nodes),
+                batchSize, forwardMillis, maxPending, findTimeoutMillis
+        );
+    }
+
+    // for testing purpose
+    ClusterService(IndexService indexService, String self, List<String> nodes, int batchSize, long forwardMillis) {
+        this(indexService, self, nodes, batchSize, forwardMillis, DEFAULT_MAX_PENDING, DEFAULT_FIND_TIMEOUT_MILLIS);
+    }
+
+    ClusterService(
+            IndexService indexService,
+            String self,
+            List<String> nodes,
+            int batchSize,
+            long forwardMillis,
+            int maxPending,
+            long findTimeoutMillis
+    ) {
+        assert batchSize > 0 : "batch size should be positive";
+        assert forwardMillis > 0 : "forward interval should be positive";
+        assert maxPending >= batchSize : "max pending pages should not be less than batch size";
+        assert findTimeoutMillis > 0 : "find timeout should be positive";
+
+        if (!nodes.isEmpty() && !nodes.contains(self)) {
+            throw new IllegalArgumentException("Node [" + self + "] should be one of cluster nodes " + nodes);
+        }
+
+        this.indexService = indexService;
+        this.self = self;
+        this.nodes = nodes;
+        this.batchSize = batchSize;
+        this.maxPending = maxPending;
+        this.findTimeoutMillis = findTimeoutMillis;
+
+        if (nodes.size() > 1) {
+            ring = new HashRing(nodes, REPLICAS);
+            forwarder = Executors.newSingleThreadScheduledExecutor();
+            // batches not filled up are sent periodically, so forwarded pages do not wait for long
+            forwarder.scheduleWithFixedDelay(this::flush, forwardMillis, forwardMillis, TimeUnit.MILLISECONDS);
+        } else {
+            ring = null;
+            forwarder = null;
+        }
+    }
+
+    boolean isLocal(Page page) {
+        return isLocal(page.getCanonicalForm());
+    }
+
+    boolean isLocal(String canonicalForm) {
+        return null == ring || self.equals(ring.getOwner(canonicalForm));
+    }
+
+    /**
+     * Sends page to its owner, owner queues it if it was not visited yet.
+     */
+    void forward(Page page) {
+        assert !isLocal(page) : "local page should not be forwarded";
+
+        String owner = ring.getOwner(page.getCanonicalForm());
+        List<ForwardedPage> batch = null;
+        synchronized (this) {
+            List<ForwardedPage> pages = pending.computeIfAbsent(owner, n -> new ArrayList<>());
+            if (pages.size() >= maxPending) {
+                // owner is unavailable for long, page may be found again later
+                unavailable.merge(owner, 1, Integer::sum);
+                return;
+            }
+            pages.add(new ForwardedPage(page));
+            // pages for unavailable node are sent only by periodic flush
+            if (pages.size() >= batchSize && !unavailable.containsKey(owner)) {
+                batch = pending.remove(owner);
+            }
+        }
+
+        if (null != batch) {
+            send(owner, batch);
+        }
+    }
+
+    /**
+     * @return pages found by word or pattern in indexes of all nodes which answered in time
+     */
+    Set<String> find(String word) {
+        // validates word before it is sent to other nodes
+        Set<String> result = new HashSet<>(indexService.find(word));
+
+        Map<String, CompletableFuture<Set<String>>> remote = new HashMap<>();
+        for (String node : nodes) {
+            if (!node.equals(self)) {
+                remote.put(node, findRemote(node, word));
+            }
+        }
+
+        // nodes are asked at once, so all of them share one deadline
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(findTimeoutMillis);
+        List<String> missing = new ArrayList<>();
+        for (Map.Entry<String, CompletableFuture<Set<String>>> found : remote.entrySet()) {
+            try {
+                result.addAll(found.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (ExecutionException | TimeoutException e) {
+                found.getValue().cancel(true);
+                missing.add(found.getKey());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for cluster nodes", e);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            log.warn("[" + word + "] lookup result is partial, nodes " + missing + " did not answer");
+        }
+        return result;
+    }
+
+    private CompletableFuture<Set<String>> findRemote(String node, String word) {
+        CompletableFuture<Set<String>> result = new CompletableFuture<>();
+        String url = node + "/cluster/find/" + UrlEscapers.urlPathSegmentEscaper().escape(word);
+
+        client.newCall(new Request.Builder().url(url).build()).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                result.completeExceptionally(new IllegalStateException("Node [" + node + "] is not available", e));
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try {
+                    if (!response.isSuccessful()) {
+                        throw new IllegalStateException("Node [" + node + "] failed to find; code: " + response.code());
+                    }
+                    result.complete(mapper.readValue(response.body().bytes(), new TypeReference<Set<String>>() {
+                    }));
+                } catch (IOException e) {
+                    result.completeExceptionally(new UncheckedIOException(e));
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    response.close();
+                }
+            }
+        });
+
+        return result;
+    }
+
+    private void flush() {
+        Map<String, List<ForwardedPage>> batches;
+        synchronized (this) {
+            batches = new HashMap<>(pending);
+            pending.clear();
+        }
+
+        batches.forEach((node, pages) -> {
+            for (int from = 0; from < pages.size(); from += batchSize) {
+                send(node, pages.subList(from, Math.min(pages.size(), from + batchSize)));
+            }
+        });
+    }
+
+    private void send(String node, List<ForwardedPage> batch) {
+        RequestBody body;
+        try {
+            body = RequestBody.create(JSON, mapper.writeValueAsBytes(batch));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        client
+                .newCall(new Request.Builder().url(node + "/cluster/pages").post(body).build())
+                .enqueue(new Callback() {
+                    @Override
+                    public void onFailure(Call call, IOException e) {
+                        requeue(node, batch, e.getMessage());
+                    }
+
+                    @Override
+                    public void onResponse(Call call, Response response) {
+                        if (response.code() >= 400 && response.code() < 500) {
+                            // the same batch would be rejected again
+                            log.error("[" + batch.size() + "] pages are rejected by [" + node + "] and dropped; code: " + response.code());
+                        } else if (!response.isSuccessful()) {
+                            requeue(node, batch, "code: " + response.code());
+                        } else {
+                            delivered(node);
+                        }
+                        response.close();
+                    }
+                });
+    }
+
+    /**
+     * Pages are kept until their owner accepts them, so they are not lost while owner restarts.
+     * Pages over {@link #maxPending} are dropped.
+     */
+    private void requeue(String node, List<ForwardedPage> batch, String reason) {
+        int lost;
+        synchronized (this) {
+            List<ForwardedPage> pages = pending.computeIfAbsent(node, n -> new ArrayList<>());
+            int kept = Math.max(0, Math.min(batch.size(), maxPending - pages.size()));
+            pages.addAll(0, batch.subList(0, kept));
+            lost = unavailable.merge(node, batch.size() - kept, Integer::sum);
+        }
+
+        log.warn("[" + batch.size() + "] pages are not forwarded to [" + node + "], will retry; " + reason
+                + (lost > 0 ? "; [" + lost + "] pages dropped so far" : ""));
+    }
+
+    private synchronized void delivered(String node) {
+        Integer lost = unavailable.remove(node);
+        if (null != lost && lost > 0) {
+            log.warn("[" + node + "] is available again, [" + lost + "] pages were dropped while it was not");
+        }
+    }
+
+    @PreDestroy
+    void close() {
+        if (null != forwarder) {
+            forwarder.shutdown();
+            flush();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package crawler;
 
+import com.google.common.io.ByteStreams;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -7,9 +8,21 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 @RestController
@@ -28,12 +41,28 @@ public class Controller {
         }
     }
 
+    // tomcat sends file region by itself when these request attributes are set, body is never copied to user space
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+    private static final String HTML = "text/html;charset=UTF-8";
+
     private final CrawlService service;
     private final IndexService indexService;
+    private final ClusterService cluster;
+    private final StorageService storageService;
 
-    Controller(@Autowired CrawlService service, @Autowired IndexService indexService) {
+    Controller(
+            @Autowired CrawlService service,
+            @Autowired IndexService indexService,
+            @Autowired ClusterService cluster,
+            @Autowired StorageService storageService
+    ) {
         this.service = service;
         this.indexService = indexService;
+        this.cluster = cluster;
+        this.storageService = storageService;
     }
 
     @RequestMapping(value = "/create", method = RequestMethod.PUT)
@@ -42,21 +71,137 @@ public class Controller {
         service.download(request);
     }
 
-    @RequestMapping(value = "/urls", method = RequestMethod.GET)
-    public Set<String> urls() {
-        return service.getUrls();
-    }
-
     @RequestMapping(value = "/count", method = RequestMethod.GET)
     public int count() {
-        return service.getUrls().size();
+        return service.getVisitedCount();
+    }
+
+    @RequestMapping(value = "/limits", method = RequestMethod.GET)
+    public Map<String, Integer> limits() {
+        return service.getLimits();
     }
 
     @RequestMapping(value = "/find/{word}", method = RequestMethod.GET)
     public Set<String> find(@PathVariable(value = "word") String word) {
+        return cluster.find(word);
+    }
+
+    @RequestMapping(value = "/cluster/find/{word}", method = RequestMethod.GET)
+    public Set<String> findLocal(@PathVariable(value = "word") String word) {
         return indexService.find(word);
     }
 
+    @RequestMapping(value = "/cluster/pages", method = RequestMethod.POST)
+    @ResponseStatus(value = HttpStatus.ACCEPTED)
+    public void accept(@RequestBody List<ClusterService.ForwardedPage> pages) {
+        service.accept(pages);
+    }
+
+    @RequestMapping(value = "/search", method = RequestMethod.GET)
+    public Set<String> search(@RequestParam(value = "q") String query) {
+        return indexService.search(query);
+    }
+
+    @RequestMapping(value = "/rank", method = RequestMethod.GET)
+    public List<String> rank(@RequestParam(value = "q") String query, @RequestParam(value = "k", defaultValue = "10") int k) {
+        return indexService.rank(query, k);
+    }
+
+    /**
+     * Serves stored page body by its url, single byte range is supported. Uncompressed body is sent from storage file
+     * by sendfile or {@link FileChannel#transferTo}. Compressed body is inflated by the application, so it is never
+     * sent by sendfile; inflated length is unknown until body is read, so range is applied over the inflated body
+     * read into memory, while body without range is streamed.
+     */
+    @RequestMapping(value = "/pages", method = RequestMethod.GET)
+    public void page(
+            @RequestParam(value = "url") String url, HttpServletRequest request, HttpServletResponse response
+    ) throws IOException {
+        Page page = Page.initial(new CrawlTask(url, 1, p -> {
+        }));
+
+        PageStore.StoredBody stored = storageService.locate(page);
+        if (null == stored) {
+            try (InputStream body = storageService.open(page)) {
+                if (null == body) {
+                    response.sendError(HttpServletResponse.SC_NOT_FOUND, "Page [" + url + "] is not stored");
+                    return;
+                }
+                if (null == request.getHeader("Range")) {
+                    response.setHeader("Accept-Ranges", "bytes");
+                    response.setContentType(HTML);
+                    ByteStreams.copy(body, response.getOutputStream());
+                    return;
+                }
+
+                byte[] inflated = ByteStreams.toByteArray(body);
+                ByteRange range = applyRange(request, response, inflated.length);
+                if (null != range && !range.isSatisfiable()) {
+                    return;
+                }
+                int start = null == range ? 0 : (int) range.getStart();
+                int length = null == range ? inflated.length : (int) range.getLength();
+                response.setContentType(HTML);
+                response.setContentLengthLong(length);
+                response.getOutputStream().write(inflated, start, length);
+            }
+            return;
+        }
+
+        long offset = stored.getOffset();
+        long length = stored.getLength();
+        ByteRange range = applyRange(request, response, length);
+        if (null != range) {
+            if (!range.isSatisfiable()) {
+                return;
+            }
+            offset += range.getStart();
+            length = range.getLength();
+        }
+        response.setContentType(HTML);
+        response.setContentLengthLong(length);
+
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, stored.getFile().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, offset);
+            request.setAttribute(SENDFILE_END, offset + length);
+            return;
+        }
+
+        try (FileChannel file = FileChannel.open(stored.getFile(), StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            for (long sent = 0; sent < length; ) {
+                long count = file.transferTo(offset + sent, length - sent, out);
+                if (count <= 0) {
+                    throw new IOException("Stored page [" + url + "] is shorter than expected");
+                }
+                sent += count;
+            }
+        }
+    }
+
+    /**
+     * Sets range headers of response, unsatisfiable range is answered with error.
+     *
+     * @return requested range or null if whole body should be sent
+     */
+    @Nullable
+    private static ByteRange applyRange(HttpServletRequest request, HttpServletResponse response, long length)
+            throws IOException {
+        ByteRange range = ByteRange.parse(request.getHeader("Range"), length);
+        response.setHeader("Accept-Ranges", "bytes");
+        if (null != range) {
+            if (!range.isSatisfiable()) {
+                response.setHeader("Content-Range", "bytes */" + length);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return range;
+            }
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader("Content-Range", range.getContentRange());
+        }
+        return range;
+    }
+
     @ResponseStatus(value = HttpStatus.BAD_REQUEST)
     @ExceptionHandler(IllegalArgumentException.class)
     public ErrorResponse handleValidation(Exception e) {
@@ -0,0 +1,353 @@
+package crawler;
+
+import okhttp3.HttpUrl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only log of crawl progress: started tasks, queued pages and processed pages.
+ * Records are buffered and forced to disk every {@link #checkpointMillis}, so every checkpoint writes only
+ * what happened since the previous one. Records are appended in causal order (page is queued before it is processed,
+ * links are queued before the page is marked as processed), so any prefix of the log is a consistent crawl state.
+ * <p>
+ * On startup the log is replayed and compacted to outstanding tasks with their visited and pending pages,
+ * compacted log is forced before it replaces the old one. Pages of completed tasks are dropped,
+ * so they may be crawled again by new tasks.
+ */
+@ThreadSafe
+@Service
+class CrawlJournal {
+
+    static class RecoveredTask {
+
+        // id in compacted log
+        private int id;
+        private final String url;
+        private final int depth;
+        private int processed;
+        private int failed;
+        // url -> depth in order of queueing
+        private final Map<String, Integer> pending = new LinkedHashMap<>();
+        // fingerprints of queued pages except failed ones
+        private final Set<Long> visited = new HashSet<>();
+
+        RecoveredTask(String url, int depth, int processed, int failed) {
+            this.url = url;
+            this.depth = depth;
+            this.processed = processed;
+            this.failed = failed;
+        }
+
+        String getUrl() {
+            return url;
+        }
+
+        int getDepth() {
+            return depth;
+        }
+
+        /**
+         * @return number of pages processed including failed ones
+         */
+        int getProcessed() {
+            return processed;
+        }
+
+        int getFailed() {
+            return failed;
+        }
+
+        Map<String, Integer> getPending() {
+            return pending;
+        }
+    }
+
+    private static final String FILE = "crawl.journal";
+    // visited page without task, written by previous versions and ignored
+    private static final byte VISITED = 1;
+    private static final byte TASK = 2;
+    private static final byte QUEUED = 3;
+    private static final byte PROCESSED = 4;
+    private static final byte FAILED = 5;
+    private static final byte TASK_DONE = 6;
+    private static final byte TASK_VISITED = 7;
+
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private final Path file;
+    private final long checkpointMillis;
+    private final ScheduledExecutorService checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "crawl-checkpoint");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // all fields below are guarded by this, log is opened for append by recover
+    private FileOutputStream fileOut;
+    private DataOutputStream out;
+    private final Map<CrawlTask, Integer> taskIds = new HashMap<>();
+    private int nextTaskId = 0;
+
+    @Autowired
+    CrawlJournal(
+            @Value("${app.crawl.journal.dir}") String dir,
+            @Value("${app.crawl.checkpoint.ms}") long checkpointMillis
+    ) {
+        this(Paths.get(dir), checkpointMillis);
+    }
+
+    CrawlJournal(Path dir, long checkpointMillis) {
+        assert Files.isDirectory(dir) : "path should be directory";
+        assert checkpointMillis > 0 : "checkpoint interval should be positive";
+
+        this.file = dir.resolve(FILE);
+        this.checkpointMillis = checkpointMillis;
+    }
+
+    /**
+     * Replays the log and starts a new compacted one. Should be called once before any other method.
+     * Returned tasks are already logged, they should be continued by {@link #taskResumed}.
+     *
+     * @param visited filled with pages queued by outstanding tasks except failed ones
+     * @return tasks which have pages not processed yet
+     */
+    synchronized List<RecoveredTask> recover(VisitedSet visited) throws IOException {
+        assert null == out : "journal is already recovered";
+
+        Map<Integer, RecoveredTask> tasks = new LinkedHashMap<>();
+        if (Files.exists(file)) {
+            replay(tasks);
+        }
+
+        List<RecoveredTask> outstanding = new ArrayList<>();
+        for (RecoveredTask task : tasks.values()) {
+            if (!task.pending.isEmpty()) {
+                task.id = outstanding.size();
+                outstanding.add(task);
+                task.visited.forEach(visited::addFingerprint);
+            }
+        }
+        nextTaskId = outstanding.size();
+
+        Path tmp = file.resolveSibling(FILE + ".tmp");
+        try (FileOutputStream compactedOut = new FileOutputStream(tmp.toFile())) {
+            DataOutputStream compacted = new DataOutputStream(new BufferedOutputStream(compactedOut));
+            for (RecoveredTask task : outstanding) {
+                compact(compacted, task);
+            }
+            compacted.flush();
+            // pending pages are only in the compacted log after the move, so it is durable before
+            compactedOut.getChannel().force(false);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        fileOut = new FileOutputStream(file.toFile(), true);
+        out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        checkpointer.scheduleWithFixedDelay(this::checkpoint, checkpointMillis, checkpointMillis, TimeUnit.MILLISECONDS);
+
+        log.info("crawl journal recovered with [" + visited.size() + "] visited pages and [" + outstanding.size() + "] outstanding tasks");
+        return outstanding;
+    }
+
+    private static void compact(DataOutputStream compacted, RecoveredTask task) throws IOException {
+        compacted.writeByte(TASK);
+        compacted.writeInt(task.id);
+        compacted.writeUTF(task.url);
+        compacted.writeInt(task.depth);
+        compacted.writeInt(task.processed);
+        compacted.writeInt(task.failed);
+
+        for (long fingerprint : task.visited) {
+            compacted.writeByte(TASK_VISITED);
+            compacted.writeInt(task.id);
+            compacted.writeLong(fingerprint);
+        }
+        for (Map.Entry<String, Integer> pending : task.pending.entrySet()) {
+            compacted.writeByte(QUEUED);
+            compacted.writeInt(task.id);
+            compacted.writeUTF(pending.getKey());
+            compacted.writeInt(pending.getValue());
+        }
+    }
+
+    private void replay(Map<Integer, RecoveredTask> tasks) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            for (int type = in.read(); type >= 0; type = in.read()) {
+                switch (type) {
+                    case VISITED:
+                        in.readLong();
+                        break;
+                    case TASK_VISITED: {
+                        RecoveredTask task = tasks.get(in.readInt());
+                        task.visited.add(in.readLong());
+                        break;
+                    }
+                    case TASK: {
+                        int id = in.readInt();
+                        tasks.put(id, new RecoveredTask(in.readUTF(), in.readInt(), in.readInt(), in.readInt()));
+                        break;
+                    }
+                    case QUEUED: {
+                        RecoveredTask task = tasks.get(in.readInt());
+                        String url = in.readUTF();
+                        task.pending.put(url, in.readInt());
+                        task.visited.add(VisitedSet.fingerprint(Page.getCanonicalForm(HttpUrl.parse(url))));
+                        break;
+                    }
+                    case PROCESSED: {
+                        RecoveredTask task = tasks.get(in.readInt());
+                        task.pending.remove(in.readUTF());
+                        task.processed++;
+                        break;
+                    }
+                    case FAILED: {
+                        RecoveredTask task = tasks.get(in.readInt());
+                        String url = in.readUTF();
+                        task.pending.remove(url);
+                        task.processed++;
+                        task.failed++;
+                        // failed pages may be downloaded again, as during crawling
+                        task.visited.remove(VisitedSet.fingerprint(Page.getCanonicalForm(HttpUrl.parse(url))));
+                        break;
+                    }
+                    case TASK_DONE:
+                        tasks.remove(in.readInt());
+                        break;
+                    default:
+                        throw new IOException("Unknown record type [" + type + "] in crawl journal [" + file + "]");
+                }
+            }
+        } catch (EOFException e) {
+            // records after the last checkpoint may be partially written
+            log.warn("crawl journal [" + file + "] ends with incomplete record, it is skipped");
+        }
+    }
+
+    /**
+     * Logs task with its current counters, so pages processed before restart stay accounted.
+     */
+    synchronized void taskStarted(CrawlTask task) {
+        int id = nextTaskId++;
+        taskIds.put(task, id);
+        append(() -> {
+            out.writeByte(TASK);
+            out.writeInt(id);
+            out.writeUTF(task.getUrl().toString());
+            out.writeInt(task.getDepth());
+            out.writeInt(task.getTotalCount() - task.getInProcessCount());
+            out.writeInt(task.getFailedCount());
+        });
+    }
+
+    /**
+     * Continues task recovered with its pending pages, they are not logged again.
+     */
+    synchronized void taskResumed(CrawlTask task, RecoveredTask recovered) {
+        taskIds.put(task, recovered.id);
+    }
+
+    synchronized void queued(Page page) {
+        writePage(QUEUED, page);
+        append(() -> out.writeInt(page.getDepth()));
+    }
+
+    synchronized void processed(Page page) {
+        writePage(PROCESSED, page);
+    }
+
+    synchronized void failed(Page page) {
+        writePage(FAILED, page);
+    }
+
+    synchronized void taskCompleted(CrawlTask task) {
+        Integer id = taskIds.remove(task);
+        if (null != id) {
+            append(() -> {
+                out.writeByte(TASK_DONE);
+                out.writeInt(id);
+            });
+        }
+    }
+
+    private void writePage(byte type, Page page) {
+        Integer id = taskIds.get(page.getTask());
+        assert null != id : "task of the page should be started";
+
+        append(() -> {
+            out.writeByte(type);
+            out.writeInt(id);
+            out.writeUTF(page.getUrl().toString());
+        });
+    }
+
+    private interface Write {
+        void write() throws IOException;
+    }
+
+    private void append(Write write) {
+        if (null == out) {
+            // journal is closed on shutdown, pages processed after that are resumed after restart
+            return;
+        }
+
+        try {
+            write.write();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Makes records appended so far durable.
+     */
+    synchronized void checkpoint() {
+        if (null == out) {
+            return;
+        }
+
+        try {
+            out.flush();
+            fileOut.getChannel().force(false);
+        } catch (IOException e) {
+            log.error("unable to checkpoint crawl journal", e);
+        }
+    }
+
+    @PreDestroy
+    synchronized void close() throws IOException {
+        checkpointer.shutdownNow();
+        if (null != out) {
+            checkpoint();
+            out.close();
+            out = null;
+        }
+    }
+}
@@ -7,11 +7,22 @@ class CrawlRequest {
 
     private final String url;
     private final int depth;
+    // pages crawled before are downloaded again, conditionally if they were stored with validators
+    private final boolean recrawl;
+
+    CrawlRequest(String url, int depth) {
+        this(url, depth, false);
+    }
 
     @JsonCreator
-    CrawlRequest(@JsonProperty("url") String url, @JsonProperty("depth") int depth) {
+    CrawlRequest(
+            @JsonProperty("url") String url,
+            @JsonProperty("depth") int depth,
+            @JsonProperty("recrawl") boolean recrawl
+    ) {
         this.url = url;
         this.depth = depth;
+        this.recrawl = recrawl;
     }
 
     String getUrl() {
@@ -21,4 +32,8 @@ class CrawlRequest {
     int getDepth() {
         return depth;
     }
+
+    boolean isRecrawl() {
+        return recrawl;
+    }
 }
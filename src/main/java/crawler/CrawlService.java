@@ -1,33 +1,98 @@
 package crawler;
 
+import okhttp3.HttpUrl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.w3c.dom.Document;
 
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.concurrent.Immutable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 @Service
 class CrawlService {
 
+    private static final int VISITED_INITIAL_SIZE = 1 << 16;
+
+    // chunk of page body read at once
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Response headers with not yet read body.
+     */
+    @Immutable
+    private static class Fetched {
+
+        // null if page was not modified since it was processed
+        private final InputStream body;
+        // body is read from storage
+        private final boolean stored;
+        private final String etag;
+        private final String lastModified;
+        // validators stored with processed page
+        private final PageValidators previous;
+
+        Fetched(InputStream body, boolean stored, String etag, String lastModified, PageValidators previous) {
+            this.body = body;
+            this.stored = stored;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.previous = previous;
+        }
+
+        boolean isNotModified() {
+            return null == body;
+        }
+    }
+
     private final Executor downloadExecutor;
-    private final Executor parseAndIndexExecutor;
+    private final Executor parseExecutor;
+    private final Frontier frontier;
+    // pages being downloaded or parsed, bounded by threads which serve them: a request holds a dispatcher thread
+    // until headers are received, then its body is read by a parse thread
+    private final Semaphore inFlight;
+    // requests to origin, adjusted by their latency and failures
+    private final AdaptiveLimit downloadLimit;
+    // parse threads, adjusted by parse queue and parse latency
+    private final AdaptiveLimit parseLimit;
+    // null when parse executor is given for testing purpose
+    private final ThreadPoolExecutor parsePool;
+    private final BufferPool buffers;
 
     private final DownloadService downloadService;
     private final ParserService parserService;
     private final StorageService storageService;
-    private final IndexService indexService;
+    private final IndexPipeline indexPipeline;
+    private final CrawlJournal journal;
+    private final RetryPolicy retryPolicy;
+    private final ClusterService cluster;
+    private final DuplicateDetector duplicates;
 
     private final Logger log = LoggerFactory.getLogger(this.getClass());
-    private final Set<String> urls = Collections.synchronizedSet(new HashSet<>());
+    // canonical forms of pages queued or downloaded
+    private final VisitedSet visited = new VisitedSet(VISITED_INITIAL_SIZE);
+    // pages of recrawl tasks, checked instead of visited, so pages crawled before are revisited
+    private final Map<CrawlTask, VisitedSet> recrawled = new ConcurrentHashMap<>();
+    // local tasks for pages forwarded by other nodes, by url and depth of the origin task
+    private final Map<String, CrawlTask> remoteTasks = new ConcurrentHashMap<>();
     private final Consumer<CrawlTask.CallbackParams> callback;
     private final int maxDepth;
 
@@ -36,99 +101,449 @@ class CrawlService {
             @Autowired DownloadService downloadService,
             @Autowired ParserService parserService,
             @Autowired StorageService storageService,
-            @Autowired IndexService indexService,
+            @Autowired IndexPipeline indexPipeline,
+            @Autowired Frontier frontier,
+            @Autowired CrawlJournal journal,
+            @Autowired RetryPolicy retryPolicy,
+            @Autowired ClusterService cluster,
+            @Autowired DuplicateDetector duplicates,
             @Value("${app.download.pool.size}") int downloadPoolSize,
-            @Value("${app.parse.pool.size}") int savePoolSize,
+            @Value("${app.download.limit.initial}") int downloadLimit,
+            @Value("${app.parse.pool.size}") int parsePoolSize,
+            @Value("${app.parse.pool.max}") int parsePoolMax,
             @Value("${app.download.max_depth}") int maxDepth
-    ) {
+    ) throws IOException {
         this.downloadService = downloadService;
         this.parserService = parserService;
         this.storageService = storageService;
-        this.indexService = indexService;
+        this.indexPipeline = indexPipeline;
+        this.frontier = frontier;
+        this.journal = journal;
+        this.retryPolicy = retryPolicy;
+        this.cluster = cluster;
+        this.duplicates = duplicates;
         this.maxDepth = maxDepth;
+        // more pages would only wait in dispatcher and parse queues
+        int maxRequests = downloadService.getMaxRequests();
+        this.inFlight = new Semaphore(maxRequests + parsePoolMax);
+        this.downloadLimit = new AdaptiveLimit(Math.min(downloadLimit, maxRequests), 1, maxRequests);
+        this.parseLimit = new AdaptiveLimit(parsePoolSize, 1, parsePoolMax);
 
         downloadExecutor = Executors.newFixedThreadPool(downloadPoolSize);
-        parseAndIndexExecutor = Executors.newFixedThreadPool(savePoolSize);
+        // queue is unbounded, so only core threads run and core size is the concurrency limit;
+        // parse threads read bodies from network, so slow origin keeps them blocked and looks like slow parsing
+        parsePool = new ThreadPoolExecutor(
+                parseLimit.getLimit(), parsePoolMax, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>()
+        );
+        parseExecutor = parsePool;
+        // one buffer is used by each parse thread
+        buffers = new BufferPool(BUFFER_SIZE, parsePoolMax);
         callback = p -> log.info(p.toString());
+
+        startDownloadWorkers(downloadPoolSize);
+        resume();
     }
 
     // for testing purpose
     CrawlService(
             Executor downloadExecutor,
-            Executor parseAndIndexExecutor,
+            int downloadWorkers,
+            int maxInFlight,
+            Executor parseExecutor,
+            Frontier frontier,
             DownloadService downloadService,
             ParserService parserService,
             StorageService storageService,
-            IndexService indexService,
+            IndexPipeline indexPipeline,
+            CrawlJournal journal,
+            RetryPolicy retryPolicy,
+            ClusterService cluster,
+            DuplicateDetector duplicates,
             Consumer<CrawlTask.CallbackParams> callback,
             int maxDepth
 
     ) {
         this.downloadExecutor = downloadExecutor;
-        this.parseAndIndexExecutor = parseAndIndexExecutor;
+        this.parseExecutor = parseExecutor;
         this.downloadService = downloadService;
         this.parserService = parserService;
         this.storageService = storageService;
-        this.indexService = indexService;
+        this.indexPipeline = indexPipeline;
+        this.frontier = frontier;
+        this.journal = journal;
+        this.retryPolicy = retryPolicy;
+        this.cluster = cluster;
+        this.duplicates = duplicates;
         this.callback = callback;
         this.maxDepth = maxDepth;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.downloadLimit = new AdaptiveLimit(maxInFlight, 1, maxInFlight);
+        this.parseLimit = new AdaptiveLimit(1, 1, 1);
+        this.parsePool = null;
+        this.buffers = new BufferPool(BUFFER_SIZE, 1);
+
+        startDownloadWorkers(downloadWorkers);
+    }
+
+    private void startDownloadWorkers(int count) {
+        for (int i = 0; i < count; i++) {
+            downloadExecutor.execute(this::work);
+        }
+    }
+
+    /**
+     * Continues tasks interrupted by restart. Pages processed before restart are not queued again,
+     * pages queued but not processed are taken from storage if they were downloaded.
+     */
+    void resume() throws IOException {
+        for (CrawlJournal.RecoveredTask recovered : journal.recover(visited)) {
+            CrawlTask task = new CrawlTask(recovered.getUrl(), recovered.getDepth(), callback);
+            task.restore(recovered.getProcessed(), recovered.getFailed());
+            // task and its pending pages are already in compacted journal
+            journal.taskResumed(task, recovered);
+            task.getCompletion().thenRun(() -> journal.taskCompleted(task));
+
+            recovered.getPending().forEach((url, depth) -> {
+                Page page = Page.restore(task, url, depth);
+                page.start();
+                frontier.add(page);
+            });
+
+            log.info("[" + task.getUrl() + "] resumed with [" + recovered.getPending().size() + "] pending pages");
+        }
     }
 
-    Set<String> getUrls() {
-        return urls;
+    private void start(CrawlTask task) {
+        journal.taskStarted(task);
+        task.getCompletion().thenRun(() -> journal.taskCompleted(task));
+    }
+
+    int getVisitedCount() {
+        return visited.size();
+    }
+
+    /**
+     * @return current concurrency limits and their usage
+     */
+    Map<String, Integer> getLimits() {
+        return ImmutableMap.of(
+                "download", downloadLimit.getLimit(),
+                "download_in_flight", downloadLimit.getInFlight(),
+                "parse", parseLimit.getLimit(),
+                "parse_queue", null == parsePool ? 0 : parsePool.getQueue().size()
+        );
     }
 
     // rejection for too much concurrent requests omitted
-    CompletableFuture download(CrawlRequest req) {
+    CompletableFuture<CrawlTask.CallbackParams> download(CrawlRequest req) {
         if (req.getDepth() <= 0 || req.getDepth() > maxDepth) {
             throw new IllegalArgumentException("Depth should be between [0," + maxDepth + "], but [" + req.getDepth() + "] given");
         }
 
-        Page page = Page.initial(new CrawlTask(req.getUrl(), req.getDepth(), callback));
+        CrawlTask task = new CrawlTask(req.getUrl(), req.getDepth(), callback);
+        Page page = Page.initial(task);
+        if (req.isRecrawl()) {
+            recrawled.put(task, new VisitedSet(0));
+            task.getCompletion().thenRun(() -> recrawled.remove(task));
+        }
 
-        log.info("[" + page.getUrl() + "] with depth [" + req.getDepth() + "] submitted");
+        log.info("[" + page.getUrl() + "] with depth [" + req.getDepth() + "] submitted" + (req.isRecrawl() ? " for recrawl" : ""));
 
         if (isAlreadyDownloaded(page)) {
             page.start();
             page.complete();
-            return CompletableFuture.completedFuture(null);
+        } else if (!cluster.isLocal(page)) {
+            // task is continued by owner of the page
+            cluster.forward(page);
+            page.start();
+            page.complete();
+        } else {
+            start(task);
+            schedule(page);
+        }
+
+        return task.getCompletion();
+    }
+
+    /**
+     * Queues pages found by other nodes. Pages of the same origin task share one local task
+     * which is completed when all pages received so far are processed.
+     */
+    void accept(List<ClusterService.ForwardedPage> pages) {
+        // batch is either accepted or rejected as a whole
+        for (ClusterService.ForwardedPage forwarded : pages) {
+            validateForwarded(forwarded);
+        }
+
+        for (ClusterService.ForwardedPage forwarded : pages) {
+            String canonical = Page.getCanonicalForm(HttpUrl.parse(forwarded.getUrl()));
+            if (!cluster.isLocal(canonical)) {
+                // forwarding it again may bounce the page between nodes with different node lists
+                log.warn("[" + forwarded.getUrl() + "] is not owned by this node, dropped");
+                continue;
+            }
+            // duplicates are usual, as every node forwards links it finds
+            if (!visited.add(canonical)) {
+                continue;
+            }
+
+            Page page = startRemote(forwarded);
+            journal.queued(page);
+            frontier.add(page);
+        }
+    }
+
+    private void validateForwarded(ClusterService.ForwardedPage forwarded) {
+        if (null == forwarded.getUrl() || null == forwarded.getTaskUrl()) {
+            throw new IllegalArgumentException("Page and task urls should be non-null");
+        }
+        CrawlTask.validateUrl(HttpUrl.parse(forwarded.getUrl()));
+        CrawlTask.validateUrl(HttpUrl.parse(forwarded.getTaskUrl()));
+        if (forwarded.getTaskDepth() <= 0 || forwarded.getTaskDepth() > maxDepth) {
+            throw new IllegalArgumentException("Task depth should be between [1," + maxDepth + "], but ["
+                    + forwarded.getTaskDepth() + "] given");
         }
+        if (forwarded.getDepth() <= 0 || forwarded.getDepth() > forwarded.getTaskDepth()) {
+            throw new IllegalArgumentException("Page depth should be between [1," + forwarded.getTaskDepth() + "], but ["
+                    + forwarded.getDepth() + "] given");
+        }
+    }
 
-        return download(page);
+    /**
+     * Starts forwarded page in the local task of its origin task, the local task is created if there is no running one.
+     */
+    private Page startRemote(ClusterService.ForwardedPage forwarded) {
+        Page[] started = new Page[1];
+        remoteTasks.compute(forwarded.getTaskUrl() + " " + forwarded.getTaskDepth(), (key, existing) -> {
+            if (null != existing) {
+                Page page = Page.restore(existing, forwarded.getUrl(), forwarded.getDepth());
+                // fails if the last page of existing task has just completed
+                if (page.tryStart()) {
+                    started[0] = page;
+                    return existing;
+                }
+            }
+
+            CrawlTask created = new CrawlTask(forwarded.getTaskUrl(), forwarded.getTaskDepth(), callback);
+            start(created);
+            created.getCompletion().thenRun(() -> remoteTasks.remove(key, created));
+            started[0] = Page.restore(created, forwarded.getUrl(), forwarded.getDepth());
+            started[0].start();
+            return created;
+        });
+        return started[0];
     }
 
     private boolean isAlreadyDownloaded(Page page) {
-        return urls.contains(page.getCanonicalForm());
+        return visitedOf(page).contains(page.getCanonicalForm());
     }
 
-    private CompletableFuture download(final Page page) {
-        if (isAlreadyDownloaded(page)) {
-            return CompletableFuture.completedFuture(null);
+    private VisitedSet visitedOf(Page page) {
+        VisitedSet own = recrawled.get(page.getTask());
+        return null == own ? visited : own;
+    }
+
+    private void schedule(Page page) {
+        // owner of the page decides whether it was visited
+        if (!cluster.isLocal(page)) {
+            cluster.forward(page);
+            return;
+        }
+
+        // only one of concurrent callers discovering the same page queues it
+        if (!visitedOf(page).add(page.getCanonicalForm())) {
+            return;
         }
 
-        urls.add(page.getCanonicalForm());
         page.start();
+        journal.queued(page);
+        frontier.add(page);
+    }
 
-        return CompletableFuture
-                // retries are currently not supported
-                .supplyAsync(() -> downloadService.getBodyBytes(page), downloadExecutor)
-                .thenApplyAsync(bytes -> {
-                    storageService.store(page, bytes);
-                    // we can launch indexing separately so it do not interfere with crawling
-                    Document doc = parserService.convertToDoc(bytes);
-
-                    indexService.index(page.getRelativePath().toString(), doc);
-                    return parserService.parse(page, doc);
-                }, parseAndIndexExecutor)
-                .thenAccept(pages -> {
-                    pages.forEach(this::download);
-                    page.complete();
+    /**
+     * Download worker loop: page is taken from frontier when its host may be requested again, then worker waits
+     * for a free slot for one more page in flight. Limits are not held while frontier has nothing to take,
+     * so they count only pages really being processed. Workers only start requests, so few of them are enough.
+     */
+    private void work() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Page page = frontier.take();
+                try {
+                    inFlight.acquire();
+                    try {
+                        downloadLimit.acquire();
+                    } catch (InterruptedException e) {
+                        inFlight.release();
+                        throw e;
+                    }
+                } catch (InterruptedException e) {
+                    // page is still queued in journal, it is returned to frontier as well
+                    frontier.retry(page);
+                    throw e;
+                }
+                process(page);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private CompletableFuture<Fetched> fetch(Page page) {
+        PageValidators previous;
+        InputStream stored = null;
+        try {
+            previous = storageService.loadValidators(page);
+            if (null == previous) {
+                // page may be downloaded, but not processed before restart
+                stored = storageService.openDownloaded(page);
+            }
+        } catch (RuntimeException e) {
+            downloadLimit.cancel();
+            throw e;
+        }
+        if (null != stored) {
+            downloadLimit.cancel();
+            return CompletableFuture.completedFuture(new Fetched(stored, true, null, null, null));
+        }
+
+        long start = System.nanoTime();
+        return downloadService
+                .getAsync(page, previous)
+                .whenComplete((d, e) -> {
+                    downloadLimit.release(System.nanoTime() - start, null != e && isOverload(e));
+                    if (null == e) {
+                        frontier.succeeded(page);
+                    }
                 })
+                .thenApply(d -> new Fetched(d.getBody(), false, d.getEtag(), d.getLastModified(), previous));
+    }
+
+    /**
+     * Body is parsed while it is read, downloaded body is written to storage at the same time.
+     * Unchanged page is not indexed again, not modified one is parsed from storage only to reach pages below it.
+     * Content already found under another url is not stored and indexed again.
+     *
+     * @return pages found, completed when page is durable in storage
+     */
+    private CompletableFuture<Set<Page>> processContent(Page page, Fetched fetched) throws IOException {
+        if (fetched.isNotModified()) {
+            return CompletableFuture.completedFuture(parseStored(page));
+        }
+
+        try (
+                InputStream source = fetched.body;
+                StorageService.PendingPage file = fetched.stored ? null : storageService.create(page);
+                TeeInputStream body = new TeeInputStream(source, null == file ? null : file.getChannel(), buffers)
+        ) {
+            PageContent content = parserService.extract(body);
+            body.drain();
+            Set<Page> pages = parserService.parse(page, content);
+
+            CompletableFuture<Void> bodyWritten = CompletableFuture.completedFuture(null);
+            CompletableFuture<Void> validatorsWritten = CompletableFuture.completedFuture(null);
+
+            PageValidators validators = new PageValidators(fetched.etag, fetched.lastModified, body.getHash());
+            // origin without validators sends the same content again, so its copy is discarded
+            if (null == fetched.previous || !fetched.previous.getHash().equals(validators.getHash())) {
+                String url = page.getUrl().toString();
+                DuplicateDetector.ContentHash hash = DuplicateDetector.hash(body.getHash(), content.getText());
+                if (null != duplicates.find(url, hash)) {
+                    String original = duplicates.register(url, hash);
+                    // alias is neither stored nor indexed, its links are still followed as its depth may be lower
+                    log.info("[" + page.getUrl() + "] is a duplicate of [" + original + "]");
+                    return CompletableFuture.completedFuture(pages);
+                }
+
+                if (null != file) {
+                    // written by storage writer, parse thread goes on with the next page
+                    bodyWritten = file.commit();
+                }
+                // registered only when body is durable, so aliases never point to a body which failed to be written
+                bodyWritten = bodyWritten.thenRun(() -> duplicates.register(url, hash));
+                // indexed by pipeline workers, blocks only while indexing falls behind
+                indexPipeline.submit(page.getRelativePath().toString(), content);
+            }
+
+            if (!validators.equals(fetched.previous)) {
+                validatorsWritten = storageService.storeValidators(page, validators);
+            }
+
+            return CompletableFuture.allOf(bodyWritten, validatorsWritten).thenApply(v -> pages);
+        }
+    }
+
+    private Set<Page> parseStored(Page page) throws IOException {
+        if (page.isMaxDepthReached()) {
+            return Collections.emptySet();
+        }
+
+        try (InputStream stored = storageService.open(page)) {
+            if (null == stored) {
+                throw new IllegalStateException("Stored page [" + page.getUrl() + "] is missing");
+            }
+            return parserService.parse(page, parserService.extract(stored));
+        }
+    }
+
+    private void process(final Page page) {
+        CompletableFuture
+                .completedFuture(page)
+                .thenCompose(this::fetch)
+                .thenComposeAsync(fetched -> {
+                    long start = System.nanoTime();
+                    try {
+                        return processContent(page, fetched);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    } finally {
+                        adaptParsePool(System.nanoTime() - start);
+                    }
+                }, parseExecutor)
+                // page is journaled as processed only when it is durable, storage writer is not kept busy
+                .thenAcceptAsync(pages -> {
+                    pages.forEach(this::schedule);
+                    journal.processed(page);
+                    page.complete();
+                }, parseExecutor)
                 .exceptionally(e -> {
+                    if (RetryPolicy.isRetryable(e)) {
+                        frontier.failed(page, retryPolicy.getDelayNanos(page, e));
+                    }
+                    // retried page stays queued in journal and visited
+                    if (retryPolicy.shouldRetry(page, e)) {
+                        log.warn("[" + page.getUrl() + "] attempt " + page.getAttempt() + " failed, retrying: "
+                                + RetryPolicy.unwrap(e).getMessage());
+                        frontier.retry(page.retry());
+                        return null;
+                    }
+
                     log.error("error during processing [" + page.getUrl() + "]", e);
+                    journal.failed(page);
                     page.completeExceptionally();
-                    urls.remove(page.getCanonicalForm());
+                    visitedOf(page).remove(page.getCanonicalForm());
                     return null;
-                });
+                })
+                .whenComplete((v, e) -> inFlight.release());
+    }
+
+    private static boolean isOverload(Throwable e) {
+        Throwable cause = RetryPolicy.unwrap(e);
+        return cause instanceof DownloadService.HttpError && ((DownloadService.HttpError) cause).isOverload();
+    }
+
+    /**
+     * Slow parsing while threads are added means they compete for CPU or wait for indexing, so threads are removed.
+     */
+    private void adaptParsePool(long latencyNanos) {
+        if (null == parsePool) {
+            return;
+        }
+
+        parseLimit.sample(latencyNanos, false, !parsePool.getQueue().isEmpty());
+        int limit = parseLimit.getLimit();
+        if (parsePool.getCorePoolSize() != limit) {
+            parsePool.setCorePoolSize(limit);
+        }
     }
 }
@@ -3,6 +3,7 @@ package crawler;
 import okhttp3.HttpUrl;
 
 import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
@@ -50,11 +51,15 @@ class CrawlTask {
         }
     }
 
+    // in process count of completed task, so no more pages could be started in it
+    private static final int COMPLETED = -1;
+
     private final AtomicInteger urlsInProcessCount = new AtomicInteger(0);
     private final AtomicInteger failedUrlsCount = new AtomicInteger(0);
     private final AtomicInteger totalUrlsCount = new AtomicInteger(0);
     private final HttpUrl url;
     private final Consumer<CallbackParams> callback;
+    private final CompletableFuture<CallbackParams> completion = new CompletableFuture<>();
     private final int depth;
 
     CrawlTask(String urlStr, int depth, Consumer<CallbackParams> callback) {
@@ -106,19 +111,63 @@ class CrawlTask {
         return depth;
     }
 
+    /**
+     * @return future completed when all pages of the task are processed
+     */
+    CompletableFuture<CallbackParams> getCompletion() {
+        return completion;
+    }
+
     void increment() {
-        urlsInProcessCount.incrementAndGet();
+        int count = urlsInProcessCount.getAndIncrement();
+        assert count != COMPLETED : "Task is already completed";
         totalUrlsCount.incrementAndGet();
     }
 
+    /**
+     * @return false if task is completed
+     */
+    boolean tryIncrement() {
+        for (int count = urlsInProcessCount.get(); count != COMPLETED; count = urlsInProcessCount.get()) {
+            if (urlsInProcessCount.compareAndSet(count, count + 1)) {
+                totalUrlsCount.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
     void decrement() {
         assert urlsInProcessCount.get() > 0 : "No urls in progress found";
 
-        if (0 == urlsInProcessCount.decrementAndGet()) {
-            callback.accept(new CallbackParams(url.toString(), totalUrlsCount.get(), failedUrlsCount.get()));
+        // page started concurrently by tryIncrement keeps task running, its completion completes the task
+        if (0 == urlsInProcessCount.decrementAndGet() && urlsInProcessCount.compareAndSet(0, COMPLETED)) {
+            CallbackParams params = new CallbackParams(url.toString(), totalUrlsCount.get(), failedUrlsCount.get());
+            callback.accept(params);
+            completion.complete(params);
         }
     }
 
+    /**
+     * Accounts pages processed before the task was resumed after restart.
+     */
+    void restore(int processed, int failed) {
+        totalUrlsCount.addAndGet(processed);
+        failedUrlsCount.addAndGet(failed);
+    }
+
+    int getTotalCount() {
+        return totalUrlsCount.get();
+    }
+
+    int getFailedCount() {
+        return failedUrlsCount.get();
+    }
+
+    int getInProcessCount() {
+        return Math.max(0, urlsInProcessCount.get());
+    }
+
     void decrementExceptionally() {
         assert urlsInProcessCount.get() > 0 : "No urls in progress found";
         failedUrlsCount.incrementAndGet();
@@ -127,6 +176,6 @@ class CrawlTask {
 
     @Override
     public String toString() {
-        return "CrawlTask for url [" + url + "] status: " + urlsInProcessCount + "/" + totalUrlsCount;
+        return "CrawlTask for url [" + url + "] status: " + getInProcessCount() + "/" + totalUrlsCount;
     }
 }
\ No newline at end of file
@@ -0,0 +1,168 @@
+package crawler;
+
+import javax.annotation.concurrent.Immutable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Raw deflate of every page on its own with a preset dictionary, so each page is still decompressed independently.
+ * Dictionary holds markup fragments shared by many pages (skin, navigation, script tags), which deflate alone
+ * can not reference in a single page.
+ * <p>
+ * Dictionary is trained from sample pages: pages are split into fragments ending with new line or '>',
+ * fragments found in several samples are scored by number of samples multiplied by length
+ * and the best ones fill the dictionary. The best fragments are placed at the end, where matches are the cheapest.
+ */
+@Immutable
+class DictionaryCodec {
+
+    // deflate window, longer dictionary is not used
+    static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+    static final DictionaryCodec NO_DICTIONARY = new DictionaryCodec(-1, new byte[0]);
+
+    private static final int MIN_FRAGMENT_LENGTH = 8;
+    private static final int BUFFER_SIZE = 8192;
+
+    private final int id;
+    private final byte[] dictionary;
+
+    DictionaryCodec(int id, byte[] dictionary) {
+        assert dictionary.length <= MAX_DICTIONARY_SIZE : "dictionary should not exceed deflate window";
+
+        this.id = id;
+        this.dictionary = dictionary;
+    }
+
+    static DictionaryCodec train(int id, List<byte[]> samples) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (byte[] sample : samples) {
+            // latin-1 maps bytes to chars one to one
+            for (String fragment : fragments(new String(sample, StandardCharsets.ISO_8859_1))) {
+                frequencies.merge(fragment, 1, Integer::sum);
+            }
+        }
+
+        List<String> candidates = new ArrayList<>();
+        frequencies.forEach((fragment, frequency) -> {
+            if (frequency > 1) {
+                candidates.add(fragment);
+            }
+        });
+        Comparator<String> byScore = Comparator.comparingLong(f -> (long) frequencies.get(f) * f.length());
+        candidates.sort(byScore.reversed());
+
+        List<String> selected = new ArrayList<>();
+        int size = 0;
+        for (String fragment : candidates) {
+            if (size + fragment.length() <= MAX_DICTIONARY_SIZE) {
+                selected.add(fragment);
+                size += fragment.length();
+            }
+        }
+
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size);
+        for (int i = selected.size() - 1; i >= 0; i--) {
+            byte[] bytes = selected.get(i).getBytes(StandardCharsets.ISO_8859_1);
+            dictionary.write(bytes, 0, bytes.length);
+        }
+
+        return new DictionaryCodec(id, dictionary.toByteArray());
+    }
+
+    private static Set<String> fragments(String page) {
+        // fragment repeated in one page is counted once
+        Set<String> fragments = new HashSet<>();
+        int start = 0;
+        for (int i = 0; i < page.length(); i++) {
+            char c = page.charAt(i);
+            if (c == '\n' || c == '>') {
+                if (i + 1 - start >= MIN_FRAGMENT_LENGTH && i + 1 - start <= MAX_DICTIONARY_SIZE) {
+                    fragments.add(page.substring(start, i + 1));
+                }
+                start = i + 1;
+            }
+        }
+        return fragments;
+    }
+
+    /**
+     * @return stream compressing into out, closing it completes compressed data, but does not close out
+     */
+    OutputStream compress(OutputStream out) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        if (dictionary.length > 0) {
+            deflater.setDictionary(dictionary);
+        }
+
+        return new DeflaterOutputStream(out, deflater, BUFFER_SIZE) {
+
+            private boolean closed = false;
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+
+                try {
+                    finish();
+                    out.flush();
+                } finally {
+                    // native memory of deflater is released only by end
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return stream decompressing in, in is closed with it
+     */
+    InputStream decompress(InputStream in) {
+        Inflater inflater = new Inflater(true);
+        if (dictionary.length > 0) {
+            inflater.setDictionary(dictionary);
+        }
+
+        // raw inflate may need one byte after compressed data
+        InputStream padded = new SequenceInputStream(in, new ByteArrayInputStream(new byte[1]));
+        return new InflaterInputStream(padded, inflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return id of the dictionary or -1 if there is no dictionary
+     */
+    int getId() {
+        return id;
+    }
+
+    byte[] getDictionary() {
+        return dictionary.clone();
+    }
+}
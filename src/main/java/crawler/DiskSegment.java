@@ -0,0 +1,245 @@
+package crawler;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable segment written by {@link SegmentWriter} and read through memory-mapped files,
+ * so only the pages touched by queries are loaded and the index is not bound by heap size.
+ */
+@ThreadSafe
+class DiskSegment implements Segment {
+
+    private static final int HEADER_SIZE = 8;
+
+    private final String name;
+    private final ByteBuffer postings;
+    private final ByteBuffer dictionary;
+    private final ByteBuffer documents;
+
+    private final int termCount;
+    private final int termTable;
+    private final int docCount;
+    private final int offsetsTable;
+    private final int sortedTable;
+    private final int lengthsTable;
+    private final long totalLength;
+
+    private DiskSegment(String name, ByteBuffer postings, ByteBuffer dictionary, ByteBuffer documents) {
+        this.name = name;
+        this.postings = postings;
+        this.dictionary = dictionary;
+        this.documents = documents;
+
+        termCount = dictionary.getInt(dictionary.limit() - 8);
+        termTable = dictionary.getInt(dictionary.limit() - 4);
+        docCount = documents.getInt(documents.limit() - 24);
+        offsetsTable = documents.getInt(documents.limit() - 20);
+        sortedTable = documents.getInt(documents.limit() - 16);
+        lengthsTable = documents.getInt(documents.limit() - 12);
+        totalLength = documents.getLong(documents.limit() - 8);
+    }
+
+    static DiskSegment open(Path dir, String name) throws IOException {
+        return new DiskSegment(
+                name,
+                map(dir.resolve(name + SegmentWriter.POSTINGS)),
+                map(dir.resolve(name + SegmentWriter.DICTIONARY)),
+                map(dir.resolve(name + SegmentWriter.DOCUMENTS))
+        );
+    }
+
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Segment file [" + file + "] exceeds 2GB");
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != SegmentWriter.MAGIC || buffer.getInt(4) != SegmentWriter.VERSION) {
+                throw new IOException("Unsupported segment file format [" + file + "]");
+            }
+            return buffer;
+        }
+    }
+
+    static void delete(Path dir, String name) throws IOException {
+        Files.deleteIfExists(dir.resolve(name + SegmentWriter.POSTINGS));
+        Files.deleteIfExists(dir.resolve(name + SegmentWriter.DICTIONARY));
+        Files.deleteIfExists(dir.resolve(name + SegmentWriter.DOCUMENTS));
+    }
+
+    String getName() {
+        return name;
+    }
+
+    @Override
+    public int getDocCount() {
+        return docCount;
+    }
+
+    @Override
+    public long getTotalLength() {
+        return totalLength;
+    }
+
+    @Override
+    public int getDocLength(int docId) {
+        return documents.getInt(lengthsTable + docId * 4);
+    }
+
+    int getTermCount() {
+        return termCount;
+    }
+
+    byte[] getTerm(int ord) {
+        int entry = termTable + ord * SegmentWriter.DICTIONARY_ENTRY_SIZE;
+        return bytes(dictionary, dictionary.getInt(entry), dictionary.getInt(entry + 4));
+    }
+
+    @Override
+    public PostingsIterator postings(String term) {
+        int ord = find(SegmentWriter.toBytes(term));
+        return ord < 0 ? null : postings(ord);
+    }
+
+    @Override
+    public Iterator<String> terms(String prefix) {
+        byte[] key = SegmentWriter.toBytes(prefix);
+        int found = find(key);
+
+        return new Iterator<String>() {
+            // terms with the same prefix are adjacent in the sorted dictionary
+            private int ord = found < 0 ? -(found + 1) : found;
+
+            @Override
+            public boolean hasNext() {
+                return ord < termCount && startsWith(ord, key);
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return new String(getTerm(ord++), StandardCharsets.UTF_8);
+            }
+        };
+    }
+
+    private boolean startsWith(int ord, byte[] prefix) {
+        int entry = termTable + ord * SegmentWriter.DICTIONARY_ENTRY_SIZE;
+        return dictionary.getInt(entry + 4) >= prefix.length
+                && compare(dictionary, dictionary.getInt(entry), prefix.length, prefix) == 0;
+    }
+
+    PostingsIterator postings(int ord) {
+        int entry = termTable + ord * SegmentWriter.DICTIONARY_ENTRY_SIZE;
+        int docFreq = dictionary.getInt(entry + 8);
+        int maxFreq = dictionary.getInt(entry + 12);
+        int skips = dictionary.getInt(entry + 16);
+        int offset = dictionary.getInt(entry + 20);
+        int length = dictionary.getInt(entry + 24);
+
+        int[] skipDocIds = new int[skips];
+        int[] skipOffsets = new int[skips];
+        for (int i = 0; i < skips; i++) {
+            skipDocIds[i] = postings.getInt(offset + i * 8);
+            skipOffsets[i] = postings.getInt(offset + i * 8 + 4);
+        }
+
+        ByteBuffer data = postings.duplicate();
+        data.position(offset + skips * 8);
+        data.limit(offset + skips * 8 + length);
+
+        return new PostingsIterator(data.slice(), docFreq, maxFreq, skipDocIds, skipOffsets, skips);
+    }
+
+    @Override
+    public String getPath(int docId) {
+        assert docId >= 0 && docId < docCount : "document id is out of segment bounds";
+
+        int start = documents.getInt(offsetsTable + docId * 4);
+        int end = documents.getInt(offsetsTable + docId * 4 + 4);
+        return new String(bytes(documents, start, end - start), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean contains(String path) {
+        byte[] key = SegmentWriter.toBytes(path);
+
+        int low = 0;
+        int high = docCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int docId = documents.getInt(sortedTable + mid * 4);
+            int start = documents.getInt(offsetsTable + docId * 4);
+            int end = documents.getInt(offsetsTable + docId * 4 + 4);
+
+            int cmp = compare(documents, start, end - start, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return term ordinal or negative value if term is absent
+     */
+    private int find(byte[] key) {
+        int low = 0;
+        int high = termCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entry = termTable + mid * SegmentWriter.DICTIONARY_ENTRY_SIZE;
+
+            int cmp = compare(dictionary, dictionary.getInt(entry), dictionary.getInt(entry + 4), key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private static int compare(ByteBuffer buffer, int offset, int length, byte[] key) {
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = (buffer.get(offset + i) & 0xFF) - (key[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - key.length;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer, int offset, int length) {
+        byte[] result = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(result);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "Segment [" + name + "] with " + docCount + " documents";
+    }
+}
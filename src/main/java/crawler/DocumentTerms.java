@@ -0,0 +1,46 @@
+package crawler;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.Arrays;
+
+/**
+ * Frequencies of terms in a single document. Meant to be reused for many documents on the same thread.
+ */
+@NotThreadSafe
+class DocumentTerms implements Tokenizer.Sink {
+
+    private final TermHash terms = new TermHash();
+    private int[] freqs = new int[64];
+    private int length = 0;
+
+    @Override
+    public void token(char[] chars, int length) {
+        int id = terms.add(chars, 0, length);
+        if (id == freqs.length) {
+            freqs = Arrays.copyOf(freqs, id * 2);
+        }
+        freqs[id]++;
+        this.length++;
+    }
+
+    TermHash getTerms() {
+        return terms;
+    }
+
+    int getFreq(int id) {
+        return freqs[id];
+    }
+
+    /**
+     * @return number of terms in the document
+     */
+    int getLength() {
+        return length;
+    }
+
+    void clear() {
+        Arrays.fill(freqs, 0, terms.size(), 0);
+        terms.clear();
+        length = 0;
+    }
+}
@@ -1,52 +1,274 @@
 package crawler;
 
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.io.Closeable;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class DownloadService {
 
     class HttpError extends RuntimeException {
-        HttpError(String url, int code) {
+
+        private final int code;
+        // delay requested by origin, -1 if not given
+        private final long retryAfterMillis;
+
+        HttpError(String url, int code, long retryAfterMillis) {
             super("Error downloading url [" + url + "]; code: " + code);
+            this.code = code;
+            this.retryAfterMillis = retryAfterMillis;
         }
 
         HttpError(String url, Exception cause) {
             super("Error downloading url [" + url + "]", cause);
+            this.code = -1;
+            this.retryAfterMillis = -1;
         }
-    }
 
-    private final OkHttpClient client = new OkHttpClient();
+        long getRetryAfterMillis() {
+            return retryAfterMillis;
+        }
 
-    byte[] getBodyBytes(Page page) {
-        try {
-            Response response = client
-                    .newCall(new Request.Builder().url(page.getUrl()).build())
-                    .execute();
+        /**
+         * @return true if origin asks to slow down, fails or does not respond
+         */
+        boolean isOverload() {
+            return code == 429 || code >= 500 || code < 0;
+        }
+    }
 
-            return convertResponseToBytes(page, response);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    /**
+     * Response body stream broken in the middle, e.g. by connection reset. Unlike failures of local disk
+     * while the body is stored, it is caused by origin.
+     */
+    static class BodyError extends IOException {
+
+        BodyError(String url, IOException cause) {
+            super("Error reading body of url [" + url + "]", cause);
         }
     }
 
-    private byte[] convertResponseToBytes(Page attempt, Response response) {
-        try {
-            if (response.code() != 200) {
-                throw new HttpError(attempt.getUrl().toString(), response.code());
+    private static class BodyStream extends FilterInputStream {
+
+        private final String url;
+
+        BodyStream(InputStream in, String url) {
+            super(in);
+            this.url = url;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (IOException e) {
+                throw new BodyError(url, e);
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return super.read(b, off, len);
+            } catch (IOException e) {
+                throw new BodyError(url, e);
             }
+        }
 
+        @Override
+        public long skip(long n) throws IOException {
             try {
-                return response.body().bytes();
+                return super.skip(n);
             } catch (IOException e) {
-                throw new HttpError(attempt.getUrl().toString(), e);
+                throw new BodyError(url, e);
+            }
+        }
+    }
+
+    /**
+     * Response to possibly conditional request. Body is not read yet, so download should be closed by its reader.
+     */
+    @Immutable
+    static class Download implements Closeable {
+
+        // null if page is not modified
+        @Nullable
+        private final InputStream body;
+        @Nullable
+        private final String etag;
+        @Nullable
+        private final String lastModified;
+
+        Download(@Nullable InputStream body, @Nullable String etag, @Nullable String lastModified) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        boolean isNotModified() {
+            return null == body;
+        }
+
+        @Nullable
+        InputStream getBody() {
+            return body;
+        }
+
+        @Nullable
+        String getEtag() {
+            return etag;
+        }
+
+        @Nullable
+        String getLastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (null != body) {
+                body.close();
+            }
+        }
+    }
+
+    private final OkHttpClient client;
+    private final int maxRequests;
+
+    /**
+     * @param threads dispatcher threads; OkHttp runs every call on a dispatcher thread until response headers
+     * are received, so it is also the limit of requests waiting for origin at once
+     */
+    @Autowired
+    DownloadService(@Value("${app.download.threads}") int threads) {
+        assert threads > 0 : "number of download threads should be positive";
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, "download-dispatcher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+        );
+        executor.allowCoreThreadTimeOut(true);
+
+        Dispatcher dispatcher = new Dispatcher(executor);
+        // dispatcher never hands more calls to executor than it has threads, the rest wait in dispatcher
+        dispatcher.setMaxRequests(threads);
+        // politeness per host is enforced by frontier
+        dispatcher.setMaxRequestsPerHost(threads);
+        client = new OkHttpClient.Builder().dispatcher(dispatcher).build();
+        maxRequests = threads;
+    }
+
+    /**
+     * @return number of requests which may wait for response headers at once, more requests are queued
+     */
+    int getMaxRequests() {
+        return maxRequests;
+    }
+
+    /**
+     * Enqueues request without blocking the calling thread. Request holds a dispatcher thread until headers
+     * are received, future is completed by that thread; body is streamed by the caller, which blocks
+     * while slow origin sends it.
+     *
+     * @param validators of previously processed content, request is conditional if given
+     */
+    CompletableFuture<Download> getAsync(Page page, @Nullable PageValidators validators) {
+        CompletableFuture<Download> result = new CompletableFuture<>();
+
+        Request.Builder request = new Request.Builder().url(page.getUrl());
+        if (null != validators && null != validators.getEtag()) {
+            request.header("If-None-Match", validators.getEtag());
+        }
+        if (null != validators && null != validators.getLastModified()) {
+            request.header("If-Modified-Since", validators.getLastModified());
+        }
+        boolean conditional = null != validators;
+
+        client
+                .newCall(request.build())
+                .enqueue(new Callback() {
+                    @Override
+                    public void onFailure(Call call, IOException e) {
+                        result.completeExceptionally(new HttpError(page.getUrl().toString(), e));
+                    }
+
+                    @Override
+                    public void onResponse(Call call, Response response) {
+                        try {
+                            result.complete(convertResponse(page, response, conditional));
+                        } catch (RuntimeException e) {
+                            result.completeExceptionally(e);
+                        }
+                    }
+                });
+
+        return result;
+    }
+
+    private Download convertResponse(Page attempt, Response response, boolean conditional) {
+        if (response.code() == 200) {
+            // response is closed together with body stream
+            return new Download(
+                    new BodyStream(response.body().byteStream(), attempt.getUrl().toString()),
+                    response.header("ETag"),
+                    response.header("Last-Modified")
+            );
+        }
+
+        try {
+            if (conditional && response.code() == 304) {
+                return new Download(null, response.header("ETag"), response.header("Last-Modified"));
             }
+
+            throw new HttpError(
+                    attempt.getUrl().toString(), response.code(), parseRetryAfter(response.header("Retry-After"))
+            );
         } finally {
             response.close();
         }
     }
+
+    /**
+     * @param value either delay in seconds or http date
+     * @return delay in millis or -1 if value is absent or malformed
+     */
+    static long parseRetryAfter(@Nullable String value) {
+        if (null == value) {
+            return -1;
+        }
+
+        try {
+            return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            try {
+                long date = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+                return Math.max(0, date - System.currentTimeMillis());
+            } catch (DateTimeParseException ignored) {
+                return -1;
+            }
+        }
+    }
 }
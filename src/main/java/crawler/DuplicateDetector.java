@@ -0,0 +1,334 @@
+package crawler;
+
+import com.google.common.hash.HashCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Detects pages with the same content under different urls (redirects, aliases, case variants).
+ * Body hash finds exact copies, simhash of article text finds copies which differ only in page skin,
+ * e.g. by title or "redirected from" note.
+ * <p>
+ * Simhash is 64 bits, pages are near duplicates when their simhashes differ in at most {@link #MAX_DISTANCE} bits.
+ * Simhash is split into {@link #MAX_DISTANCE} + 1 bands, so near duplicate has at least one equal band
+ * and only pages sharing a band are compared.
+ * <p>
+ * Fingerprints and aliases are appended to a log and loaded on startup, so aliases of pages
+ * processed by previous runs are detected too.
+ */
+@ThreadSafe
+@Service
+class DuplicateDetector {
+
+    static final int MAX_DISTANCE = 3;
+
+    private static final String FILE = "content.fingerprints";
+    private static final byte FINGERPRINT = 1;
+    private static final byte ALIAS = 2;
+    private static final int BANDS = MAX_DISTANCE + 1;
+    private static final int BAND_BITS = Long.SIZE / BANDS;
+    private static final long BAND_MASK = (1L << BAND_BITS) - 1;
+    private static final int SHINGLE_SIZE = 3;
+    // text shorter than this is too small to tell near duplicates apart, e.g. stubs and disambiguation pages
+    private static final int MIN_SHINGLES = 50;
+    // simhash of text without enough shingles
+    private static final long NO_SIMHASH = 0;
+
+    private static class Fingerprint {
+
+        private final long simhash;
+        private final String url;
+
+        Fingerprint(long simhash, String url) {
+            this.simhash = simhash;
+            this.url = url;
+        }
+    }
+
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    // all fields below are guarded by this
+    @Nullable
+    private final DataOutputStream out;
+    // body hash -> url of the first page with it
+    private final Map<Long, String> exact = new HashMap<>();
+    // band number and its bits -> pages with them
+    private final Map<Long, List<Fingerprint>> bands = new HashMap<>();
+    // alias url -> url of the original page
+    private final Map<String, String> aliases = new HashMap<>();
+
+    @Autowired
+    DuplicateDetector(@Value("${app.crawl.journal.dir}") String dir) throws IOException {
+        this(Paths.get(dir));
+    }
+
+    DuplicateDetector(Path dir) throws IOException {
+        assert Files.isDirectory(dir) : "path should be directory";
+
+        Path file = dir.resolve(FILE);
+        if (Files.exists(file)) {
+            load(file);
+        }
+        out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)
+        ));
+
+        log.info("[" + exact.size() + "] content fingerprints and [" + aliases.size() + "] aliases loaded");
+    }
+
+    // for testing purpose
+    DuplicateDetector() {
+        out = null;
+    }
+
+    private void load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            for (int type = in.read(); type >= 0; type = in.read()) {
+                switch (type) {
+                    case FINGERPRINT: {
+                        long hash = in.readLong();
+                        long simhash = in.readLong();
+                        add(in.readUTF(), hash, simhash);
+                        break;
+                    }
+                    case ALIAS: {
+                        String alias = in.readUTF();
+                        aliases.put(alias, in.readUTF());
+                        break;
+                    }
+                    default:
+                        throw new IOException("Unknown record type [" + type + "] in " + file);
+                }
+            }
+        } catch (EOFException e) {
+            // record torn by crash is lost, the page is registered again when it is crawled
+            log.warn("content fingerprints end with incomplete record");
+        }
+    }
+
+    /**
+     * Hashes of page content, computed once for lookup and registration.
+     */
+    @Immutable
+    static class ContentHash {
+
+        private final long exact;
+        private final long simhash;
+
+        private ContentHash(long exact, long simhash) {
+            this.exact = exact;
+            this.simhash = simhash;
+        }
+    }
+
+    /**
+     * @param hash body hash as given by {@link PageValidators#hash(byte[])}
+     * @param text article text
+     */
+    static ContentHash hash(String hash, CharSequence text) {
+        // takes a pass over the whole text, so it is done outside of the lock
+        return new ContentHash(HashCode.fromString(hash).asLong(), simhash(text));
+    }
+
+    /**
+     * Registers page content unless the same or nearly the same content is registered for another url.
+     * Content of already registered url is not a duplicate, so revisited page may change.
+     *
+     * @param hash body hash as given by {@link PageValidators#hash(byte[])}
+     * @param text article text
+     * @return url of the original page if content is a duplicate, null otherwise
+     */
+    @Nullable
+    String register(String url, String hash, CharSequence text) {
+        return register(url, hash(hash, text));
+    }
+
+    /**
+     * Same as {@link #register(String, String, CharSequence)}. Original page should be registered only when
+     * its body is stored, so alias never points to a body which failed to be written.
+     */
+    @Nullable
+    synchronized String register(String url, ContentHash content) {
+        String original = findOriginal(url, content.exact, content.simhash);
+        if (null != original) {
+            aliases.put(url, original);
+            write(ALIAS, url, original, 0, 0);
+            return original;
+        }
+
+        add(url, content.exact, content.simhash);
+        write(FINGERPRINT, url, null, content.exact, content.simhash);
+        return null;
+    }
+
+    /**
+     * @return url of the page with the same or nearly the same content, null if there is no such page;
+     * content is not registered
+     */
+    @Nullable
+    synchronized String find(String url, ContentHash content) {
+        return findOriginal(url, content.exact, content.simhash);
+    }
+
+    /**
+     * @return url of the page which content was found under given url, null if url is not an alias
+     */
+    @Nullable
+    synchronized String getOriginal(String url) {
+        return aliases.get(url);
+    }
+
+    synchronized int getAliasCount() {
+        return aliases.size();
+    }
+
+    @PreDestroy
+    synchronized void close() throws IOException {
+        if (null != out) {
+            out.close();
+        }
+    }
+
+    @Nullable
+    private String findOriginal(String url, long exactHash, long simhash) {
+        String original = exact.get(exactHash);
+        if (null != original && !original.equals(url)) {
+            return original;
+        }
+        if (simhash == NO_SIMHASH) {
+            return null;
+        }
+
+        for (int band = 0; band < BANDS; band++) {
+            List<Fingerprint> candidates = bands.get(bandKey(band, simhash));
+            if (null == candidates) {
+                continue;
+            }
+            for (Fingerprint candidate : candidates) {
+                if (Long.bitCount(candidate.simhash ^ simhash) <= MAX_DISTANCE && !candidate.url.equals(url)) {
+                    return candidate.url;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void add(String url, long exactHash, long simhash) {
+        exact.putIfAbsent(exactHash, url);
+        if (simhash == NO_SIMHASH) {
+            return;
+        }
+
+        Fingerprint fingerprint = new Fingerprint(simhash, url);
+        for (int band = 0; band < BANDS; band++) {
+            bands.computeIfAbsent(bandKey(band, simhash), k -> new ArrayList<>(1)).add(fingerprint);
+        }
+    }
+
+    private void write(byte type, String url, @Nullable String original, long exactHash, long simhash) {
+        if (null == out) {
+            return;
+        }
+
+        try {
+            out.writeByte(type);
+            if (type == FINGERPRINT) {
+                out.writeLong(exactHash);
+                out.writeLong(simhash);
+                out.writeUTF(url);
+            } else {
+                out.writeUTF(url);
+                out.writeUTF(original);
+            }
+            // not forced: fingerprint lost by crash only lets one duplicate through
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long bandKey(int band, long simhash) {
+        return ((long) band << BAND_BITS) | ((simhash >>> (band * BAND_BITS)) & BAND_MASK);
+    }
+
+    /**
+     * Simhash of word shingles: every bit is set if more shingle hashes have it set than not.
+     *
+     * @return {@link #NO_SIMHASH} if text has less than {@link #MIN_SHINGLES} shingles
+     */
+    static long simhash(CharSequence text) {
+        int[] weights = new int[Long.SIZE];
+        long[] window = new long[SHINGLE_SIZE];
+        int[] tokens = {0};
+
+        new Tokenizer().tokenize(text, (chars, length) -> {
+            window[tokens[0] % SHINGLE_SIZE] = tokenHash(chars, length);
+            tokens[0]++;
+            if (tokens[0] < SHINGLE_SIZE) {
+                return;
+            }
+
+            long shingle = 0;
+            for (int i = tokens[0] - SHINGLE_SIZE; i < tokens[0]; i++) {
+                shingle = shingle * 31 + window[i % SHINGLE_SIZE];
+            }
+            shingle = mix(shingle);
+            for (int bit = 0; bit < Long.SIZE; bit++) {
+                weights[bit] += ((shingle >>> bit) & 1) == 1 ? 1 : -1;
+            }
+        });
+
+        if (tokens[0] - SHINGLE_SIZE + 1 < MIN_SHINGLES) {
+            return NO_SIMHASH;
+        }
+
+        long simhash = 0;
+        for (int bit = 0; bit < Long.SIZE; bit++) {
+            if (weights[bit] > 0) {
+                simhash |= 1L << bit;
+            }
+        }
+        // real simhash is never equal to the reserved value in practice, but it is kept distinct anyway
+        return simhash == NO_SIMHASH ? 1 : simhash;
+    }
+
+    // FNV-1a, tokens are hashed without creating strings
+    private static long tokenHash(char[] chars, int length) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) {
+            hash ^= chars[i];
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    // splitmix64 finalizer spreads shingle bits evenly, as every bit votes separately
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,231 @@
+package crawler;
+
+import com.google.common.base.Strings;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Every page is stored in its own file in directory tree given by {@link Page#getRelativePath()},
+ * validators are stored next to it.
+ * <p>
+ * Files are written to temporary files and stay invisible until {@link #sync()}: committed files are forced,
+ * renamed to their targets and then their directories are forced, once for the whole group of files.
+ */
+@ThreadSafe
+class FilePageStore implements PageStore {
+
+    @NotThreadSafe
+    private class TmpFile implements PendingFile {
+
+        private final Path tmp;
+        private final Path target;
+        private final FileChannel channel;
+        private boolean committed = false;
+
+        private TmpFile(Path target) throws IOException {
+            this.tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+            this.target = target;
+            this.channel = FileChannel.open(tmp, StandardOpenOption.WRITE);
+        }
+
+        @Override
+        public WritableByteChannel getChannel() {
+            return channel;
+        }
+
+        /**
+         * File is renamed by the next {@link #sync()}, channel is closed then.
+         */
+        @Override
+        public void commit() {
+            committed = true;
+            synchronized (FilePageStore.this) {
+                pending.add(this);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                channel.close();
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+
+    private final Path downloadDir;
+    // committed files to rename on sync, guarded by this
+    private List<TmpFile> pending = new ArrayList<>();
+
+    FilePageStore(Path dir) {
+        assert Files.isDirectory(dir) : "path should be directory";
+        assert Files.isWritable(dir) : "path should be writable";
+
+        downloadDir = dir;
+    }
+
+    @Override
+    public PendingFile create(Page page) {
+        try {
+            Path filePath = pagePath(page);
+            Files.createDirectories(filePath.getParent());
+            return new TmpFile(filePath);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public InputStream open(Page page) {
+        try {
+            return Files.newInputStream(pagePath(page));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public StoredBody locate(Page page) {
+        Path filePath = pagePath(page);
+        try {
+            return new StoredBody(filePath, 0, Files.size(filePath));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Validators are stored after page is processed, so they mark stored content as indexed.
+     */
+    @Override
+    public void storeValidators(Page page, PageValidators validators) {
+        List<String> lines = Arrays.asList(
+                Strings.nullToEmpty(validators.getEtag()),
+                Strings.nullToEmpty(validators.getLastModified()),
+                validators.getHash()
+        );
+
+        try {
+            Path filePath = validatorsPath(page);
+            Files.createDirectories(filePath.getParent());
+            TmpFile file = new TmpFile(filePath);
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(String.join("\n", lines).concat("\n").getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    file.getChannel().write(buffer);
+                }
+                file.commit();
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public PageValidators loadValidators(Page page) {
+        try {
+            Path filePath = validatorsPath(page);
+            if (!Files.exists(filePath) || !Files.exists(pagePath(page))) {
+                return null;
+            }
+
+            List<String> lines = Files.readAllLines(filePath, StandardCharsets.UTF_8);
+            if (lines.size() != 3) {
+                throw new IllegalStateException("Malformed validators file [" + filePath + "]");
+            }
+
+            return new PageValidators(Strings.emptyToNull(lines.get(0)), Strings.emptyToNull(lines.get(1)), lines.get(2));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void sync() {
+        List<TmpFile> group;
+        synchronized (this) {
+            group = pending;
+            pending = new ArrayList<>();
+        }
+        if (group.isEmpty()) {
+            return;
+        }
+
+        Set<Path> dirs = new LinkedHashSet<>();
+        try {
+            for (TmpFile file : group) {
+                file.channel.force(false);
+            }
+            for (TmpFile file : group) {
+                file.channel.close();
+                // file is either absent or complete, so a page stored before crash can be reused after restart
+                Files.move(file.tmp, file.target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                dirs.add(file.target.getParent());
+            }
+            for (Path dir : dirs) {
+                forceDirectory(dir);
+            }
+        } catch (IOException e) {
+            for (TmpFile file : group) {
+                try {
+                    file.channel.close();
+                    Files.deleteIfExists(file.tmp);
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void forceDirectory(Path dir) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(dir, StandardOpenOption.READ);
+        } catch (IOException e) {
+            // some platforms and file systems do not open directories, renames are left to them
+            return;
+        }
+        try (FileChannel opened = channel) {
+            opened.force(true);
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private Path pagePath(Page page) {
+        // .toString() call is workaround for providermismatch exception. Probably there is better solution
+        return downloadDir.resolve(page.getRelativePath().toString());
+    }
+
+    private Path validatorsPath(Page page) {
+        Path filePath = pagePath(page);
+        return filePath.resolveSibling(filePath.getFileName() + ".validators");
+    }
+}
@@ -0,0 +1,307 @@
+package crawler;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pages waiting for download. Pages are queued per host (first subdomain) and every host is requested
+ * not more often than configured rate. Among hosts allowed to be requested, the one with the shallowest page wins.
+ * <p>
+ * At most {@link #capacity} pages are kept in memory. Overflow is spilled to {@link SpillQueue}
+ * and reloaded in the same order when half of the capacity is free, so heap usage does not depend on crawl width.
+ * <p>
+ * Every host has circuit breaker: after {@link #BREAKER_FAILURES} consecutive failures the host is requested
+ * not more often than once per cooldown, which doubles with every further failure, until some request succeeds.
+ */
+@ThreadSafe
+@Service
+class Frontier {
+
+    private static class Entry {
+
+        private final Page page;
+        private final long sequence;
+
+        Entry(Page page, long sequence) {
+            this.page = page;
+            this.sequence = sequence;
+        }
+    }
+
+    private static class Host {
+
+        // shallow pages first, pages of the same depth in order of discovery
+        private final PriorityQueue<Entry> pages = new PriorityQueue<>(ENTRY_ORDER);
+        private long nextRequestNanos = System.nanoTime();
+        // consecutive failures, breaker is open when there are too many of them
+        private int failures = 0;
+    }
+
+    private static final int BREAKER_FAILURES = 3;
+    private static final long BREAKER_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long BREAKER_MAX_COOLDOWN_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private static final Comparator<Entry> ENTRY_ORDER = Comparator
+            .<Entry>comparingInt(e -> e.page.getDepth())
+            .thenComparingLong(e -> e.sequence);
+
+    private final long intervalNanos;
+    private final int capacity;
+    // null means pages are never spilled
+    private final SpillQueue spill;
+
+    private final Lock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    // all fields below are guarded by lock
+    private final Map<String, Host> hosts = new HashMap<>();
+    // hosts with pages which may be requested now
+    private final PriorityQueue<Host> ready = new PriorityQueue<>(Comparator.comparing(h -> h.pages.peek(), ENTRY_ORDER));
+    // hosts with pages waiting for politeness interval to pass, the earliest first
+    private final PriorityQueue<Host> delayed = new PriorityQueue<>(
+            // nano time may overflow, so only differences are compared
+            (left, right) -> Long.signum(left.nextRequestNanos - right.nextRequestNanos)
+    );
+    private long sequence = 0;
+    private int size = 0;
+    // tasks of spilled pages, pages on disk refer them by id
+    private final Map<Integer, CrawlTask> spilledTasks = new HashMap<>();
+    private final Map<CrawlTask, Integer> spilledTaskIds = new HashMap<>();
+    private final Map<Integer, Integer> spilledPages = new HashMap<>();
+    private int nextTaskId = 0;
+
+    @Autowired
+    Frontier(
+            @Value("${app.frontier.host.rate}") double hostRate,
+            @Value("${app.frontier.capacity}") int capacity,
+            @Value("${app.frontier.spill.file}") String spillFile
+    ) {
+        this(hostRate, capacity, Paths.get(spillFile));
+    }
+
+    Frontier(double hostRate, int capacity, Path spillFile) {
+        assert hostRate > 0 : "host rate should be positive";
+        assert capacity > 1 : "capacity should be greater than 1";
+
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / hostRate);
+        this.capacity = capacity;
+        this.spill = new SpillQueue(spillFile);
+    }
+
+    // for testing purpose
+    Frontier(double hostRate) {
+        assert hostRate > 0 : "host rate should be positive";
+
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / hostRate);
+        this.capacity = Integer.MAX_VALUE;
+        this.spill = null;
+    }
+
+    void add(Page page) {
+        lock.lock();
+        try {
+            // once something is spilled, new pages follow it, so pages are reloaded in order of discovery
+            if (null != spill && (size >= capacity || spill.size() > 0)) {
+                spill(page);
+            } else {
+                enqueue(page);
+            }
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(Page page) {
+        Host host = hosts.computeIfAbsent(page.getFirstSubdomain(), h -> new Host());
+        Entry entry = new Entry(page, sequence++);
+
+        if (host.pages.isEmpty()) {
+            host.pages.add(entry);
+            delayed.add(host);
+        } else if (ready.remove(host)) {
+            // head of the host queue may change, so the host is reordered
+            host.pages.add(entry);
+            ready.add(host);
+        } else {
+            host.pages.add(entry);
+        }
+
+        size++;
+    }
+
+    private void spill(Page page) {
+        Integer taskId = spilledTaskIds.get(page.getTask());
+        if (null == taskId) {
+            taskId = nextTaskId++;
+            spilledTaskIds.put(page.getTask(), taskId);
+            spilledTasks.put(taskId, page.getTask());
+        }
+
+        spill.add(new SpillQueue.Record(page.getUrl().toString(), page.getDepth(), taskId));
+        spilledPages.merge(taskId, 1, Integer::sum);
+    }
+
+    private void reload() {
+        while (spill.size() > 0 && size < capacity) {
+            SpillQueue.Record record = spill.poll();
+            CrawlTask task = spilledTasks.get(record.getTaskId());
+
+            if (0 == spilledPages.merge(record.getTaskId(), -1, Integer::sum)) {
+                spilledPages.remove(record.getTaskId());
+                spilledTasks.remove(record.getTaskId());
+                spilledTaskIds.remove(task);
+            }
+
+            enqueue(Page.restore(task, record.getUrl(), record.getDepth()));
+        }
+    }
+
+    /**
+     * Queues page which failed to download again. Page is kept in memory even above capacity,
+     * as number of retried pages is bounded by number of pages in flight.
+     */
+    void retry(Page page) {
+        lock.lock();
+        try {
+            enqueue(page);
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Host of the page is not requested until delay passes, or until breaker cooldown passes if it is longer.
+     */
+    void failed(Page page, long delayNanos) {
+        lock.lock();
+        try {
+            Host host = hosts.computeIfAbsent(page.getFirstSubdomain(), h -> new Host());
+            host.failures++;
+
+            long next = System.nanoTime() + Math.max(delayNanos, getCooldownNanos(host));
+            if (next - host.nextRequestNanos > 0) {
+                delay(host, next);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes breaker of the page host.
+     */
+    void succeeded(Page page) {
+        lock.lock();
+        try {
+            Host host = hosts.get(page.getFirstSubdomain());
+            if (null != host) {
+                host.failures = 0;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long getCooldownNanos(Host host) {
+        if (host.failures < BREAKER_FAILURES) {
+            return 0;
+        }
+
+        int doublings = Math.min(host.failures - BREAKER_FAILURES, 16);
+        return Math.min(BREAKER_MAX_COOLDOWN_NANOS, BREAKER_COOLDOWN_NANOS << doublings);
+    }
+
+    private void delay(Host host, long nextRequestNanos) {
+        // host is in one of queues only if it has pages, queue order depends on next request time
+        boolean queued = ready.remove(host) || delayed.remove(host);
+        host.nextRequestNanos = nextRequestNanos;
+        if (queued) {
+            delayed.add(host);
+        }
+    }
+
+    /**
+     * Waits until some host may be requested and returns its shallowest page.
+     */
+    Page take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                if (null != spill && spill.size() > 0 && size <= capacity / 2) {
+                    reload();
+                }
+
+                long now = System.nanoTime();
+                while (!delayed.isEmpty() && delayed.peek().nextRequestNanos - now <= 0) {
+                    ready.add(delayed.poll());
+                }
+
+                if (!ready.isEmpty()) {
+                    Host host = ready.poll();
+                    Page page = host.pages.poll().page;
+                    host.nextRequestNanos = now + Math.max(intervalNanos, getCooldownNanos(host));
+                    if (!host.pages.isEmpty()) {
+                        delayed.add(host);
+                    }
+
+                    size--;
+                    if (!ready.isEmpty() || !delayed.isEmpty()) {
+                        changed.signal();
+                    }
+                    return page;
+                }
+
+                if (delayed.isEmpty()) {
+                    changed.await();
+                } else {
+                    changed.awaitNanos(delayed.peek().nextRequestNanos - now);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of pages in memory and on disk
+     */
+    int size() {
+        lock.lock();
+        try {
+            return null == spill ? size : size + spill.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @PreDestroy
+    void close() throws IOException {
+        if (null == spill) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            spill.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package crawler;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import javax.annotation.concurrent.Immutable;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Consistent hashing: every node is placed on the ring at several points (replicas) and owns keys
+ * hashed between its point and the previous one. Adding or removing a node moves only keys of that node,
+ * replicas spread keys evenly between nodes.
+ */
+@Immutable
+class HashRing {
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final NavigableMap<Long, String> points = new TreeMap<>();
+
+    HashRing(List<String> nodes, int replicas) {
+        assert !nodes.isEmpty() : "ring should contain at least one node";
+        assert replicas > 0 : "number of replicas should be positive";
+
+        for (String node : nodes) {
+            for (int i = 0; i < replicas; i++) {
+                points.put(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    String getOwner(String key) {
+        Map.Entry<Long, String> point = points.ceilingEntry(hash(key));
+        return null == point ? points.firstEntry().getValue() : point.getValue();
+    }
+
+    private static long hash(String str) {
+        return HASH.hashString(str, StandardCharsets.UTF_8).asLong();
+    }
+}
@@ -0,0 +1,388 @@
+package crawler;
+
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Single pass event-style HTML scanner. Reports text nodes and article links found inside article content
+ * ({@code div class='mw-parser-output'}) without building any tree.
+ * <p>
+ * Markup outside of content is only tokenized, script and style bodies are skipped.
+ */
+@ThreadSafe
+class HtmlExtractor {
+
+    interface Handler {
+
+        /**
+         * Receives the whole text node with decoded entities; chars array is reused after the call.
+         */
+        void text(char[] chars, int offset, int length);
+
+        /**
+         * Receives href of every link starting with '/wiki/'.
+         */
+        void link(String href);
+    }
+
+    private static final String CONTENT_CLASS = "mw-parser-output";
+    private static final String ARTICLE_PREFIX = "/wiki/";
+
+    private static final Map<String, String> ENTITIES = ImmutableMap.<String, String>builder()
+            .put("amp", "&")
+            .put("lt", "<")
+            .put("gt", ">")
+            .put("quot", "\"")
+            .put("apos", "'")
+            .put("nbsp", "\u00A0")
+            .put("thinsp", "\u2009")
+            .put("ndash", "\u2013")
+            .put("mdash", "\u2014")
+            .put("laquo", "\u00AB")
+            .put("raquo", "\u00BB")
+            .put("hellip", "\u2026")
+            .put("middot", "\u00B7")
+            .put("copy", "\u00A9")
+            .put("shy", "\u00AD")
+            .build();
+
+    void extract(InputStream in, Handler handler) throws IOException {
+        new Scanner(new InputStreamReader(in, StandardCharsets.UTF_8), handler).run();
+    }
+
+    @NotThreadSafe
+    private static class Scanner {
+
+        private static final int EOF = -1;
+
+        private final Reader reader;
+        private final Handler handler;
+
+        private final char[] buffer = new char[8192];
+        private int position = 0;
+        private int limit = 0;
+
+        private char[] text = new char[256];
+        private int textLength = 0;
+
+        private final StringBuilder name = new StringBuilder();
+        private final StringBuilder attribute = new StringBuilder();
+        private final StringBuilder value = new StringBuilder();
+        private final StringBuilder entity = new StringBuilder();
+
+        // depth of div elements inside content, 0 means scanner is outside of content
+        private int contentDepth = 0;
+
+        Scanner(Reader reader, Handler handler) {
+            this.reader = reader;
+            this.handler = handler;
+        }
+
+        void run() throws IOException {
+            for (int c = read(); c != EOF; c = read()) {
+                if (c == '<') {
+                    markup();
+                } else if (contentDepth > 0) {
+                    if (c == '&') {
+                        entity(this::appendText);
+                    } else {
+                        appendText((char) c);
+                    }
+                }
+            }
+            flushText();
+        }
+
+        private void markup() throws IOException {
+            int c = read();
+
+            if (c == '!') {
+                flushText();
+                if (read() == '-' && read() == '-') {
+                    skipComment();
+                } else {
+                    skipUntil('>');
+                }
+            } else if (c == '?') {
+                flushText();
+                skipUntil('>');
+            } else if (c == '/') {
+                flushText();
+                c = read();
+                if (isLetter(c)) {
+                    readName(c);
+                    skipUntil('>');
+                    endTag();
+                } else if (c != '>') {
+                    skipUntil('>');
+                }
+            } else if (isLetter(c)) {
+                flushText();
+                readName(c);
+                startTag();
+            } else if (contentDepth > 0) {
+                // not a markup, so '<' is a part of text
+                appendText('<');
+                unread(c);
+            } else {
+                unread(c);
+            }
+        }
+
+        private void startTag() throws IOException {
+            boolean div = equalsName("div");
+            boolean link = equalsName("a");
+            boolean raw = equalsName("script") || equalsName("style");
+            boolean selfClosing = false;
+            String classValue = null;
+            String href = null;
+
+            while (true) {
+                int c = skipWhitespace();
+                if (c == EOF || c == '>') {
+                    break;
+                }
+                if (c == '/') {
+                    selfClosing = true;
+                    continue;
+                }
+                selfClosing = false;
+
+                readAttribute(c);
+                if (div && equals(attribute, "class")) {
+                    classValue = value.toString();
+                } else if (link && equals(attribute, "href")) {
+                    href = value.toString();
+                }
+            }
+
+            if (raw && !selfClosing) {
+                skipRawText();
+            } else if (div && !selfClosing) {
+                if (contentDepth > 0) {
+                    contentDepth++;
+                } else if (CONTENT_CLASS.equals(classValue)) {
+                    contentDepth = 1;
+                }
+            } else if (link && contentDepth > 0 && null != href && href.startsWith(ARTICLE_PREFIX)) {
+                handler.link(href);
+            }
+        }
+
+        private void endTag() {
+            if (contentDepth > 0 && equalsName("div")) {
+                contentDepth--;
+            }
+        }
+
+        private void readAttribute(int first) throws IOException {
+            attribute.setLength(0);
+            value.setLength(0);
+
+            int c = first;
+            while (c != EOF && c != '=' && c != '>' && c != '/' && !Character.isWhitespace(c)) {
+                attribute.append(Character.toLowerCase((char) c));
+                c = read();
+            }
+
+            if (Character.isWhitespace(c)) {
+                c = skipWhitespace();
+            }
+            if (c != '=') {
+                unread(c);
+                return;
+            }
+
+            c = skipWhitespace();
+            if (c == '"' || c == '\'') {
+                int quote = c;
+                for (c = read(); c != EOF && c != quote; c = read()) {
+                    appendValue(c);
+                }
+            } else {
+                while (c != EOF && c != '>' && !Character.isWhitespace(c)) {
+                    appendValue(c);
+                    c = read();
+                }
+                unread(c);
+            }
+        }
+
+        private void appendValue(int c) throws IOException {
+            if (c == '&') {
+                entity(value::append);
+            } else {
+                value.append((char) c);
+            }
+        }
+
+        private void readName(int first) throws IOException {
+            name.setLength(0);
+
+            int c = first;
+            while (c != EOF && c != '>' && c != '/' && !Character.isWhitespace(c)) {
+                name.append(Character.toLowerCase((char) c));
+                c = read();
+            }
+            unread(c);
+        }
+
+        /**
+         * Decodes entity following '&' or passes the chars as is when they are not a known entity.
+         */
+        private void entity(CharConsumer consumer) throws IOException {
+            entity.setLength(0);
+
+            int c = read();
+            while (c != EOF && c != ';' && entity.length() < 32 && (Character.isLetterOrDigit(c) || c == '#')) {
+                entity.append((char) c);
+                c = read();
+            }
+
+            String decoded = c == ';' ? decode(entity) : null;
+            if (null != decoded) {
+                for (int i = 0; i < decoded.length(); i++) {
+                    consumer.accept(decoded.charAt(i));
+                }
+                return;
+            }
+
+            consumer.accept('&');
+            for (int i = 0; i < entity.length(); i++) {
+                consumer.accept(entity.charAt(i));
+            }
+            unread(c);
+        }
+
+        private static String decode(CharSequence entity) {
+            if (entity.length() > 1 && entity.charAt(0) == '#') {
+                try {
+                    boolean hex = entity.charAt(1) == 'x' || entity.charAt(1) == 'X';
+                    int codePoint = Integer.parseInt(entity.subSequence(hex ? 2 : 1, entity.length()).toString(), hex ? 16 : 10);
+                    return Character.isValidCodePoint(codePoint) ? new String(Character.toChars(codePoint)) : null;
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+            return ENTITIES.get(entity.toString());
+        }
+
+        private void skipComment() throws IOException {
+            int dashes = 0;
+            for (int c = read(); c != EOF; c = read()) {
+                if (c == '>' && dashes >= 2) {
+                    return;
+                }
+                dashes = c == '-' ? dashes + 1 : 0;
+            }
+        }
+
+        /**
+         * Skips everything till closing tag with the current name.
+         */
+        private void skipRawText() throws IOException {
+            for (int c = read(); c != EOF; c = read()) {
+                if (c != '<') {
+                    continue;
+                }
+                if ((c = read()) != '/') {
+                    unread(c);
+                    continue;
+                }
+
+                int matched = 0;
+                for (c = read(); matched < name.length() && Character.toLowerCase(c) == name.charAt(matched); c = read()) {
+                    matched++;
+                }
+                if (matched == name.length() && (c == '>' || c == '/' || Character.isWhitespace(c))) {
+                    unread(c);
+                    skipUntil('>');
+                    return;
+                }
+                unread(c);
+            }
+        }
+
+        private void skipUntil(char end) throws IOException {
+            for (int c = read(); c != EOF && c != end; c = read()) {
+                // skip
+            }
+        }
+
+        private int skipWhitespace() throws IOException {
+            int c = read();
+            while (c != EOF && Character.isWhitespace(c)) {
+                c = read();
+            }
+            return c;
+        }
+
+        private void appendText(char c) {
+            if (textLength == text.length) {
+                text = Arrays.copyOf(text, text.length * 2);
+            }
+            text[textLength++] = c;
+        }
+
+        private void flushText() {
+            if (textLength > 0) {
+                handler.text(text, 0, textLength);
+                textLength = 0;
+            }
+        }
+
+        private boolean equalsName(String str) {
+            return equals(name, str);
+        }
+
+        private static boolean equals(StringBuilder builder, String str) {
+            if (builder.length() != str.length()) {
+                return false;
+            }
+            for (int i = 0; i < str.length(); i++) {
+                if (builder.charAt(i) != str.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isLetter(int c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+        }
+
+        private int read() throws IOException {
+            if (position == limit) {
+                limit = reader.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return EOF;
+                }
+            }
+            return buffer[position++];
+        }
+
+        /**
+         * Returns char just read back to the stream.
+         */
+        private void unread(int c) {
+            if (c != EOF) {
+                position--;
+            }
+        }
+    }
+
+    private interface CharConsumer {
+        void accept(char c);
+    }
+}
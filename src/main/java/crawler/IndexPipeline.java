@@ -0,0 +1,136 @@
+package crawler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Indexing stage decoupled from crawling. Pages are queued and indexed by own workers in batches
+ * of at most {@link #batchDocs} documents collected during at most {@link #batchMillis}.
+ * When the queue is full, {@link #submit} blocks, so crawling slows down to the indexing speed.
+ */
+@Service
+class IndexPipeline {
+
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private final IndexService indexService;
+    private final BlockingQueue<IndexService.Document> queue;
+    private final int batchDocs;
+    private final long batchMillis;
+    private final ExecutorService workers;
+
+    private volatile boolean running = true;
+
+    @Autowired
+    IndexPipeline(
+            @Autowired IndexService indexService,
+            @Value("${app.index.queue.size}") int queueSize,
+            @Value("${app.index.pool.size}") int poolSize,
+            @Value("${app.index.batch.docs}") int batchDocs,
+            @Value("${app.index.batch.ms}") long batchMillis
+    ) {
+        assert queueSize > 0 : "queue size should be positive";
+        assert poolSize > 0 : "pool size should be positive";
+        assert batchDocs > 0 : "batch size should be positive";
+        assert batchMillis > 0 : "batch interval should be positive";
+
+        this.indexService = indexService;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchDocs = batchDocs;
+        this.batchMillis = batchMillis;
+
+        AtomicInteger counter = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(poolSize, r -> {
+            Thread thread = new Thread(r, "index-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < poolSize; i++) {
+            workers.execute(this::work);
+        }
+    }
+
+    /**
+     * Waits for free space in the queue if indexing falls behind.
+     */
+    void submit(String path, PageContent content) {
+        if (!running) {
+            throw new IllegalStateException("Index pipeline is closed");
+        }
+
+        try {
+            queue.put(new IndexService.Document(path, content));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for index queue", e);
+        }
+    }
+
+    int getQueueSize() {
+        return queue.size();
+    }
+
+    private void work() {
+        List<IndexService.Document> batch = new ArrayList<>(batchDocs);
+        while (running || !queue.isEmpty()) {
+            try {
+                IndexService.Document first = queue.poll(batchMillis, TimeUnit.MILLISECONDS);
+                if (null == first) {
+                    continue;
+                }
+
+                batch.add(first);
+                collect(batch);
+                indexService.index(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("unable to index batch of [" + batch.size() + "] documents", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void collect(List<IndexService.Document> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchMillis);
+        while (batch.size() < batchDocs) {
+            queue.drainTo(batch, batchDocs - batch.size());
+
+            long left = deadline - System.nanoTime();
+            if (batch.size() >= batchDocs || left <= 0) {
+                return;
+            }
+
+            IndexService.Document next = queue.poll(left, TimeUnit.NANOSECONDS);
+            if (null == next) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    /**
+     * Indexes already queued documents before index is closed.
+     */
+    @PreDestroy
+    void close() throws InterruptedException {
+        running = false;
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+}
@@ -1,154 +1,488 @@
 package crawler;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import jdk.nashorn.internal.ir.annotations.Immutable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
-
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.LinkedList;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.concurrent.Immutable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.StringTokenizer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class IndexService {
 
+    private static final String MANIFEST = "segments";
+    private static final int IN_MEMORY_MERGE_FACTOR = 10;
+    private static final Pattern SEGMENT_FILE = Pattern.compile("(segment-(\\d+))\\..+");
+
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    // null means index is kept in memory only
+    private final Path dir;
+    private final int flushDocs;
+    private final int mergeFactor;
+    // 0 means every document is searchable right after indexing
+    private final long refreshMillis;
+    // flushes and merges are serialized on single thread, so segments on disk are changed by one writer only
+    private final ExecutorService background = Executors.newSingleThreadExecutor(daemon("index-background"));
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(daemon("index-refresh"));
+
+    // documents indexed since last refresh, visible to writers only and guarded by this
+    private SegmentBuffer buffer = new SegmentBuffer();
+    // published buffers not scheduled for flush yet, guarded by this
+    private final List<SegmentBuffer> unflushed = new ArrayList<>();
+    private int unflushedDocs = 0;
+    // snapshot searched without locking: the list and its segments are never modified, the list is only replaced under this lock
+    private volatile List<Segment> segments = ImmutableList.of();
+    private int generation = 0;
+
+    private final ThreadLocal<Tokenizer> tokenizer = ThreadLocal.withInitial(Tokenizer::new);
+    // reused for every batch indexed by the thread
+    private final ThreadLocal<List<DocumentTerms>> documentTerms = ThreadLocal.withInitial(ArrayList::new);
+
     @Immutable
-    private static class Term {
+    static class Document {
+
+        private final String path;
+        private final PageContent content;
 
-        private final String term;
+        Document(String path, PageContent content) {
+            this.path = path;
+            this.content = content;
+        }
 
-        static boolean isValid(String term) {
-            return clean(term).length() > 0;
+        String getPath() {
+            return path;
         }
 
-        Term(String term) {
-            assert isValid(term);
-            this.term = clean(term);
+        PageContent getContent() {
+            return content;
         }
+    }
+
+    @Autowired
+    IndexService(
+            @Value("${app.index.dir}") String dir,
+            @Value("${app.index.flush.docs}") int flushDocs,
+            @Value("${app.index.merge.factor}") int mergeFactor,
+            @Value("${app.index.refresh.ms}") long refreshMillis
+    ) throws IOException {
+        this(Paths.get(dir), flushDocs, mergeFactor, refreshMillis);
+    }
+
+    IndexService(Path dir, int flushDocs, int mergeFactor, long refreshMillis) throws IOException {
+        assert Files.isDirectory(dir) : "path should be directory";
+        assert flushDocs > 0 : "flush threshold should be positive";
+        assert mergeFactor > 1 : "merge factor should be greater than 1";
+        assert refreshMillis >= 0 : "refresh interval should not be negative";
+
+        this.dir = dir;
+        this.flushDocs = flushDocs;
+        this.mergeFactor = mergeFactor;
+        this.refreshMillis = refreshMillis;
+
+        open();
+
+        if (refreshMillis > 0) {
+            refresher.scheduleWithFixedDelay(this::refresh, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // for testing purpose
+    IndexService() {
+        this.dir = null;
+        // every document makes its own segment, they are merged in memory by the same tiers as disk segments
+        this.flushDocs = 1;
+        this.mergeFactor = IN_MEMORY_MERGE_FACTOR;
+        this.refreshMillis = 0;
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * @param str term or pattern with wildcards, for example photo*
+     */
+    Set<String> find(String str) {
+        if (TermPattern.isPattern(str)) {
+            return find(TermPattern.parse(str));
+        }
+
+        String term = normalize(str);
+
+        ImmutableSet.Builder<String> result = ImmutableSet.builder();
+        forEachSegment(segment -> collect(segment, segment.postings(term), result));
+        return result.build();
+    }
 
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) {
-                return true;
+    private Set<String> find(TermPattern pattern) {
+        ImmutableSet.Builder<String> result = ImmutableSet.builder();
+        forEachSegment(segment -> {
+            for (Iterator<String> terms = segment.terms(pattern.getPrefix()); terms.hasNext(); ) {
+                String term = terms.next();
+                if (pattern.matches(term)) {
+                    collect(segment, segment.postings(term), result);
+                }
             }
-            if (o == null || getClass() != o.getClass()) {
-                return false;
+        });
+        return result.build();
+    }
+
+    private static void collect(Segment segment, PostingsIterator iterator, ImmutableSet.Builder<String> result) {
+        if (null != iterator) {
+            for (int docId = iterator.nextDoc(); docId != PostingsIterator.NO_MORE_DOCS; docId = iterator.nextDoc()) {
+                result.add(segment.getPath(docId));
             }
+        }
+    }
+
+    Set<String> search(String str) {
+        Query query = Query.parse(str, IndexService::normalize);
+
+        ImmutableSet.Builder<String> result = ImmutableSet.builder();
+        forEachSegment(segment -> query.evaluate(segment::postings, docId -> result.add(segment.getPath(docId))));
+        return result.build();
+    }
+
+    /**
+     * @return paths of at most k documents with the best BM25 score for given words, the best first
+     */
+    List<String> rank(String str, int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("Number of results should be positive, but [" + k + "] given");
+        }
+        if (null == str || str.trim().isEmpty()) {
+            throw new IllegalArgumentException("Query should not be empty");
+        }
+
+        List<String> terms = Arrays
+                .stream(str.trim().split("\\s+"))
+                .map(IndexService::normalize)
+                .distinct()
+                .collect(Collectors.toList());
+
+        return new Ranker(segments, terms, k).rank();
+    }
+
+    private void forEachSegment(Consumer<Segment> action) {
+        // single read of the volatile field gives a consistent view even if flush or merge replaces it meanwhile
+        segments.forEach(action);
+    }
 
-            Term term1 = (Term) o;
-            return term.equals(term1.term);
+    private static String normalize(String str) {
+        String term = Tokenizer.normalize(str);
+        if (term.isEmpty()) {
+            throw new IllegalArgumentException("Term should contain only letters and dash, but [" + str + "] given");
         }
 
-        @Override
-        public int hashCode() {
-            return term.hashCode();
+        return term;
+    }
+
+    // todo pass path instead string
+    void index(String url, PageContent content) {
+        index(ImmutableList.of(new Document(url, content)));
+    }
+
+    /**
+     * Tokenizes documents on the calling thread and adds all of them to the buffer under a single lock acquisition.
+     */
+    void index(List<Document> documents) {
+        List<DocumentTerms> terms = documentTerms.get();
+        while (terms.size() < documents.size()) {
+            terms.add(new DocumentTerms());
         }
 
-        @Override
-        public String toString() {
-            return "Term [" + term + "]";
+        for (int i = 0; i < documents.size(); i++) {
+            terms.get(i).clear();
+            tokenizer.get().tokenize(documents.get(i).getContent().getText(), terms.get(i));
         }
 
-        private static String clean(String str) {
-            return str.toLowerCase().replaceAll("[^a-zа-я\\-]", "");
+        add(documents, terms);
+    }
+
+    private synchronized void add(List<Document> documents, List<DocumentTerms> terms) {
+        for (int i = 0; i < documents.size(); i++) {
+            add(documents.get(i).getPath(), terms.get(i));
         }
     }
 
-    @Immutable
-    static class ParsedDocument {
+    private synchronized void add(String url, DocumentTerms terms) {
+        // page is indexed only once, so index stays the same until it is removed from disk
+        if (buffer.contains(url) || segments.stream().anyMatch(s -> s.contains(url))) {
+            return;
+        }
 
-        private final String fileName;
-        private final Set<Term> words;
+        buffer.add(url, terms);
 
-        ParsedDocument(String fileName, Set<Term> words) {
-            this.fileName = fileName;
-            this.words = ImmutableSet.copyOf(words);
+        if (0 == refreshMillis || buffer.getDocCount() >= flushDocs) {
+            refresh();
         }
+    }
 
-        boolean contains(Term term) {
-            return words.contains(term);
+    /**
+     * Publishes documents indexed since the last refresh to searches. Published buffer is never modified again.
+     */
+    synchronized void refresh() {
+        if (buffer.getDocCount() == 0) {
+            return;
         }
 
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) {
-                return true;
+        SegmentBuffer published = buffer;
+        buffer = new SegmentBuffer();
+        segments = ImmutableList.<Segment>builder().addAll(segments).add(published).build();
+
+        if (null != dir) {
+            unflushed.add(published);
+            unflushedDocs += published.getDocCount();
+            if (unflushedDocs >= flushDocs) {
+                scheduleFlush();
             }
-            if (o == null || getClass() != o.getClass()) {
-                return false;
+        } else {
+            mergeBuffers();
+        }
+    }
+
+    /**
+     * In-memory index is never flushed, so its buffers are merged right away by the same tiers as disk segments.
+     * Otherwise every refresh adds a segment and lookups go through all of them.
+     */
+    private synchronized void mergeBuffers() {
+        while (true) {
+            List<SegmentBuffer> candidates = mergeCandidates(SegmentBuffer.class);
+            if (null == candidates) {
+                return;
             }
 
-            ParsedDocument that = (ParsedDocument) o;
-            return fileName.equals(that.fileName);
-        }
+            // published buffers are read by searches, so they are copied into a new one
+            SegmentBuffer merged = new SegmentBuffer();
+            candidates.forEach(merged::addAll);
 
-        @Override
-        public int hashCode() {
-            return 31 * fileName.hashCode();
+            List<Segment> updated = new ArrayList<>(segments);
+            int position = updated.indexOf(candidates.get(0));
+            updated.removeAll(candidates);
+            updated.add(position, merged);
+            segments = ImmutableList.copyOf(updated);
         }
     }
 
-    // assume page is indexed again only after application reload
-    private Set<ParsedDocument> parsedDocuments = Collections.synchronizedSet(new HashSet<>());
+    private synchronized void scheduleFlush() {
+        // buffers stay searchable until they are replaced by the flushed segment
+        List<SegmentBuffer> published = ImmutableList.copyOf(unflushed);
+        unflushed.clear();
+        unflushedDocs = 0;
+        background.execute(() -> flush(published));
+    }
 
-    private final ThreadLocal<XPathExpression> expression = ThreadLocal.withInitial(() -> {
+    private void flush(List<SegmentBuffer> published) {
+        int docs = published.stream().mapToInt(Segment::getDocCount).sum();
+        String name = nextName();
         try {
-            return XPathFactory.newInstance().newXPath().compile("//div[@class='mw-parser-output']//text()");
-        } catch (XPathExpressionException e) {
-            throw new RuntimeException(e);
+            SegmentMerger.merge(dir, name, published);
+            replace(published, DiskSegment.open(dir, name));
+        } catch (IOException | UncheckedIOException e) {
+            // buffers are still searchable, they are flushed again with the next group or on close
+            log.error("unable to flush [" + docs + "] documents to segment [" + name + "], they are kept in memory", e);
+            unflush(published);
+            return;
         }
-    });
+        log.info("[" + docs + "] documents flushed to segment [" + name + "]");
 
-    Set<String> find(String str) {
-        if (!Term.isValid(str)) {
-            throw new IllegalArgumentException("Term should contain only letters and dash, but [" + str + "] given");
+        try {
+            merge();
+        } catch (IOException | UncheckedIOException e) {
+            log.error("unable to merge index segments", e);
         }
+    }
 
-        Term term = new Term(str);
-
-        return parsedDocuments
-                .stream()
-                .filter(d -> d.contains(term))
-                .map(d -> d.fileName)
-                .collect(Collectors.toSet());
+    private synchronized void unflush(List<SegmentBuffer> published) {
+        unflushed.addAll(0, published);
+        unflushedDocs += published.stream().mapToInt(Segment::getDocCount).sum();
     }
 
-    // todo pass path instead string
-    void index(String url, Document doc) {
-        try {
-            NodeList nodes = (NodeList) expression.get().evaluate(doc, XPathConstants.NODESET);
+    /**
+     * Merges disk segments of the same size tier as soon as there are {@link #mergeFactor} of them,
+     * so the number of segments grows logarithmically with the number of documents.
+     */
+    private void merge() throws IOException {
+        while (true) {
+            List<DiskSegment> candidates = mergeCandidates(DiskSegment.class);
+            if (null == candidates) {
+                return;
+            }
 
-            List<String> texts = new LinkedList<>();
-            for (int i = 0; i < nodes.getLength(); i++) {
-                texts.add(nodes.item(i).getTextContent());
+            String name = nextName();
+            SegmentMerger.merge(dir, name, candidates);
+            replace(candidates, DiskSegment.open(dir, name));
+            // running queries keep reading merged segments through their mappings
+            for (DiskSegment merged : candidates) {
+                DiskSegment.delete(dir, merged.getName());
             }
-            tokenize(url, texts);
-        } catch (XPathExpressionException e) {
-            throw new RuntimeException(e);
+            log.info("segments " + candidates + " merged into [" + name + "]");
         }
     }
 
-    private void tokenize(String url, List<String> texts) {
-        final Set<Term> words = new HashSet<>();
-        for (String text: texts) {
-            StringTokenizer tokenizer = new StringTokenizer(text, " \t\n\r\f,.:;?![]'");
-            while (tokenizer.hasMoreTokens()) {
-                String token = tokenizer.nextToken();
-                if (Term.isValid(token)) {
-                    words.add(new Term(token));
+    /**
+     * @return {@link #mergeFactor} segments of given type from the smallest tier having that many, null if there is no such tier
+     */
+    private <T extends Segment> List<T> mergeCandidates(Class<T> type) {
+        Map<Integer, List<T>> tiers = segments
+                .stream()
+                .filter(type::isInstance)
+                .map(type::cast)
+                .collect(Collectors.groupingBy(this::tier));
+
+        return tiers
+                .keySet()
+                .stream()
+                .sorted()
+                .map(tiers::get)
+                .filter(tier -> tier.size() >= mergeFactor)
+                .findFirst()
+                .map(tier -> tier.subList(0, mergeFactor))
+                .orElse(null);
+    }
+
+    private int tier(Segment segment) {
+        int tier = 0;
+        for (long size = (long) flushDocs * mergeFactor; segment.getDocCount() >= size; size *= mergeFactor) {
+            tier++;
+        }
+        return tier;
+    }
+
+    private synchronized void replace(List<? extends Segment> replaced, DiskSegment replacement) throws IOException {
+        List<Segment> updated = new ArrayList<>(segments);
+        int position = updated.indexOf(replaced.get(0));
+        updated.removeAll(replaced);
+        updated.add(position, replacement);
+
+        writeManifest(updated);
+        segments = ImmutableList.copyOf(updated);
+    }
+
+    int getSegmentCount() {
+        return segments.size();
+    }
+
+    private synchronized String nextName() {
+        return String.format("segment-%06d", generation++);
+    }
+
+    /**
+     * Manifest lists segments in search order and is the commit point: files of segments absent in it are garbage.
+     */
+    private void writeManifest(List<Segment> updated) throws IOException {
+        List<String> names = updated
+                .stream()
+                .filter(s -> s instanceof DiskSegment)
+                .map(s -> ((DiskSegment) s).getName())
+                .collect(Collectors.toList());
+
+        Path tmp = dir.resolve(MANIFEST + ".tmp");
+        Files.write(tmp, names, StandardCharsets.UTF_8);
+        Files.move(tmp, dir.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void open() throws IOException {
+        Path manifest = dir.resolve(MANIFEST);
+        List<String> names = Files.exists(manifest) ? Files.readAllLines(manifest, StandardCharsets.UTF_8) : ImmutableList.of();
+
+        List<Segment> opened = new ArrayList<>();
+        for (String name : names) {
+            opened.add(DiskSegment.open(dir, name));
+        }
+        segments = ImmutableList.copyOf(opened);
+
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(file -> {
+                Matcher matcher = SEGMENT_FILE.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    generation = Math.max(generation, Integer.parseInt(matcher.group(2)) + 1);
+                    if (!names.contains(matcher.group(1))) {
+                        delete(file);
+                    }
                 }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        log.info("index opened with segments " + segments);
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.delete(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Flushes buffered documents so they survive application restart.
+     */
+    @PreDestroy
+    void close() throws InterruptedException {
+        if (null == dir) {
+            return;
+        }
+
+        refresher.shutdownNow();
+        synchronized (this) {
+            refresh();
+            if (!unflushed.isEmpty()) {
+                scheduleFlush();
             }
         }
 
-        parsedDocuments.add(new ParsedDocument(url, words));
+        background.shutdown();
+        background.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+        // buffers of a failed background flush get the last attempt
+        List<SegmentBuffer> failed;
+        synchronized (this) {
+            failed = ImmutableList.copyOf(unflushed);
+            unflushed.clear();
+            unflushedDocs = 0;
+        }
+        if (!failed.isEmpty()) {
+            flush(failed);
+        }
+        synchronized (this) {
+            if (unflushedDocs > 0) {
+                log.error("[" + unflushedDocs + "] indexed documents are not flushed and are lost on restart");
+            }
+        }
     }
 }
@@ -14,6 +14,8 @@ class Page {
     private final HttpUrl url;
     private final int depth;
     private final CrawlTask task;
+    // number of failed downloads before this one
+    private final int attempt;
 
     static Page initial(CrawlTask request) {
         assert null != request : "task is mandatory param";
@@ -36,17 +38,42 @@ class Page {
         return new Page(parent.task, url, parent.depth + 1);
     }
 
+    /**
+     * Recreates page which was kept outside of memory by its url and depth.
+     */
+    static Page restore(CrawlTask task, String urlStr, int depth) {
+        assert null != task : "task is mandatory param";
+
+        return new Page(task, HttpUrl.parse(urlStr), depth);
+    }
+
     private Page(CrawlTask request, HttpUrl url, int depth) {
+        this(request, url, depth, 0);
+    }
+
+    private Page(CrawlTask request, HttpUrl url, int depth, int attempt) {
         this.url = url;
         this.depth = depth;
         this.task = request;
+        this.attempt = attempt;
+    }
+
+    /**
+     * @return the same page to be downloaded once more after failure
+     */
+    Page retry() {
+        return new Page(task, url, depth, attempt + 1);
     }
 
     boolean isMaxDepthReached() {
         return depth >= task.getDepth();
     }
 
-    String getFirstSubdomain() { // in most cases it should be language
+    String getFirstSubdomain() {
+        return getFirstSubdomain(url);
+    }
+
+    private static String getFirstSubdomain(HttpUrl url) { // in most cases it should be language
         String[] hostParts = url.host().split(Pattern.quote("."));
 
         if (hostParts[0].equals("wikipedia")) {
@@ -79,6 +106,15 @@ class Page {
         task.increment();
     }
 
+    /**
+     * Starts page of a task which may complete concurrently, e.g. task shared by pages forwarded from other nodes.
+     *
+     * @return false if task is already completed and page was not started
+     */
+    boolean tryStart() {
+        return task.tryIncrement();
+    }
+
     void complete() {
         task.decrement();
     }
@@ -92,13 +128,25 @@ class Page {
     }
 
     String getCanonicalForm() {
-        return getFirstSubdomain() + "/" + url.pathSegments().get(1).toLowerCase();
+        return getCanonicalForm(url);
+    }
+
+    static String getCanonicalForm(HttpUrl url) {
+        return getFirstSubdomain(url) + "/" + url.pathSegments().get(1).toLowerCase();
     }
 
     int getDepth() {
         return depth;
     }
 
+    int getAttempt() {
+        return attempt;
+    }
+
+    CrawlTask getTask() {
+        return task;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -0,0 +1,35 @@
+package crawler;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Text and article links extracted from page content.
+ */
+@NotThreadSafe
+class PageContent implements HtmlExtractor.Handler {
+
+    private final StringBuilder text = new StringBuilder();
+    private final List<String> links = new ArrayList<>();
+
+    @Override
+    public void text(char[] chars, int offset, int length) {
+        // text nodes are separated, so words from neighbour nodes are never glued together
+        text.append(chars, offset, length).append('\n');
+    }
+
+    @Override
+    public void link(String href) {
+        links.add(href);
+    }
+
+    CharSequence getText() {
+        return text;
+    }
+
+    List<String> getLinks() {
+        return Collections.unmodifiableList(links);
+    }
+}
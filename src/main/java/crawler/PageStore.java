@@ -0,0 +1,78 @@
+package crawler;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.io.Closeable;
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+
+/**
+ * Storage of downloaded page bodies and validators of processed pages.
+ */
+interface PageStore extends Closeable {
+
+    /**
+     * Page body written while it is streamed. Body becomes visible on commit, otherwise it is discarded on close.
+     */
+    interface PendingFile extends Closeable {
+
+        WritableByteChannel getChannel();
+
+        void commit();
+    }
+
+    /**
+     * Region of file with page body exactly as it was downloaded, so it may be sent without reading it.
+     */
+    @Immutable
+    class StoredBody {
+
+        private final Path file;
+        private final long offset;
+        private final long length;
+
+        StoredBody(Path file, long offset, long length) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        Path getFile() {
+            return file;
+        }
+
+        long getOffset() {
+            return offset;
+        }
+
+        long getLength() {
+            return length;
+        }
+    }
+
+    PendingFile create(Page page);
+
+    /**
+     * @return stream of stored page body or null if page is not stored
+     */
+    InputStream open(Page page);
+
+    /**
+     * @return stored page body or null if page is not stored or its body is compressed
+     */
+    @Nullable
+    StoredBody locate(Page page);
+
+    void storeValidators(Page page, PageValidators validators);
+
+    /**
+     * @return validators of processed page or null if page is not stored or was not processed
+     */
+    PageValidators loadValidators(Page page);
+
+    /**
+     * Forces records written so far to disk, so one call makes a group of writes durable.
+     */
+    void sync();
+}
@@ -0,0 +1,66 @@
+package crawler;
+
+import com.google.common.hash.Hashing;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.Objects;
+
+/**
+ * Validators of processed page content: http validators to make conditional request
+ * and content hash to detect unchanged content when origin does not support them.
+ */
+@Immutable
+class PageValidators {
+
+    @Nullable
+    private final String etag;
+    @Nullable
+    private final String lastModified;
+    private final String hash;
+
+    PageValidators(@Nullable String etag, @Nullable String lastModified, String hash) {
+        assert null != hash : "hash is mandatory param";
+
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.hash = hash;
+    }
+
+    static String hash(byte[] body) {
+        return Hashing.murmur3_128().hashBytes(body).toString();
+    }
+
+    @Nullable
+    String getEtag() {
+        return etag;
+    }
+
+    @Nullable
+    String getLastModified() {
+        return lastModified;
+    }
+
+    String getHash() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        PageValidators that = (PageValidators) o;
+
+        return Objects.equals(etag, that.etag) && Objects.equals(lastModified, that.lastModified) && hash.equals(that.hash);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(etag, lastModified, hash);
+    }
+}
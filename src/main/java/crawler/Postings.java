@@ -0,0 +1,95 @@
+package crawler;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Sorted list of document ids stored as variable-byte encoded deltas, each followed by term frequency in the document.
+ * Every {@link #SKIP_INTERVAL} postings a skip pointer is recorded so iterators can jump over whole blocks.
+ */
+@NotThreadSafe
+class Postings {
+
+    static final int SKIP_INTERVAL = 32;
+
+    private byte[] data = new byte[4];
+    private int length = 0;
+    private int size = 0;
+    private int lastDocId = -1;
+    private int maxFreq = 0;
+
+    // last document id of every completed block and offset of the block following it
+    private int[] skipDocIds = new int[0];
+    private int[] skipOffsets = new int[0];
+
+    void add(int docId, int freq) {
+        assert docId > lastDocId : "document ids should be added in increasing order";
+        assert freq > 0 : "term frequency should be positive";
+
+        if (size > 0 && size % SKIP_INTERVAL == 0) {
+            addSkip(lastDocId, length);
+        }
+
+        writeVInt(docId - lastDocId);
+        writeVInt(freq);
+        lastDocId = docId;
+        maxFreq = Math.max(maxFreq, freq);
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    PostingsIterator iterator() {
+        return new PostingsIterator(ByteBuffer.wrap(data, 0, length), size, maxFreq, skipDocIds, skipOffsets, getSkipCount());
+    }
+
+    int getMaxFreq() {
+        return maxFreq;
+    }
+
+    int getSkipCount() {
+        return size > 0 ? (size - 1) / SKIP_INTERVAL : 0;
+    }
+
+    int getByteLength() {
+        return length;
+    }
+
+    /**
+     * Writes skip pointers followed by encoded postings.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        for (int i = 0; i < getSkipCount(); i++) {
+            out.writeInt(skipDocIds[i]);
+            out.writeInt(skipOffsets[i]);
+        }
+        out.write(data, 0, length);
+    }
+
+    private void addSkip(int docId, int offset) {
+        int skips = size / SKIP_INTERVAL - 1;
+        if (skips == skipDocIds.length) {
+            skipDocIds = Arrays.copyOf(skipDocIds, Math.max(4, skips * 2));
+            skipOffsets = Arrays.copyOf(skipOffsets, Math.max(4, skips * 2));
+        }
+        skipDocIds[skips] = docId;
+        skipOffsets[skips] = offset;
+    }
+
+    private void writeVInt(int value) {
+        if (data.length - length < 5) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, length + 5));
+        }
+
+        while ((value & ~0x7F) != 0) {
+            data[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[length++] = (byte) value;
+    }
+}
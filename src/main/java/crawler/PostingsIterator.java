@@ -0,0 +1,100 @@
+package crawler;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes variable-byte encoded document id deltas and term frequencies in increasing document order.
+ */
+@NotThreadSafe
+class PostingsIterator {
+
+    static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    private final ByteBuffer data;
+    private final int size;
+    private final int maxFreq;
+    private final int[] skipDocIds;
+    private final int[] skipOffsets;
+    private final int skips;
+    private int position = 0;
+    private int docId = -1;
+    private int freq = 0;
+
+    PostingsIterator(ByteBuffer data, int size, int maxFreq, int[] skipDocIds, int[] skipOffsets, int skips) {
+        this.data = data;
+        this.size = size;
+        this.maxFreq = maxFreq;
+        this.skipDocIds = skipDocIds;
+        this.skipOffsets = skipOffsets;
+        this.skips = skips;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getMaxFreq() {
+        return maxFreq;
+    }
+
+    int docId() {
+        return docId;
+    }
+
+    /**
+     * @return frequency of term in the current document
+     */
+    int freq() {
+        return freq;
+    }
+
+    int nextDoc() {
+        if (position >= size) {
+            return docId = NO_MORE_DOCS;
+        }
+
+        position++;
+        docId += readVInt();
+        freq = readVInt();
+        return docId;
+    }
+
+    /**
+     * Moves to the first document with id greater or equal to target.
+     */
+    int advance(int target) {
+        skipTo(target);
+
+        while (docId < target) {
+            nextDoc();
+        }
+        return docId;
+    }
+
+    private void skipTo(int target) {
+        // skip pointer k leads to the posting number (k + 1) * SKIP_INTERVAL
+        int skip = position / Postings.SKIP_INTERVAL;
+        if (skip >= skips || skipDocIds[skip] >= target) {
+            return;
+        }
+
+        while (skip + 1 < skips && skipDocIds[skip + 1] < target) {
+            skip++;
+        }
+
+        position = (skip + 1) * Postings.SKIP_INTERVAL;
+        docId = skipDocIds[skip];
+        data.position(skipOffsets[skip]);
+    }
+
+    private int readVInt() {
+        byte b = data.get();
+        int value = b & 0x7F;
+        for (int shift = 7; b < 0; shift += 7) {
+            b = data.get();
+            value |= (b & 0x7F) << shift;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,179 @@
+package crawler;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.regex.Pattern;
+
+/**
+ * Boolean query in disjunctive form: clauses are joined with OR, terms inside a clause with (implicit) AND.
+ * For example "bruce AND willis OR actor NOT singer".
+ */
+@Immutable
+class Query {
+
+    private static final String AND = "AND";
+    private static final String OR = "OR";
+    private static final String NOT = "NOT";
+
+    @Immutable
+    static class Clause {
+
+        private final List<String> required;
+        private final List<String> excluded;
+
+        Clause(List<String> required, List<String> excluded) {
+            this.required = ImmutableList.copyOf(required);
+            this.excluded = ImmutableList.copyOf(excluded);
+        }
+
+        List<String> getRequired() {
+            return required;
+        }
+
+        List<String> getExcluded() {
+            return excluded;
+        }
+
+        @Override
+        public String toString() {
+            return "Clause " + required + " NOT " + excluded;
+        }
+    }
+
+    private final List<Clause> clauses;
+
+    private Query(List<Clause> clauses) {
+        this.clauses = ImmutableList.copyOf(clauses);
+    }
+
+    /**
+     * @param normalizer validates single word and converts it to the term form used by index
+     */
+    static Query parse(String str, Function<String, String> normalizer) {
+        if (null == str || str.trim().isEmpty()) {
+            throw new IllegalArgumentException("Query should not be empty");
+        }
+
+        List<Clause> clauses = new ArrayList<>();
+        List<String> required = new ArrayList<>();
+        List<String> excluded = new ArrayList<>();
+        String operator = null;
+
+        for (String token : Pattern.compile("\\s+").split(str.trim())) {
+            if (token.equals(OR)) {
+                checkOperand(operator, token);
+                clauses.add(clause(required, excluded, str));
+                required = new ArrayList<>();
+                excluded = new ArrayList<>();
+                operator = OR;
+            } else if (token.equals(AND) || token.equals(NOT)) {
+                if (!(NOT.equals(token) && AND.equals(operator))) {
+                    checkOperand(operator, token);
+                }
+                if (required.isEmpty() && excluded.isEmpty() && token.equals(AND)) {
+                    throw new IllegalArgumentException("Operator [" + token + "] should follow a term");
+                }
+                operator = token;
+            } else {
+                (NOT.equals(operator) ? excluded : required).add(normalizer.apply(token));
+                operator = null;
+            }
+        }
+
+        if (null != operator) {
+            throw new IllegalArgumentException("Operator [" + operator + "] should be followed by a term");
+        }
+        clauses.add(clause(required, excluded, str));
+
+        return new Query(clauses);
+    }
+
+    private static void checkOperand(String previousOperator, String operator) {
+        if (null != previousOperator) {
+            throw new IllegalArgumentException("Operator [" + previousOperator + "] should be followed by a term, but [" + operator + "] given");
+        }
+    }
+
+    private static Clause clause(List<String> required, List<String> excluded, String query) {
+        if (required.isEmpty()) {
+            throw new IllegalArgumentException("Every OR part of query should contain a term without NOT, but [" + query + "] given");
+        }
+        return new Clause(required, excluded);
+    }
+
+    List<Clause> getClauses() {
+        return clauses;
+    }
+
+    /**
+     * Passes ids of all matching documents to collector. Documents matching several clauses are reported several times.
+     *
+     * @param postings returns iterator over documents containing the term or null if there are no such documents
+     */
+    void evaluate(Function<String, PostingsIterator> postings, IntConsumer collector) {
+        for (Clause clause : clauses) {
+            evaluate(clause, postings, collector);
+        }
+    }
+
+    private static void evaluate(Clause clause, Function<String, PostingsIterator> postings, IntConsumer collector) {
+        PostingsIterator[] required = new PostingsIterator[clause.required.size()];
+        for (int i = 0; i < required.length; i++) {
+            required[i] = postings.apply(clause.required.get(i));
+            if (null == required[i]) {
+                return;
+            }
+        }
+        // the shortest list drives intersection, longer ones are only advanced with skips
+        Arrays.sort(required, Comparator.comparingInt(PostingsIterator::size));
+
+        List<PostingsIterator> excluded = new ArrayList<>(clause.excluded.size());
+        for (String term : clause.excluded) {
+            PostingsIterator iterator = postings.apply(term);
+            if (null != iterator) {
+                excluded.add(iterator);
+            }
+        }
+
+        PostingsIterator lead = required[0];
+        int docId = lead.nextDoc();
+        while (docId != PostingsIterator.NO_MORE_DOCS) {
+            int candidate = docId;
+            for (int i = 1; i < required.length && candidate == docId; i++) {
+                candidate = required[i].docId() < docId ? required[i].advance(docId) : required[i].docId();
+            }
+
+            if (candidate != docId) {
+                docId = lead.advance(candidate);
+                continue;
+            }
+
+            if (!isExcluded(docId, excluded)) {
+                collector.accept(docId);
+            }
+            docId = lead.nextDoc();
+        }
+    }
+
+    private static boolean isExcluded(int docId, List<PostingsIterator> excluded) {
+        for (PostingsIterator iterator : excluded) {
+            int excludedId = iterator.docId() < docId ? iterator.advance(docId) : iterator.docId();
+            if (excludedId == docId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "Query " + clauses;
+    }
+}
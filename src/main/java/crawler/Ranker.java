@@ -0,0 +1,197 @@
+package crawler;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Collects top-k documents by BM25 score over several segments.
+ * <p>
+ * Segments are evaluated with MaxScore: terms whose summed score upper bounds can not beat the current k-th
+ * score are not used to produce candidates and are only checked for documents found by the other terms.
+ */
+@NotThreadSafe
+class Ranker {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private static class Hit {
+
+        private final Segment segment;
+        private final int docId;
+        private final double score;
+
+        Hit(Segment segment, int docId, double score) {
+            this.segment = segment;
+            this.docId = docId;
+            this.score = score;
+        }
+    }
+
+    private static class Scorer {
+
+        private final PostingsIterator iterator;
+        private final double idf;
+        private final double upperBound;
+
+        Scorer(PostingsIterator iterator, double idf) {
+            this.iterator = iterator;
+            this.idf = idf;
+            // score grows with term frequency and is the highest for the shortest document
+            this.upperBound = idf * iterator.getMaxFreq() * (K1 + 1) / (iterator.getMaxFreq() + K1 * (1 - B));
+        }
+    }
+
+    private final List<Segment> segments;
+    private final List<String> terms;
+    private final int k;
+    private final PriorityQueue<Hit> hits;
+    private final double averageLength;
+    private final double[] idf;
+
+    Ranker(List<Segment> segments, List<String> terms, int k) {
+        assert k > 0 : "number of results should be positive";
+
+        this.segments = segments;
+        this.terms = terms;
+        this.k = k;
+        this.hits = new PriorityQueue<>(k, Comparator.comparingDouble(h -> h.score));
+
+        long docCount = 0;
+        long totalLength = 0;
+        for (Segment segment : segments) {
+            docCount += segment.getDocCount();
+            totalLength += segment.getTotalLength();
+        }
+        averageLength = docCount == 0 ? 0 : (double) totalLength / docCount;
+
+        idf = new double[terms.size()];
+        for (int i = 0; i < terms.size(); i++) {
+            long docFreq = 0;
+            for (Segment segment : segments) {
+                PostingsIterator iterator = segment.postings(terms.get(i));
+                docFreq += null == iterator ? 0 : iterator.size();
+            }
+            idf[i] = Math.log(1 + (docCount - docFreq + 0.5) / (docFreq + 0.5));
+        }
+    }
+
+    /**
+     * @return paths of the best matching documents, the best first
+     */
+    List<String> rank() {
+        for (Segment segment : segments) {
+            rank(segment);
+        }
+
+        LinkedList<String> result = new LinkedList<>();
+        while (!hits.isEmpty()) {
+            Hit hit = hits.poll();
+            result.addFirst(hit.segment.getPath(hit.docId));
+        }
+        return result;
+    }
+
+    private void rank(Segment segment) {
+        List<Scorer> found = new ArrayList<>(terms.size());
+        for (int i = 0; i < terms.size(); i++) {
+            PostingsIterator iterator = segment.postings(terms.get(i));
+            if (null != iterator) {
+                found.add(new Scorer(iterator, idf[i]));
+            }
+        }
+        if (found.isEmpty()) {
+            return;
+        }
+
+        Scorer[] scorers = found.toArray(new Scorer[0]);
+        Arrays.sort(scorers, Comparator.comparingDouble(s -> s.upperBound));
+
+        // cumulative upper bound of scorers[0..i]
+        double[] bounds = new double[scorers.length];
+        double sum = 0;
+        for (int i = 0; i < scorers.length; i++) {
+            sum += scorers[i].upperBound;
+            bounds[i] = sum;
+        }
+
+        int firstEssential = firstEssential(bounds, 0);
+        for (int i = firstEssential; i < scorers.length; i++) {
+            scorers[i].iterator.nextDoc();
+        }
+
+        while (firstEssential < scorers.length) {
+            int docId = PostingsIterator.NO_MORE_DOCS;
+            for (int i = firstEssential; i < scorers.length; i++) {
+                docId = Math.min(docId, scorers[i].iterator.docId());
+            }
+            if (docId == PostingsIterator.NO_MORE_DOCS) {
+                return;
+            }
+
+            double length = segment.getDocLength(docId);
+            double score = 0;
+            for (int i = firstEssential; i < scorers.length; i++) {
+                PostingsIterator iterator = scorers[i].iterator;
+                if (iterator.docId() == docId) {
+                    score += score(scorers[i], length);
+                    iterator.nextDoc();
+                }
+            }
+
+            for (int i = firstEssential - 1; i >= 0 && score + bounds[i] > threshold(); i--) {
+                PostingsIterator iterator = scorers[i].iterator;
+                if (iterator.docId() < docId) {
+                    iterator.advance(docId);
+                }
+                if (iterator.docId() == docId) {
+                    score += score(scorers[i], length);
+                }
+            }
+
+            if (collect(segment, docId, score)) {
+                // iterators which became non-essential are positioned on demand with advance
+                firstEssential = firstEssential(bounds, firstEssential);
+            }
+        }
+    }
+
+    private int firstEssential(double[] bounds, int from) {
+        int first = from;
+        while (first < bounds.length && bounds[first] <= threshold()) {
+            first++;
+        }
+        return first;
+    }
+
+    private double threshold() {
+        return hits.size() < k ? 0 : hits.peek().score;
+    }
+
+    private double score(Scorer scorer, double length) {
+        double freq = scorer.iterator.freq();
+        return scorer.idf * freq * (K1 + 1) / (freq + K1 * (1 - B + B * length / averageLength));
+    }
+
+    /**
+     * @return true if threshold changed
+     */
+    private boolean collect(Segment segment, int docId, double score) {
+        if (hits.size() < k) {
+            hits.add(new Hit(segment, docId, score));
+            return hits.size() == k;
+        }
+
+        if (score > hits.peek().score) {
+            hits.poll();
+            hits.add(new Hit(segment, docId, score));
+            return true;
+        }
+        return false;
+    }
+}
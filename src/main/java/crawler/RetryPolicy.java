@@ -0,0 +1,82 @@
+package crawler;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether failed page is downloaded again and how long its host should rest before that.
+ * Only failures caused by overloaded or unreachable origin are retried, the delay grows exponentially
+ * with attempts and is randomized in full ({@code [0, backoff * 2^attempt]}), so retries of pages failed together
+ * are spread in time. Delay requested by origin in Retry-After is never shortened.
+ */
+@Immutable
+@Service
+class RetryPolicy {
+
+    private final int maxRetries;
+    private final long backoffNanos;
+    private final long maxBackoffNanos;
+
+    @Autowired
+    RetryPolicy(
+            @Value("${app.download.retry.max}") int maxRetries,
+            @Value("${app.download.retry.backoff.ms}") long backoffMillis,
+            @Value("${app.download.retry.backoff.max.ms}") long maxBackoffMillis
+    ) {
+        assert maxRetries >= 0 : "number of retries should not be negative";
+        assert backoffMillis >= 0 : "backoff should not be negative";
+        assert maxBackoffMillis >= backoffMillis : "max backoff should not be less than backoff";
+
+        this.maxRetries = maxRetries;
+        this.backoffNanos = TimeUnit.MILLISECONDS.toNanos(backoffMillis);
+        this.maxBackoffNanos = TimeUnit.MILLISECONDS.toNanos(maxBackoffMillis);
+    }
+
+    static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && null != e.getCause() ? e.getCause() : e;
+    }
+
+    /**
+     * @return true if failure is caused by origin, not by page itself or by local storage
+     */
+    static boolean isRetryable(Throwable e) {
+        Throwable cause = unwrap(e);
+        if (cause instanceof DownloadService.HttpError) {
+            return ((DownloadService.HttpError) cause).isOverload();
+        }
+        // body stream broken in the middle, it is wrapped on its way through parser and storage
+        for (Throwable t = cause; null != t; t = t.getCause()) {
+            if (t instanceof DownloadService.BodyError) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean shouldRetry(Page page, Throwable e) {
+        return page.getAttempt() < maxRetries && isRetryable(e);
+    }
+
+    long getDelayNanos(Page page, Throwable e) {
+        long backoff = maxBackoffNanos;
+        // shift is limited, so backoff does not overflow
+        if (page.getAttempt() < Long.numberOfLeadingZeros(backoffNanos) - 1) {
+            backoff = Math.min(maxBackoffNanos, backoffNanos << page.getAttempt());
+        }
+        long delay = ThreadLocalRandom.current().nextLong(backoff + 1);
+
+        Throwable cause = unwrap(e);
+        if (cause instanceof DownloadService.HttpError) {
+            long retryAfter = ((DownloadService.HttpError) cause).getRetryAfterMillis();
+            delay = Math.max(delay, TimeUnit.MILLISECONDS.toNanos(retryAfter));
+        }
+
+        return delay;
+    }
+}
@@ -0,0 +1,35 @@
+package crawler;
+
+import java.util.Iterator;
+
+/**
+ * Searchable part of the index. Documents ids are local to segment and start from 0.
+ */
+interface Segment {
+
+    int getDocCount();
+
+    /**
+     * @return sum of lengths of all documents in segment
+     */
+    long getTotalLength();
+
+    /**
+     * @return number of terms in the document
+     */
+    int getDocLength(int docId);
+
+    /**
+     * @return iterator over documents containing the term or null if there are no such documents
+     */
+    PostingsIterator postings(String term);
+
+    /**
+     * @return terms starting with the prefix in ascending order
+     */
+    Iterator<String> terms(String prefix);
+
+    String getPath(int docId);
+
+    boolean contains(String path);
+}
@@ -0,0 +1,190 @@
+package crawler;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * In-memory segment collecting freshly indexed documents until they are flushed to disk.
+ */
+@NotThreadSafe
+class SegmentBuffer implements Segment {
+
+    // document id -> path, ids are dense and assigned in indexing order so postings stay sorted
+    private final List<String> paths = new ArrayList<>();
+    private final Set<String> pathSet = new HashSet<>();
+    private int[] lengths = new int[16];
+    private long totalLength = 0;
+    // term dictionary: term id -> compressed ids of documents containing it
+    private final TermHash terms = new TermHash();
+    private String[] termStrings = new String[64];
+    private Postings[] postings = new Postings[64];
+    // term ids in term order, rebuilt on demand after new terms are added; flushed buffers are read concurrently
+    private volatile int[] sortedTerms = new int[0];
+
+    void add(String path, DocumentTerms document) {
+        int docId = addDocument(path, document.getLength());
+
+        TermHash documentTerms = document.getTerms();
+        for (int i = 0; i < documentTerms.size(); i++) {
+            int id = addTerm(documentTerms, i);
+            postings[id].add(docId, document.getFreq(i));
+        }
+    }
+
+    /**
+     * Appends all documents of other buffer, their ids are shifted by the number of documents already added,
+     * so postings stay sorted.
+     */
+    void addAll(SegmentBuffer other) {
+        int docBase = paths.size();
+        for (int docId = 0; docId < other.getDocCount(); docId++) {
+            addDocument(other.getPath(docId), other.getDocLength(docId));
+        }
+
+        for (int otherId = 0; otherId < other.getTermCount(); otherId++) {
+            int id = addTerm(other.terms, otherId);
+            PostingsIterator iterator = other.getPostings(otherId).iterator();
+            for (int docId = iterator.nextDoc(); docId != PostingsIterator.NO_MORE_DOCS; docId = iterator.nextDoc()) {
+                postings[id].add(docBase + docId, iterator.freq());
+            }
+        }
+    }
+
+    private int addDocument(String path, int length) {
+        assert !pathSet.contains(path) : "document should be added only once";
+
+        int docId = paths.size();
+        paths.add(path);
+        pathSet.add(path);
+
+        if (docId == lengths.length) {
+            lengths = Arrays.copyOf(lengths, lengths.length * 2);
+        }
+        lengths[docId] = length;
+        totalLength += length;
+        return docId;
+    }
+
+    private int addTerm(TermHash source, int sourceId) {
+        int termCount = terms.size();
+        int id = terms.add(source.getPool(), source.getOffset(sourceId), source.getLength(sourceId));
+        if (id == termCount) {
+            // the only place where term string is created
+            if (id == postings.length) {
+                postings = Arrays.copyOf(postings, id * 2);
+                termStrings = Arrays.copyOf(termStrings, id * 2);
+            }
+            postings[id] = new Postings();
+            termStrings[id] = terms.toString(id);
+        }
+        return id;
+    }
+
+    @Override
+    public int getDocCount() {
+        return paths.size();
+    }
+
+    @Override
+    public long getTotalLength() {
+        return totalLength;
+    }
+
+    @Override
+    public int getDocLength(int docId) {
+        return lengths[docId];
+    }
+
+    @Override
+    public PostingsIterator postings(String term) {
+        int id = terms.find(term);
+        return id < 0 ? null : postings[id].iterator();
+    }
+
+    @Override
+    public Iterator<String> terms(String prefix) {
+        int[] sorted = sortedTerms();
+
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (termStrings[sorted[mid]].compareTo(prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int start = low;
+
+        return new Iterator<String>() {
+            private int position = start;
+
+            @Override
+            public boolean hasNext() {
+                return position < sorted.length && termStrings[sorted[position]].startsWith(prefix);
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return termStrings[sorted[position++]];
+            }
+        };
+    }
+
+    private int[] sortedTerms() {
+        int[] sorted = sortedTerms;
+        if (sorted.length != terms.size()) {
+            // term chars are within basic multilingual plane, so string order is the same as order of UTF-8 bytes on disk
+            sorted = IntStream
+                    .range(0, terms.size())
+                    .boxed()
+                    .sorted(Comparator.comparing(id -> termStrings[id]))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+            sortedTerms = sorted;
+        }
+        return sorted;
+    }
+
+    @Override
+    public String getPath(int docId) {
+        return paths.get(docId);
+    }
+
+    @Override
+    public boolean contains(String path) {
+        return pathSet.contains(path);
+    }
+
+    List<String> getPaths() {
+        return paths;
+    }
+
+    int[] getLengths() {
+        return Arrays.copyOf(lengths, paths.size());
+    }
+
+    int getTermCount() {
+        return terms.size();
+    }
+
+    String getTerm(int id) {
+        return termStrings[id];
+    }
+
+    Postings getPostings(int id) {
+        return postings[id];
+    }
+}
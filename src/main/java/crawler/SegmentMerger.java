@@ -0,0 +1,97 @@
+package crawler;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges several segments into one. Terms are merged in sorted order so postings of a single term
+ * are the only thing kept in memory, documents of every next segment are renumbered after the previous ones.
+ */
+class SegmentMerger {
+
+    private static class Cursor {
+
+        private final Segment segment;
+        private final int index;
+        private final int docBase;
+        private final Iterator<String> terms;
+        private String term;
+        private byte[] bytes;
+
+        Cursor(Segment segment, int index, int docBase) {
+            this.segment = segment;
+            this.index = index;
+            this.docBase = docBase;
+            this.terms = segment.terms("");
+        }
+
+        boolean next() {
+            if (!terms.hasNext()) {
+                return false;
+            }
+
+            term = terms.next();
+            bytes = SegmentWriter.toBytes(term);
+            return true;
+        }
+    }
+
+    private static final Comparator<Cursor> ORDER = Comparator
+            .<Cursor, byte[]>comparing(c -> c.bytes, SegmentWriter::compare)
+            .thenComparingInt(c -> c.index);
+
+    private SegmentMerger() {
+    }
+
+    static void merge(Path dir, String name, List<? extends Segment> segments) throws IOException {
+        PriorityQueue<Cursor> queue = new PriorityQueue<>(ORDER);
+        List<String> paths = new ArrayList<>();
+        int[] lengths = new int[segments.stream().mapToInt(Segment::getDocCount).sum()];
+
+        int docBase = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            Cursor cursor = new Cursor(segment, i, docBase);
+            if (cursor.next()) {
+                queue.add(cursor);
+            }
+            for (int docId = 0; docId < segment.getDocCount(); docId++) {
+                paths.add(segment.getPath(docId));
+                lengths[docBase + docId] = segment.getDocLength(docId);
+            }
+            docBase += segment.getDocCount();
+        }
+
+        try (SegmentWriter writer = new SegmentWriter(dir, name)) {
+            List<Cursor> sameTerm = new ArrayList<>();
+            while (!queue.isEmpty()) {
+                sameTerm.clear();
+                sameTerm.add(queue.poll());
+                while (!queue.isEmpty() && SegmentWriter.compare(queue.peek().bytes, sameTerm.get(0).bytes) == 0) {
+                    sameTerm.add(queue.poll());
+                }
+
+                Postings merged = new Postings();
+                for (Cursor cursor : sameTerm) {
+                    PostingsIterator iterator = cursor.segment.postings(cursor.term);
+                    for (int docId = iterator.nextDoc(); docId != PostingsIterator.NO_MORE_DOCS; docId = iterator.nextDoc()) {
+                        merged.add(cursor.docBase + docId, iterator.freq());
+                    }
+                }
+                writer.addTerm(sameTerm.get(0).bytes, merged);
+
+                for (Cursor cursor : sameTerm) {
+                    if (cursor.next()) {
+                        queue.add(cursor);
+                    }
+                }
+            }
+            writer.finish(paths, lengths);
+        }
+    }
+}
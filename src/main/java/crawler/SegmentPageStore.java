@@ -0,0 +1,663 @@
+package crawler;
+
+import com.google.common.collect.ImmutableList;
+import okhttp3.HttpUrl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pages are appended as WARC-like records to large segment files instead of a file per page.
+ * Record is a block of text headers followed by body:
+ * <pre>
+ * WARC/1.0
+ * WARC-Type: response | metadata
+ * WARC-Target-URI: page url
+ * Content-Length: body length
+ *
+ * body
+ *
+ * </pre>
+ * Response record keeps page body, metadata record keeps validators of processed page in ETag, Last-Modified
+ * and WARC-Payload-Digest headers. The latest record of each type wins.
+ * <p>
+ * Offsets of the latest records are kept in memory by fingerprint of page canonical form and rebuilt on startup
+ * by reading record headers only. Active segment is rolled over when it exceeds segment size.
+ * Space of outdated records is not reclaimed.
+ * <p>
+ * Bodies are streamed to spool files first, as several pages are downloaded at once,
+ * and are appended to active segment on commit.
+ * <p>
+ * Bodies may be compressed one by one with {@link DictionaryCodec}, so any page is still read alone.
+ * Compressed record has {@code Content-Encoding: deflate} and id of dictionary in {@code WARC-Dictionary} header,
+ * dictionaries are kept next to segments and never change.
+ */
+@ThreadSafe
+class SegmentPageStore implements PageStore {
+
+    @Immutable
+    private static class Location {
+
+        private final int segment;
+        private final long offset;
+        private final long length;
+        // null if body is not compressed
+        private final DictionaryCodec codec;
+
+        Location(int segment, long offset, long length, DictionaryCodec codec) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.codec = codec;
+        }
+    }
+
+    /**
+     * Compresses body on its way to spool file, the first bytes of body are kept as dictionary sample if needed.
+     */
+    @NotThreadSafe
+    private static class CompressingChannel implements WritableByteChannel {
+
+        private final OutputStream out;
+        // null if sample is not needed
+        private final ByteArrayOutputStream sample;
+
+        CompressingChannel(OutputStream out, boolean sample) {
+            this.out = out;
+            this.sample = sample ? new ByteArrayOutputStream() : null;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int count = src.remaining();
+            byte[] bytes;
+            int offset;
+            if (src.hasArray()) {
+                bytes = src.array();
+                offset = src.arrayOffset() + src.position();
+                src.position(src.limit());
+            } else {
+                bytes = new byte[count];
+                offset = 0;
+                src.get(bytes);
+            }
+
+            out.write(bytes, offset, count);
+            if (null != sample && sample.size() < MAX_SAMPLE_SIZE) {
+                sample.write(bytes, offset, Math.min(count, MAX_SAMPLE_SIZE - sample.size()));
+            }
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            // completed by spool file
+        }
+    }
+
+    @Immutable
+    private static class Header {
+
+        private final Map<String, String> fields;
+        private final long bodyOffset;
+        private final long length;
+
+        Header(Map<String, String> fields, long bodyOffset, long length) {
+            this.fields = fields;
+            this.bodyOffset = bodyOffset;
+            this.length = length;
+        }
+    }
+
+    @NotThreadSafe
+    private class SpoolFile implements PendingFile {
+
+        private final Page page;
+        private final FileChannel spool;
+        // null if body is not compressed
+        private final DictionaryCodec codec;
+        private final OutputStream compressed;
+        private final CompressingChannel channel;
+
+        SpoolFile(Page page, FileChannel spool, DictionaryCodec codec, boolean sample) {
+            this.page = page;
+            this.spool = spool;
+            this.codec = codec;
+            if (null == codec) {
+                compressed = null;
+                channel = null;
+            } else {
+                compressed = codec.compress(Channels.newOutputStream(spool));
+                channel = new CompressingChannel(compressed, sample);
+            }
+        }
+
+        @Override
+        public WritableByteChannel getChannel() {
+            return null == channel ? spool : channel;
+        }
+
+        @Override
+        public void commit() {
+            try {
+                Map<String, String> fields = new LinkedHashMap<>();
+                fields.put(TYPE, RESPONSE);
+                fields.put(URI, page.getUrl().toString());
+                if (null != codec) {
+                    compressed.close();
+                    fields.put(ENCODING, DEFLATE);
+                    if (codec.getId() >= 0) {
+                        fields.put(DICTIONARY, Integer.toString(codec.getId()));
+                    }
+                }
+
+                Location location = append(fields, spool, spool.size(), codec);
+                bodies.put(key(page), location);
+
+                if (null != channel && null != channel.sample) {
+                    sample(channel.sample.toByteArray());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (null != compressed) {
+                    compressed.close();
+                }
+            } finally {
+                spool.truncate(0);
+                if (!spools.offer(spool)) {
+                    spool.close();
+                }
+            }
+        }
+    }
+
+    @NotThreadSafe
+    private static class RecordInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        RecordInputStream(FileChannel channel, Location location) {
+            this.channel = channel;
+            this.position = location.offset;
+            this.end = location.offset + location.length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+
+            // positional read does not move channel position, so the channel is shared by readers and writer
+            int count = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (count > 0) {
+                position += count;
+            }
+            return count;
+        }
+    }
+
+    private static final String VERSION = "WARC/1.0";
+    private static final String TYPE = "WARC-Type";
+    private static final String URI = "WARC-Target-URI";
+    private static final String LENGTH = "Content-Length";
+    private static final String DIGEST = "WARC-Payload-Digest";
+    private static final String ETAG = "ETag";
+    private static final String LAST_MODIFIED = "Last-Modified";
+    private static final String ENCODING = "Content-Encoding";
+    private static final String DEFLATE = "deflate";
+    private static final String DICTIONARY = "WARC-Dictionary";
+    private static final String RESPONSE = "response";
+    private static final String METADATA = "metadata";
+    private static final String DIGEST_PREFIX = "murmur3:";
+    private static final String CRLF = "\r\n";
+    private static final byte[] RECORD_END = (CRLF + CRLF).getBytes(StandardCharsets.US_ASCII);
+    // record headers are expected to be much shorter
+    private static final int MAX_HEADER_SIZE = 1 << 14;
+    private static final int MAX_SPOOLS = 16;
+    // beginning of page is enough to find shared markup
+    private static final int MAX_SAMPLE_SIZE = 256 * 1024;
+
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    private final Path dir;
+    private final Path spoolDir;
+    private final long segmentSize;
+    private final int dictionarySamples;
+    private final Map<Integer, DictionaryCodec> codecs = new ConcurrentHashMap<>();
+    // codec of new bodies, null if bodies are not compressed, replaced by trainer once dictionary is ready
+    private volatile DictionaryCodec codec;
+    // trains dictionary away from commit, which runs on the writer thread shared by all pages
+    private final ExecutorService trainer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "dictionary-trainer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<Long, Location> bodies = new ConcurrentHashMap<>();
+    private final Map<Long, PageValidators> validators = new ConcurrentHashMap<>();
+    private final BlockingQueue<FileChannel> spools = new ArrayBlockingQueue<>(MAX_SPOOLS);
+    // segments are only added, so readers take them without lock
+    private volatile List<FileChannel> segments = ImmutableList.of();
+
+    // all fields below are guarded by this
+    private FileChannel active;
+    // the first segment which may have records not forced to disk
+    private int unsynced = 0;
+    // pages to train dictionary from, null if dictionary is not needed or being trained
+    private List<byte[]> samples;
+
+    // for testing purpose
+    SegmentPageStore(Path dir, long segmentSize) throws IOException {
+        this(dir, segmentSize, false, 0);
+    }
+
+    /**
+     * @param dictionarySamples number of pages compressed without dictionary before dictionary is trained from them,
+     *                          dictionary is not used if it is 0
+     */
+    SegmentPageStore(Path dir, long segmentSize, boolean compress, int dictionarySamples) throws IOException {
+        assert Files.isDirectory(dir) : "path should be directory";
+        assert segmentSize > 0 : "segment size should be positive";
+        assert dictionarySamples >= 0 : "number of dictionary samples should not be negative";
+
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.dictionarySamples = dictionarySamples;
+        this.spoolDir = dir.resolve("spool");
+
+        // dictionaries are loaded before records referring them
+        for (int id = 0; Files.exists(dictionaryPath(id)); id++) {
+            codecs.put(id, new DictionaryCodec(id, Files.readAllBytes(dictionaryPath(id))));
+        }
+        if (compress) {
+            codec = codecs.isEmpty() ? DictionaryCodec.NO_DICTIONARY : codecs.get(codecs.size() - 1);
+            synchronized (this) {
+                samples = codecs.isEmpty() && dictionarySamples > 0 ? new ArrayList<>() : null;
+            }
+        }
+
+        Files.createDirectories(spoolDir);
+        // spool files left by crash do not belong to any record
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(spoolDir)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+
+        int count = 0;
+        while (Files.exists(segmentPath(count))) {
+            count++;
+        }
+
+        List<FileChannel> opened = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            FileChannel channel = FileChannel.open(segmentPath(i), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            opened.add(channel);
+            load(i, channel, i == count - 1);
+        }
+        segments = ImmutableList.copyOf(opened);
+
+        synchronized (this) {
+            if (count == 0) {
+                roll();
+            } else {
+                active = segments.get(count - 1);
+                active.position(active.size());
+            }
+        }
+
+        log.info("[" + bodies.size() + "] pages found in [" + count + "] segments");
+    }
+
+    @Override
+    public PendingFile create(Page page) {
+        FileChannel spool = spools.poll();
+        try {
+            if (null == spool) {
+                spool = FileChannel.open(
+                        Files.createTempFile(spoolDir, "page", ".spool"),
+                        StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE
+                );
+            }
+            DictionaryCodec current = codec;
+            return new SpoolFile(page, spool, current, null != current && isSampling());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public InputStream open(Page page) {
+        Location location = bodies.get(key(page));
+        if (null == location) {
+            return null;
+        }
+
+        InputStream record = new RecordInputStream(segments.get(location.segment), location);
+        return null == location.codec ? record : location.codec.decompress(record);
+    }
+
+    @Override
+    public StoredBody locate(Page page) {
+        Location location = bodies.get(key(page));
+        if (null == location || null != location.codec) {
+            return null;
+        }
+
+        // segments are append-only, so the region never changes
+        return new StoredBody(segmentPath(location.segment), location.offset, location.length);
+    }
+
+    @Override
+    public void storeValidators(Page page, PageValidators validators) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        fields.put(TYPE, METADATA);
+        fields.put(URI, page.getUrl().toString());
+        if (null != validators.getEtag()) {
+            fields.put(ETAG, validators.getEtag());
+        }
+        if (null != validators.getLastModified()) {
+            fields.put(LAST_MODIFIED, validators.getLastModified());
+        }
+        fields.put(DIGEST, DIGEST_PREFIX + validators.getHash());
+
+        try {
+            append(fields, null, 0, null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.validators.put(key(page), validators);
+    }
+
+    @Override
+    public PageValidators loadValidators(Page page) {
+        long key = key(page);
+        return bodies.containsKey(key) ? validators.get(key) : null;
+    }
+
+    @Override
+    public void sync() {
+        int from;
+        List<FileChannel> current;
+        synchronized (this) {
+            from = unsynced;
+            current = segments;
+            unsynced = current.size() - 1;
+        }
+
+        try {
+            // records appended meanwhile are forced too, it is harmless
+            for (int i = from; i < current.size(); i++) {
+                current.get(i).force(false);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Waits for dictionary being trained, if any.
+     */
+    // for testing purpose
+    void awaitTraining() throws InterruptedException, ExecutionException {
+        trainer.submit(() -> { }).get();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        // dictionary file is written before trainer finishes, so it is not lost
+        trainer.shutdown();
+        try {
+            trainer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while dictionary is trained");
+        }
+
+        for (FileChannel segment : segments) {
+            segment.close();
+        }
+        for (FileChannel spool = spools.poll(); null != spool; spool = spools.poll()) {
+            spool.close();
+        }
+    }
+
+    /**
+     * @return location of record body
+     */
+    private synchronized Location append(
+            Map<String, String> fields, FileChannel body, long length, DictionaryCodec codec
+    ) throws IOException {
+        if (active.position() >= segmentSize) {
+            roll();
+        }
+
+        StringBuilder header = new StringBuilder(VERSION).append(CRLF);
+        fields.forEach((name, value) -> header.append(name).append(": ").append(value).append(CRLF));
+        header.append(LENGTH).append(": ").append(length).append(CRLF).append(CRLF);
+
+        long start = active.position();
+        try {
+            writeFully(ByteBuffer.wrap(header.toString().getBytes(StandardCharsets.UTF_8)));
+            long offset = active.position();
+            for (long transferred = 0; transferred < length; ) {
+                transferred += body.transferTo(transferred, length - transferred, active);
+            }
+            writeFully(ByteBuffer.wrap(RECORD_END));
+
+            return new Location(segments.size() - 1, offset, length, codec);
+        } catch (IOException e) {
+            // records after torn one could not be read
+            active.truncate(start);
+            throw e;
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            active.write(buffer);
+        }
+    }
+
+    // guarded by this
+    private void roll() throws IOException {
+        FileChannel created = FileChannel.open(
+                segmentPath(segments.size()), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE
+        );
+        segments = ImmutableList.<FileChannel>builder().addAll(segments).add(created).build();
+        active = created;
+    }
+
+    /**
+     * Indexes records of segment, torn record at the end of the last segment is truncated.
+     */
+    private void load(int segment, FileChannel channel, boolean last) throws IOException {
+        long size = channel.size();
+        long offset = 0;
+
+        while (offset < size) {
+            Header header = readHeader(channel, offset, size);
+            if (null == header || header.bodyOffset + header.length + RECORD_END.length > size) {
+                break;
+            }
+
+            String uri = header.fields.get(URI);
+            long key = VisitedSet.fingerprint(Page.getCanonicalForm(HttpUrl.parse(uri)));
+            if (RESPONSE.equals(header.fields.get(TYPE))) {
+                bodies.put(key, new Location(segment, header.bodyOffset, header.length, getCodec(header)));
+            } else if (METADATA.equals(header.fields.get(TYPE))) {
+                validators.put(key, new PageValidators(
+                        header.fields.get(ETAG),
+                        header.fields.get(LAST_MODIFIED),
+                        header.fields.get(DIGEST).substring(DIGEST_PREFIX.length())
+                ));
+            }
+
+            offset = header.bodyOffset + header.length + RECORD_END.length;
+        }
+
+        if (offset < size) {
+            if (!last) {
+                throw new IllegalStateException("Segment [" + segmentPath(segment) + "] is corrupted at [" + offset + "]");
+            }
+            log.warn("Incomplete record at [" + offset + "] of segment [" + segmentPath(segment) + "] is truncated");
+            channel.truncate(offset);
+        }
+    }
+
+    /**
+     * @return record header or null if it is incomplete
+     */
+    private static Header readHeader(FileChannel channel, long offset, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(MAX_HEADER_SIZE, size - offset));
+        while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) > 0) {
+            // positional read until buffer is full
+        }
+
+        String text = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+        int end = text.indexOf(CRLF + CRLF);
+        if (end < 0 || !text.startsWith(VERSION + CRLF)) {
+            return null;
+        }
+
+        Map<String, String> fields = new LinkedHashMap<>();
+        for (String line : text.substring(VERSION.length() + CRLF.length(), end).split(CRLF)) {
+            int colon = line.indexOf(": ");
+            if (colon > 0) {
+                fields.put(line.substring(0, colon), line.substring(colon + 2));
+            }
+        }
+        if (!fields.containsKey(URI) || !fields.containsKey(LENGTH)) {
+            return null;
+        }
+
+        long bodyOffset = offset + text.substring(0, end + 2 * CRLF.length()).getBytes(StandardCharsets.UTF_8).length;
+        return new Header(fields, bodyOffset, Long.parseLong(fields.get(LENGTH)));
+    }
+
+    private DictionaryCodec getCodec(Header header) {
+        if (!header.fields.containsKey(ENCODING)) {
+            return null;
+        }
+        if (!DEFLATE.equals(header.fields.get(ENCODING))) {
+            throw new IllegalStateException("Unsupported encoding [" + header.fields.get(ENCODING) + "]");
+        }
+        if (!header.fields.containsKey(DICTIONARY)) {
+            return DictionaryCodec.NO_DICTIONARY;
+        }
+
+        DictionaryCodec codec = codecs.get(Integer.parseInt(header.fields.get(DICTIONARY)));
+        if (null == codec) {
+            throw new IllegalStateException("Dictionary [" + header.fields.get(DICTIONARY) + "] is missing");
+        }
+        return codec;
+    }
+
+    private synchronized boolean isSampling() {
+        return null != samples;
+    }
+
+    /**
+     * Dictionary is trained once enough samples are collected, pages compressed before it do not use it.
+     */
+    private void sample(byte[] sample) {
+        List<byte[]> trainingSet;
+        synchronized (this) {
+            if (null == samples) {
+                return;
+            }
+
+            samples.add(sample);
+            if (samples.size() < dictionarySamples) {
+                return;
+            }
+            trainingSet = samples;
+            samples = null;
+        }
+
+        // training takes a while, pages are stored without dictionary until codec is replaced
+        trainer.execute(() -> train(trainingSet));
+    }
+
+    private void train(List<byte[]> trainingSet) {
+        try {
+            DictionaryCodec trained = DictionaryCodec.train(codecs.size(), trainingSet);
+            // dictionary is persisted before any record refers to it
+            Path tmp = dir.resolve(dictionaryPath(trained.getId()).getFileName() + ".tmp");
+            Files.write(tmp, trained.getDictionary());
+            Files.move(tmp, dictionaryPath(trained.getId()), StandardCopyOption.ATOMIC_MOVE);
+
+            codecs.put(trained.getId(), trained);
+            codec = trained;
+            log.info("Dictionary [" + trained.getId() + "] of [" + trained.getDictionary().length
+                    + "] bytes trained from [" + trainingSet.size() + "] pages");
+        } catch (IOException | RuntimeException e) {
+            log.error("Unable to train dictionary, pages are compressed without it", e);
+        }
+    }
+
+    private Path dictionaryPath(int id) {
+        return dir.resolve(String.format("dictionary-%05d.bin", id));
+    }
+
+    private Path segmentPath(int segment) {
+        return dir.resolve(String.format("pages-%05d.warc", segment));
+    }
+
+    private static long key(Page page) {
+        return VisitedSet.fingerprint(page.getCanonicalForm());
+    }
+}
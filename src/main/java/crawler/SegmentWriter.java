@@ -0,0 +1,194 @@
+package crawler;
+
+import com.google.common.primitives.UnsignedBytes;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Writes immutable segment files. Terms should be added in unsigned byte order of their UTF-8 form.
+ * <p>
+ * Every file starts with magic and version and ends with fixed size footer pointing to lookup tables:
+ * <ul>
+ * <li>.pst - skip pointers and encoded postings for every term</li>
+ * <li>.dic - term bytes, table of (term offset, term length, doc freq, max term freq, skip count, postings offset, postings length)</li>
+ * <li>.doc - path bytes, table of path offsets by document id, table of document ids sorted by path, table of document lengths</li>
+ * </ul>
+ */
+@NotThreadSafe
+class SegmentWriter implements Closeable {
+
+    static final int MAGIC = 0x43524C53;
+    static final int VERSION = 2;
+    static final int DICTIONARY_ENTRY_SIZE = 28;
+
+    static final String POSTINGS = ".pst";
+    static final String DICTIONARY = ".dic";
+    static final String DOCUMENTS = ".doc";
+
+    private static final int ENTRY_INTS = DICTIONARY_ENTRY_SIZE / Integer.BYTES;
+    private static final Comparator<byte[]> TERM_ORDER = UnsignedBytes.lexicographicalComparator();
+
+    private final Path dir;
+    private final String name;
+    private final FileOutputStream postingsFile;
+    private final FileOutputStream dictionaryFile;
+    private final DataOutputStream postings;
+    private final DataOutputStream dictionary;
+
+    private int[] entries = new int[ENTRY_INTS * 16];
+    private int termCount = 0;
+    private byte[] lastTerm = null;
+
+    SegmentWriter(Path dir, String name) throws IOException {
+        this.dir = dir;
+        this.name = name;
+
+        postingsFile = new FileOutputStream(dir.resolve(name + POSTINGS).toFile());
+        dictionaryFile = new FileOutputStream(dir.resolve(name + DICTIONARY).toFile());
+        postings = new DataOutputStream(new BufferedOutputStream(postingsFile));
+        dictionary = new DataOutputStream(new BufferedOutputStream(dictionaryFile));
+
+        writeHeader(postings);
+        writeHeader(dictionary);
+    }
+
+    static void write(Path dir, String name, SegmentBuffer buffer) throws IOException {
+        byte[][] terms = new byte[buffer.getTermCount()][];
+        for (int id = 0; id < terms.length; id++) {
+            terms[id] = toBytes(buffer.getTerm(id));
+        }
+        Integer[] order = IntStream.range(0, terms.length).boxed().toArray(Integer[]::new);
+        Arrays.sort(order, (left, right) -> compare(terms[left], terms[right]));
+
+        try (SegmentWriter writer = new SegmentWriter(dir, name)) {
+            for (int id : order) {
+                writer.addTerm(terms[id], buffer.getPostings(id));
+            }
+            writer.finish(buffer.getPaths(), buffer.getLengths());
+        }
+    }
+
+    static byte[] toBytes(String term) {
+        return term.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static int compare(byte[] left, byte[] right) {
+        return TERM_ORDER.compare(left, right);
+    }
+
+    void addTerm(byte[] term, Postings docs) throws IOException {
+        assert null == lastTerm || compare(lastTerm, term) < 0 : "terms should be added in sorted order";
+        assert docs.size() > 0 : "postings should not be empty";
+
+        if ((termCount + 1) * ENTRY_INTS > entries.length) {
+            entries = Arrays.copyOf(entries, entries.length * 2);
+        }
+
+        int i = termCount * ENTRY_INTS;
+        entries[i] = dictionary.size();
+        entries[i + 1] = term.length;
+        entries[i + 2] = docs.size();
+        entries[i + 3] = docs.getMaxFreq();
+        entries[i + 4] = docs.getSkipCount();
+        entries[i + 5] = postings.size();
+        entries[i + 6] = docs.getByteLength();
+
+        dictionary.write(term);
+        docs.writeTo(postings);
+
+        lastTerm = term;
+        termCount++;
+    }
+
+    /**
+     * Writes document table and syncs all segment files to disk.
+     */
+    void finish(List<String> paths, int[] lengths) throws IOException {
+        assert paths.size() == lengths.length : "every document should have length";
+
+        int tableOffset = dictionary.size();
+        for (int i = 0; i < termCount * ENTRY_INTS; i++) {
+            dictionary.writeInt(entries[i]);
+        }
+        dictionary.writeInt(termCount);
+        dictionary.writeInt(tableOffset);
+
+        writeDocuments(paths, lengths);
+
+        postings.flush();
+        dictionary.flush();
+        postingsFile.getChannel().force(true);
+        dictionaryFile.getChannel().force(true);
+    }
+
+    private void writeDocuments(List<String> paths, int[] lengths) throws IOException {
+        byte[][] bytes = paths.stream().map(SegmentWriter::toBytes).toArray(byte[][]::new);
+
+        try (FileOutputStream file = new FileOutputStream(dir.resolve(name + DOCUMENTS).toFile())) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+            writeHeader(out);
+
+            int[] offsets = new int[bytes.length + 1];
+            for (int i = 0; i < bytes.length; i++) {
+                offsets[i] = out.size();
+                out.write(bytes[i]);
+            }
+            offsets[bytes.length] = out.size();
+
+            int offsetsTable = out.size();
+            for (int offset : offsets) {
+                out.writeInt(offset);
+            }
+
+            int sortedTable = out.size();
+            int[] sorted = IntStream.range(0, bytes.length)
+                    .boxed()
+                    .sorted((left, right) -> compare(bytes[left], bytes[right]))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+            for (int docId : sorted) {
+                out.writeInt(docId);
+            }
+
+            int lengthsTable = out.size();
+            long totalLength = 0;
+            for (int length : lengths) {
+                out.writeInt(length);
+                totalLength += length;
+            }
+
+            out.writeInt(bytes.length);
+            out.writeInt(offsetsTable);
+            out.writeInt(sortedTable);
+            out.writeInt(lengthsTable);
+            out.writeLong(totalLength);
+            out.flush();
+            file.getChannel().force(true);
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            postings.close();
+        } finally {
+            dictionary.close();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package crawler;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * FIFO queue of pages kept in append-only segment files next to the given file. Records are read back in the order
+ * they were written. A new segment is started once the written one reaches segment size, and a segment is deleted
+ * as soon as all its records are read, so disk holds only unread records plus at most one segment,
+ * even when the queue is never drained.
+ */
+@NotThreadSafe
+class SpillQueue implements Closeable {
+
+    static class Record {
+
+        private final String url;
+        private final int depth;
+        private final int taskId;
+
+        Record(String url, int depth, int taskId) {
+            this.url = url;
+            this.depth = depth;
+            this.taskId = taskId;
+        }
+
+        String getUrl() {
+            return url;
+        }
+
+        int getDepth() {
+            return depth;
+        }
+
+        int getTaskId() {
+            return taskId;
+        }
+    }
+
+    private static class Segment {
+
+        private final Path path;
+        private int records = 0;
+
+        Segment(Path path) {
+            this.path = path;
+        }
+    }
+
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final Path file;
+    private final int segmentSize;
+    // oldest first, records are added to the last one and read from the first one
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private DataOutputStream out;
+    // opened on first read of the first segment
+    private DataInputStream in;
+    // records read from the first segment
+    private int read = 0;
+    private int nextSegment = 0;
+    private int size = 0;
+
+    SpillQueue(Path file) {
+        this(file, SEGMENT_SIZE);
+    }
+
+    /**
+     * @param segmentSize bytes written to segment before the next one is started
+     */
+    SpillQueue(Path file, int segmentSize) {
+        assert segmentSize > 0 : "segment size should be positive";
+
+        this.file = file;
+        this.segmentSize = segmentSize;
+        try {
+            // pages of previous runs belong to tasks which do not exist anymore
+            deleteSegments();
+            roll();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void add(Record record) {
+        try {
+            out.writeUTF(record.url);
+            out.writeInt(record.depth);
+            out.writeInt(record.taskId);
+            segments.getLast().records++;
+            size++;
+
+            if (out.size() >= segmentSize) {
+                out.close();
+                roll();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    Record poll() {
+        if (0 == size) {
+            return null;
+        }
+
+        try {
+            Segment first = segments.getFirst();
+            if (first == segments.getLast()) {
+                // records written so far should be visible for reading
+                out.flush();
+            }
+            if (null == in) {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(first.path.toFile())));
+            }
+
+            Record record = new Record(in.readUTF(), in.readInt(), in.readInt());
+            size--;
+            if (++read == first.records) {
+                in.close();
+                in = null;
+                read = 0;
+                if (first == segments.getLast()) {
+                    out.close();
+                    roll();
+                }
+                segments.removeFirst();
+                Files.delete(first.path);
+            }
+            return record;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    // for testing purpose
+    int getSegmentCount() {
+        return segments.size();
+    }
+
+    private void roll() throws IOException {
+        Segment segment = new Segment(file.resolveSibling(file.getFileName() + "." + nextSegment++));
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segment.path.toFile())));
+        segments.addLast(segment);
+    }
+
+    private void deleteSegments() throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, file.getFileName() + ".*")) {
+            for (Path segment : files) {
+                String suffix = segment.getFileName().toString().substring(file.getFileName().toString().length() + 1);
+                if (suffix.matches("\\d+")) {
+                    Files.delete(segment);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (null != in) {
+            in.close();
+        }
+        out.close();
+        for (Segment segment : segments) {
+            Files.deleteIfExists(segment.path);
+        }
+        // single spill file of former versions
+        Files.deleteIfExists(file);
+    }
+}
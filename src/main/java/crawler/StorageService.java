@@ -1,48 +1,333 @@
 package crawler;
 
+import com.google.common.io.ByteStreams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Downloaded pages are stored either in segment files, optionally compressed ({@code segments} mode),
+ * or each in its own file ({@code files} mode).
+ * <p>
+ * Writes are queued and done by a single writer thread, so parse threads do not wait for disk.
+ * Writer takes all writes queued so far, at most {@link #batchSize}, and forces them to disk at once:
+ * writes queued while the previous group is forced make the next group. Returned futures complete
+ * on writer thread when writes are durable. When the queue is full, writes block, so crawling slows down
+ * to the disk speed.
+ */
 @Service
 public class StorageService {
 
-    private final Path downloadDir;
+    /**
+     * Page body written while it is streamed. Body is queued for writing on commit and discarded on close otherwise.
+     */
+    @NotThreadSafe
+    class PendingPage implements Closeable {
+
+        private final PageStore.PendingFile file;
+        private boolean committed = false;
+
+        PendingPage(PageStore.PendingFile file) {
+            this.file = file;
+        }
+
+        WritableByteChannel getChannel() {
+            return file.getChannel();
+        }
+
+        /**
+         * @return future completed when body is durable, writer closes the file then
+         */
+        CompletableFuture<Void> commit() {
+            assert !committed : "page is already committed";
+
+            CompletableFuture<Void> written = submit(() -> {
+                try (PageStore.PendingFile committing = file) {
+                    committing.commit();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            committed = true;
+            return written;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                file.close();
+            }
+        }
+    }
+
+    @Immutable
+    private static class Write {
+
+        private final Runnable action;
+        private final CompletableFuture<Void> written = new CompletableFuture<>();
+
+        Write(Runnable action) {
+            this.action = action;
+        }
+    }
+
+    // writer checks whether storage is closed at least that often
+    private static final long POLL_MILLIS = 100;
+
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private final PageStore store;
+    private final DuplicateDetector duplicates;
+    private final BlockingQueue<Write> queue;
+    private final int batchSize;
+    private final Thread writer;
+
+    private volatile boolean running = true;
 
     @Autowired
-    StorageService(@Value("${app.download.dir}") String dir) {
-        this(Paths.get(dir));
+    StorageService(
+            @Autowired DuplicateDetector duplicates,
+            @Value("${app.download.dir}") String dir,
+            @Value("${app.storage.mode}") String mode,
+            @Value("${app.storage.segment.size}") long segmentSize,
+            @Value("${app.storage.compress}") boolean compress,
+            @Value("${app.storage.dictionary.samples}") int dictionarySamples,
+            @Value("${app.storage.write.queue.size}") int queueSize,
+            @Value("${app.storage.write.batch}") int batchSize
+    ) throws IOException {
+        this(createStore(Paths.get(dir), mode, segmentSize, compress, dictionarySamples), queueSize, batchSize, duplicates);
     }
 
     StorageService(Path dir) {
-        assert Files.isDirectory(dir) : "path should be directory";
-        assert Files.isWritable(dir) : "path should be writable";
+        this(new FilePageStore(dir));
+    }
+
+    // for testing purpose
+    StorageService(PageStore store) {
+        this(store, 16, 16);
+    }
+
+    StorageService(PageStore store, int queueSize, int batchSize) {
+        this(store, queueSize, batchSize, new DuplicateDetector());
+    }
+
+    StorageService(PageStore store, int queueSize, int batchSize, DuplicateDetector duplicates) {
+        assert queueSize > 0 : "queue size should be positive";
+        assert batchSize > 0 : "batch size should be positive";
+
+        this.store = store;
+        this.duplicates = duplicates;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchSize = batchSize;
+
+        writer = new Thread(this::write, "storage-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
 
-        downloadDir = dir;
+    private static PageStore createStore(
+            Path dir, String mode, long segmentSize, boolean compress, int dictionarySamples
+    ) throws IOException {
+        Files.createDirectories(dir);
+
+        switch (mode) {
+            case "segments":
+                return new SegmentPageStore(dir, segmentSize, compress, dictionarySamples);
+            case "files":
+                return new FilePageStore(dir);
+            default:
+                throw new IllegalArgumentException("Storage mode should be one of [segments, files], but [" + mode + "] given");
+        }
     }
 
+    /**
+     * Waits until body is durable.
+     */
     void store(Page page, byte[] body) {
         assert page != null : "attempt is mandatory param";
         assert body.length > 0 : "file content should not be empty";
 
-        try {
-            // .toString() call is workaround for providermismatch exception. Probably there is better solution
-            Path filePath = downloadDir.resolve(page.getRelativePath().toString());
-            Files.createDirectories(filePath.getParent());
-
-            // this is not atomic but we believe this happens only after application reload
-            if (!Files.exists(filePath)) {
-                Files.createFile(filePath);
+        CompletableFuture<Void> written;
+        try (PendingPage file = create(page)) {
+            ByteBuffer buffer = ByteBuffer.wrap(body);
+            while (buffer.hasRemaining()) {
+                file.getChannel().write(buffer);
             }
+            written = file.commit();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        written.join();
+    }
 
-            Files.write(filePath, body);
+    /**
+     * Same as {@link #store(Page, byte[])}, but content is written by caller through pending page channel.
+     */
+    PendingPage create(Page page) {
+        assert page != null : "attempt is mandatory param";
+
+        return new PendingPage(store.create(page));
+    }
+
+    /**
+     * Validators are stored after page is processed, so they mark stored content as indexed.
+     * They are written after body committed before them.
+     *
+     * @return future completed when validators are durable
+     */
+    CompletableFuture<Void> storeValidators(Page page, PageValidators validators) {
+        assert page != null : "attempt is mandatory param";
+
+        return submit(() -> store.storeValidators(page, validators));
+    }
+
+    /**
+     * @return validators of processed page or null if page is not stored or was not processed
+     */
+    PageValidators loadValidators(Page page) {
+        assert page != null : "attempt is mandatory param";
+
+        return store.loadValidators(page);
+    }
+
+    /**
+     * @return previously stored page content or null if page is not stored
+     */
+    byte[] load(Page page) {
+        try (InputStream in = open(page)) {
+            return null == in ? null : ByteStreams.toByteArray(in);
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            throw new UncheckedIOException(e);
         }
     }
+
+    /**
+     * @return stream of previously stored page content or null if page is not stored,
+     * content of the original page is returned for an alias
+     */
+    InputStream open(Page page) {
+        assert page != null : "attempt is mandatory param";
+
+        return store.open(resolve(page));
+    }
+
+    /**
+     * Same as {@link #open(Page)}, but aliases are not followed, so only body downloaded for the page itself is returned.
+     */
+    InputStream openDownloaded(Page page) {
+        assert page != null : "attempt is mandatory param";
+
+        return store.open(page);
+    }
+
+    /**
+     * @return region of file to send stored page body from or null if page is not stored or its body is compressed,
+     * compressed body is read by {@link #open(Page)}; body of the original page is located for an alias
+     */
+    PageStore.StoredBody locate(Page page) {
+        assert page != null : "attempt is mandatory param";
+
+        return store.locate(resolve(page));
+    }
+
+    // alias is never stored, its content is stored under the original page
+    private Page resolve(Page page) {
+        String original = duplicates.getOriginal(page.getUrl().toString());
+        return null == original ? page : Page.restore(page.getTask(), original, page.getDepth());
+    }
+
+    int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Waits for free space in the queue if writing falls behind.
+     */
+    private CompletableFuture<Void> submit(Runnable action) {
+        if (!running) {
+            throw new IllegalStateException("Storage is closed");
+        }
+
+        Write write = new Write(action);
+        try {
+            queue.put(write);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for storage queue", e);
+        }
+        return write.written;
+    }
+
+    private void write() {
+        List<Write> batch = new ArrayList<>(batchSize);
+        List<Write> done = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Write first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (null == first) {
+                    continue;
+                }
+
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                for (Write write : batch) {
+                    try {
+                        write.action.run();
+                        done.add(write);
+                    } catch (RuntimeException e) {
+                        write.written.completeExceptionally(e);
+                    }
+                }
+
+                if (done.isEmpty()) {
+                    continue;
+                }
+                try {
+                    store.sync();
+                } catch (RuntimeException e) {
+                    log.error("unable to sync group of [" + done.size() + "] writes", e);
+                    done.forEach(write -> write.written.completeExceptionally(e));
+                    continue;
+                }
+                done.forEach(write -> write.written.complete(null));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+                done.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes already queued pages before storage is closed.
+     */
+    @PreDestroy
+    void close() throws IOException, InterruptedException {
+        running = false;
+        writer.join();
+        store.close();
+    }
 }
@@ -0,0 +1,127 @@
+package crawler;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Stream of page body which is written to storage and hashed while it is read by parser.
+ * Every chunk is read from source once into pooled buffer, so body is never collected in one array.
+ */
+@NotThreadSafe
+class TeeInputStream extends InputStream {
+
+    private final InputStream source;
+    @Nullable
+    private final WritableByteChannel sink;
+    private final BufferPool pool;
+    private final Hasher hasher = Hashing.murmur3_128().newHasher();
+
+    private ByteBuffer buffer;
+    private long length = 0;
+    private boolean eof = false;
+    private String hash;
+
+    /**
+     * @param sink receives every byte read from source, nothing is written if it is null
+     */
+    TeeInputStream(InputStream source, @Nullable WritableByteChannel sink, BufferPool pool) {
+        this.source = source;
+        this.sink = sink;
+        this.pool = pool;
+        this.buffer = pool.acquire();
+        // buffer is empty until first read
+        buffer.limit(0);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+
+        int count = Math.min(len, buffer.remaining());
+        buffer.get(b, off, count);
+        return count;
+    }
+
+    /**
+     * Reads the rest of source, so whole body is written and hashed even if reader stops earlier.
+     */
+    void drain() throws IOException {
+        while (fill()) {
+            buffer.position(buffer.limit());
+        }
+    }
+
+    /**
+     * @return the same hash as {@link PageValidators#hash(byte[])} of whole body
+     */
+    String getHash() {
+        assert eof : "hash is known only when whole body is read";
+
+        if (null == hash) {
+            hash = hasher.hash().toString();
+        }
+        return hash;
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (null != buffer) {
+            pool.release(buffer);
+            buffer = null;
+        }
+        source.close();
+    }
+
+    private boolean fill() throws IOException {
+        if (buffer.hasRemaining()) {
+            return true;
+        }
+        if (eof) {
+            return false;
+        }
+
+        buffer.clear();
+        int count = source.read(buffer.array(), buffer.arrayOffset(), buffer.capacity());
+        if (count < 0) {
+            eof = true;
+            buffer.limit(0);
+            return false;
+        }
+        buffer.limit(count);
+        length += count;
+        hasher.putBytes(buffer.array(), buffer.arrayOffset(), count);
+
+        if (null != sink) {
+            ByteBuffer chunk = buffer.duplicate();
+            while (chunk.hasRemaining()) {
+                sink.write(chunk);
+            }
+        }
+
+        return true;
+    }
+}
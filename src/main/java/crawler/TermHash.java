@@ -0,0 +1,143 @@
+package crawler;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.Arrays;
+
+/**
+ * Open addressing hash of char sequences assigning dense ids in insertion order.
+ * Chars of all terms are kept in a single pool, so lookups and inserts do not allocate objects.
+ */
+@NotThreadSafe
+class TermHash {
+
+    private static final int EMPTY = -1;
+
+    private char[] pool = new char[256];
+    private int poolLength = 0;
+
+    private int[] offsets = new int[16];
+    private int[] lengths = new int[16];
+    private int[] hashes = new int[16];
+    private int size = 0;
+
+    // slot -> term id
+    private int[] table = newTable(32);
+
+    /**
+     * @return id of existing or just added term
+     */
+    int add(char[] chars, int offset, int length) {
+        int hash = hash(chars, offset, length);
+        int slot = slot(chars, offset, length, hash);
+        if (table[slot] != EMPTY) {
+            return table[slot];
+        }
+
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, size * 2);
+            lengths = Arrays.copyOf(lengths, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        if (poolLength + length > pool.length) {
+            pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolLength + length));
+        }
+
+        System.arraycopy(chars, offset, pool, poolLength, length);
+        offsets[size] = poolLength;
+        lengths[size] = length;
+        hashes[size] = hash;
+        poolLength += length;
+        table[slot] = size;
+
+        if (++size * 2 > table.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    /**
+     * @return term id or -1 if term is absent
+     */
+    int find(CharSequence term) {
+        char[] chars = term.toString().toCharArray();
+        int slot = slot(chars, 0, chars.length, hash(chars, 0, chars.length));
+        return table[slot];
+    }
+
+    int size() {
+        return size;
+    }
+
+    char[] getPool() {
+        return pool;
+    }
+
+    int getOffset(int id) {
+        return offsets[id];
+    }
+
+    int getLength(int id) {
+        return lengths[id];
+    }
+
+    String toString(int id) {
+        return new String(pool, offsets[id], lengths[id]);
+    }
+
+    /**
+     * Forgets all terms but keeps allocated memory.
+     */
+    void clear() {
+        Arrays.fill(table, EMPTY);
+        size = 0;
+        poolLength = 0;
+    }
+
+    private int slot(char[] chars, int offset, int length, int hash) {
+        int mask = table.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int id = table[slot];
+            if (id == EMPTY || (hashes[id] == hash && equals(id, chars, offset, length))) {
+                return slot;
+            }
+        }
+    }
+
+    private boolean equals(int id, char[] chars, int offset, int length) {
+        if (lengths[id] != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (pool[offsets[id] + i] != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        table = newTable(table.length * 2);
+        int mask = table.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (table[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id;
+        }
+    }
+
+    private static int[] newTable(int capacity) {
+        int[] table = new int[capacity];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+
+    private static int hash(char[] chars, int offset, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + chars[offset + i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,65 @@
+package crawler;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.regex.Pattern;
+
+/**
+ * Term with wildcards: '*' matches any number of chars and '?' matches exactly one char.
+ * Terms are enumerated by the literal prefix before the first wildcard, so dictionary is scanned only partially.
+ */
+@Immutable
+class TermPattern {
+
+    private final String prefix;
+    private final Pattern pattern;
+
+    private TermPattern(String prefix, Pattern pattern) {
+        this.prefix = prefix;
+        this.pattern = pattern;
+    }
+
+    static boolean isPattern(String str) {
+        return str.indexOf('*') >= 0 || str.indexOf('?') >= 0;
+    }
+
+    static TermPattern parse(String str) {
+        StringBuilder regex = new StringBuilder(str.length() + 8);
+        int prefixLength = -1;
+
+        for (int i = 0; i < str.length(); i++) {
+            char c = Character.toLowerCase(str.charAt(i));
+            if (c == '*' || c == '?') {
+                if (prefixLength < 0) {
+                    prefixLength = regex.length();
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            } else if (Tokenizer.isTermChar(c)) {
+                regex.append(c);
+            } else {
+                throw new IllegalArgumentException(
+                        "Pattern should contain only letters, dash and wildcards, but [" + str + "] given"
+                );
+            }
+        }
+
+        if (prefixLength < 0) {
+            prefixLength = regex.length();
+        }
+
+        // letters and dash have no special meaning in regular expressions
+        return new TermPattern(regex.substring(0, prefixLength), Pattern.compile(regex.toString()));
+    }
+
+    String getPrefix() {
+        return prefix;
+    }
+
+    boolean matches(String term) {
+        return pattern.matcher(term).matches();
+    }
+
+    @Override
+    public String toString() {
+        return pattern.pattern();
+    }
+}
@@ -0,0 +1,96 @@
+package crawler;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.Arrays;
+
+/**
+ * Splits text into terms without allocating strings: every token is lowercased and stripped of
+ * non-letter chars in place and passed to sink through reused buffer. Tokens without letters are skipped.
+ */
+@NotThreadSafe
+class Tokenizer {
+
+    interface Sink {
+
+        /**
+         * @param chars buffer with normalized term, valid only during the call
+         */
+        void token(char[] chars, int length);
+    }
+
+    private char[] token = new char[64];
+
+    void tokenize(CharSequence text, Sink sink) {
+        int length = 0;
+        // hyphens alone do not make a term
+        boolean letters = false;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char c = text.charAt(i);
+
+            if (isDelimiter(c)) {
+                if (letters) {
+                    sink.token(token, length);
+                }
+                length = 0;
+                letters = false;
+            } else {
+                c = Character.toLowerCase(c);
+                if (isTermChar(c)) {
+                    if (length == token.length) {
+                        token = Arrays.copyOf(token, length * 2);
+                    }
+                    token[length++] = c;
+                    letters |= c != '-';
+                }
+            }
+        }
+
+        if (letters) {
+            sink.token(token, length);
+        }
+    }
+
+    /**
+     * Applies the same normalization as for indexed text to a single word.
+     *
+     * @return normalized term or empty string if word contains no letters
+     */
+    static String normalize(String word) {
+        StringBuilder term = new StringBuilder(word.length());
+        boolean letters = false;
+        for (int i = 0; i < word.length(); i++) {
+            char c = Character.toLowerCase(word.charAt(i));
+            if (isTermChar(c)) {
+                term.append(c);
+                letters |= c != '-';
+            }
+        }
+        return letters ? term.toString() : "";
+    }
+
+    static boolean isTermChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'а' && c <= 'я') || c == '-';
+    }
+
+    private static boolean isDelimiter(char c) {
+        switch (c) {
+            case ' ':
+            case '\t':
+            case '\n':
+            case '\r':
+            case '\f':
+            case ',':
+            case '.':
+            case ':':
+            case ';':
+            case '?':
+            case '!':
+            case '[':
+            case ']':
+            case '\'':
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package crawler;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+/**
+ * Set of visited urls keeping only 64-bit fingerprints in open addressing tables of primitive longs,
+ * so every url costs 8-16 bytes. Fingerprints are split by their top bits into stripes with own table:
+ * lookups, adds and removes take no lock, an empty slot is claimed by compare-and-set of the fingerprint.
+ * Only growth locks the stripe: empty slots of the old table are closed, so adds racing with it retry on the new table,
+ * and a rebuilt copy is published while lookups keep reading the old one.
+ * Fingerprint collision makes a new url look visited, with 64 bits it is negligible for crawl sizes.
+ */
+@ThreadSafe
+class VisitedSet {
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+    private static final long EMPTY = 0;
+    // removed fingerprint; slot is not reused until the table is rebuilt, so probe sequences stay unbroken
+    private static final long REMOVED = -1;
+    // empty slot closed by rebuild, it ends probe sequence like empty one, but cannot be claimed
+    private static final long MOVED = -2;
+    private static final int STRIPE_BITS = 6;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+    private static final int MIN_CAPACITY = 8;
+    // results of insert other than slot index
+    private static final int PRESENT = -1;
+    private static final int RETRY = -2;
+
+    private static class Stripe {
+
+        // replaced only by a rebuilt copy under lock of stripe, published tables are read without lock
+        private volatile AtomicLongArray table;
+        // set under lock of stripe while the table is rebuilt
+        private volatile boolean rebuilding;
+        // occupied and removed slots, counted after they are claimed, so it may lag behind the table
+        private final AtomicInteger used = new AtomicInteger();
+
+        Stripe(int capacity) {
+            table = new AtomicLongArray(capacity);
+        }
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final LongAdder size = new LongAdder();
+
+    VisitedSet(int expectedSize) {
+        assert expectedSize >= 0 : "expected size should not be negative";
+
+        int capacity = capacityFor(expectedSize / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(capacity);
+        }
+    }
+
+    /**
+     * @return true if url was absent and is added by this call
+     */
+    boolean add(String url) {
+        return addFingerprint(fingerprint(url));
+    }
+
+    boolean addFingerprint(long fingerprint) {
+        Stripe stripe = stripeOf(fingerprint);
+        while (true) {
+            AtomicLongArray table = stripe.table;
+            int slot = insert(table, fingerprint);
+            if (slot == PRESENT) {
+                return false;
+            }
+            if (slot == RETRY) {
+                // table is being rebuilt or full
+                grow(stripe, table);
+                continue;
+            }
+
+            size.increment();
+            if (stripe.used.incrementAndGet() * 2 > table.length()) {
+                grow(stripe, table);
+            }
+            return true;
+        }
+    }
+
+    boolean contains(String url) {
+        long fingerprint = fingerprint(url);
+        return find(stripeOf(fingerprint).table, fingerprint) >= 0;
+    }
+
+    /**
+     * Allows url to be visited again.
+     */
+    boolean remove(String url) {
+        return removeFingerprint(fingerprint(url));
+    }
+
+    boolean removeFingerprint(long fingerprint) {
+        Stripe stripe = stripeOf(fingerprint);
+        AtomicLongArray table = stripe.table;
+        int slot = find(table, fingerprint);
+        if (slot < 0 || !table.compareAndSet(slot, fingerprint, REMOVED)) {
+            return false;
+        }
+
+        if (stripe.rebuilding || stripe.table != table) {
+            // rebuild may have copied the fingerprint before it was removed, the copy is removed after rebuild
+            synchronized (stripe) {
+                AtomicLongArray rebuilt = stripe.table;
+                int copy = find(rebuilt, fingerprint);
+                if (copy >= 0) {
+                    rebuilt.compareAndSet(copy, fingerprint, REMOVED);
+                }
+            }
+        }
+        size.decrement();
+        return true;
+    }
+
+    int size() {
+        return size.intValue();
+    }
+
+    /**
+     * Visits fingerprints present in the set, concurrent changes may be missed.
+     */
+    void forEach(LongConsumer action) {
+        for (Stripe stripe : stripes) {
+            AtomicLongArray table = stripe.table;
+            for (int i = 0; i < table.length(); i++) {
+                long value = table.get(i);
+                if (isLive(value)) {
+                    action.accept(value);
+                }
+            }
+        }
+    }
+
+    private Stripe stripeOf(long fingerprint) {
+        // slot is taken from the low bits, so stripe and slot do not depend on each other
+        return stripes[(int) (fingerprint >>> (Long.SIZE - STRIPE_BITS))];
+    }
+
+    /**
+     * @return slot with fingerprint or -1 if it is absent
+     */
+    private static int find(AtomicLongArray table, long fingerprint) {
+        int mask = table.length() - 1;
+        int slot = slot(fingerprint, mask);
+        for (int probes = 0; probes < table.length(); probes++, slot = (slot + 1) & mask) {
+            long value = table.get(slot);
+            if (value == fingerprint) {
+                return slot;
+            }
+            if (value == EMPTY || value == MOVED) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return slot claimed for fingerprint, {@link #PRESENT} if fingerprint is already there
+     * or {@link #RETRY} if table is being rebuilt or full
+     */
+    private static int insert(AtomicLongArray table, long fingerprint) {
+        int mask = table.length() - 1;
+        int slot = slot(fingerprint, mask);
+        for (int probes = 0; probes < table.length(); ) {
+            long value = table.get(slot);
+            if (value == fingerprint) {
+                return PRESENT;
+            }
+            if (value == MOVED) {
+                return RETRY;
+            }
+            if (value == EMPTY) {
+                if (table.compareAndSet(slot, EMPTY, fingerprint)) {
+                    return slot;
+                }
+                // slot is taken by concurrent add or closed by rebuild, it is checked again
+                continue;
+            }
+            probes++;
+            slot = (slot + 1) & mask;
+        }
+        return RETRY;
+    }
+
+    /**
+     * Rebuilds table of stripe unless it is already replaced; waits for rebuild by another thread otherwise.
+     */
+    private static void grow(Stripe stripe, AtomicLongArray table) {
+        synchronized (stripe) {
+            if (stripe.table == table) {
+                rebuild(stripe);
+            }
+        }
+    }
+
+    private static void rebuild(Stripe stripe) {
+        assert Thread.holdsLock(stripe) : "stripe should be locked";
+
+        stripe.rebuilding = true;
+        AtomicLongArray current = stripe.table;
+        // closed slots cannot be claimed, so no fingerprint is added to the old table after it is copied
+        for (int i = 0; i < current.length(); i++) {
+            while (current.get(i) == EMPTY && !current.compareAndSet(i, EMPTY, MOVED)) {
+                // slot is claimed concurrently, the claimed value is checked again
+            }
+        }
+
+        int live = 0;
+        for (int i = 0; i < current.length(); i++) {
+            if (isLive(current.get(i))) {
+                live++;
+            }
+        }
+
+        // removed slots are dropped, so the table may stay the same size if most of them were removed
+        AtomicLongArray rebuilt = new AtomicLongArray(capacityFor(live * 2));
+        int mask = rebuilt.length() - 1;
+        for (int i = 0; i < current.length(); i++) {
+            long value = current.get(i);
+            if (isLive(value)) {
+                int slot = slot(value, mask);
+                while (rebuilt.get(slot) != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                rebuilt.set(slot, value);
+            }
+        }
+
+        stripe.used.set(live);
+        stripe.table = rebuilt;
+        stripe.rebuilding = false;
+    }
+
+    private static boolean isLive(long value) {
+        return value != EMPTY && value != REMOVED && value != MOVED;
+    }
+
+    private static int capacityFor(int size) {
+        // load factor stays below 0.5, so probe sequences are short
+        int capacity = MIN_CAPACITY;
+        while (capacity < size * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    static long fingerprint(String url) {
+        long fingerprint = HASH.hashString(url, StandardCharsets.UTF_8).asLong();
+        // reserved values are replaced, it only slightly increases collision probability
+        return fingerprint == EMPTY || fingerprint == REMOVED || fingerprint == MOVED ? 1 : fingerprint;
+    }
+
+    private static int slot(long fingerprint, int mask) {
+        return (int) fingerprint & mask;
+    }
+}
@@ -0,0 +1,85 @@
+package crawler;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+public class AdaptiveLimitTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void initialLimitIsBounded() {
+        assertThat(new AdaptiveLimit(100, 1, 10).getLimit(), equalTo(10));
+        assertThat(new AdaptiveLimit(0, 2, 10).getLimit(), equalTo(2));
+    }
+
+    @Test
+    public void growsWhenSaturated() {
+        AdaptiveLimit limit = new AdaptiveLimit(2, 1, 10);
+
+        for (int i = 0; i < 10; i++) {
+            limit.sample(10 * MS, false, true);
+        }
+
+        assertThat(limit.getLimit(), greaterThan(2));
+    }
+
+    @Test
+    public void doesNotGrowWhenNotSaturated() {
+        AdaptiveLimit limit = new AdaptiveLimit(2, 1, 10);
+
+        for (int i = 0; i < 10; i++) {
+            limit.sample(10 * MS, false, false);
+        }
+
+        assertThat(limit.getLimit(), equalTo(2));
+    }
+
+    @Test
+    public void shrinksOnOverloadOncePerCooldown() {
+        AdaptiveLimit limit = new AdaptiveLimit(8, 1, 10);
+
+        limit.sample(10 * MS, true, true);
+        limit.sample(10 * MS, true, true);
+
+        assertThat(limit.getLimit(), equalTo(6));
+    }
+
+    @Test
+    public void shrinksOnLatencyAboveBaseline() {
+        AdaptiveLimit limit = new AdaptiveLimit(8, 1, 10);
+
+        limit.sample(10 * MS, false, false);
+        limit.sample(100 * MS, false, false);
+
+        assertThat(limit.getLimit(), lessThan(8));
+    }
+
+    @Test
+    public void acquireWaitsForRelease() throws InterruptedException {
+        AdaptiveLimit limit = new AdaptiveLimit(1, 1, 1);
+        limit.acquire();
+
+        Thread waiting = new Thread(() -> {
+            try {
+                limit.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiting.start();
+        waiting.join(100);
+        assertThat(waiting.isAlive(), equalTo(true));
+
+        limit.release(10 * MS, false);
+        waiting.join(1000);
+        assertThat(waiting.isAlive(), equalTo(false));
+        assertThat(limit.getInFlight(), equalTo(1));
+    }
+}
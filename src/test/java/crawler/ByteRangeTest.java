@@ -0,0 +1,47 @@
+package crawler;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ByteRangeTest {
+
+    @Test
+    public void closedRange() {
+        ByteRange range = ByteRange.parse("bytes=10-19", 100);
+
+        assertThat(range.isSatisfiable(), equalTo(true));
+        assertThat(range.getStart(), equalTo(10L));
+        assertThat(range.getLength(), equalTo(10L));
+        assertThat(range.getContentRange(), equalTo("bytes 10-19/100"));
+    }
+
+    @Test
+    public void openRangeEndsWithBody() {
+        assertThat(ByteRange.parse("bytes=90-", 100).getContentRange(), equalTo("bytes 90-99/100"));
+        assertThat(ByteRange.parse("bytes=90-200", 100).getContentRange(), equalTo("bytes 90-99/100"));
+    }
+
+    @Test
+    public void suffixRange() {
+        assertThat(ByteRange.parse("bytes=-10", 100).getContentRange(), equalTo("bytes 90-99/100"));
+        assertThat(ByteRange.parse("bytes=-200", 100).getContentRange(), equalTo("bytes 0-99/100"));
+    }
+
+    @Test
+    public void rangeAfterBodyNotSatisfiable() {
+        assertThat(ByteRange.parse("bytes=100-", 100).isSatisfiable(), equalTo(false));
+        assertThat(ByteRange.parse("bytes=-0", 100).isSatisfiable(), equalTo(false));
+    }
+
+    @Test
+    public void wholeBodyForUnsupportedRange() {
+        assertThat(ByteRange.parse(null, 100), nullValue());
+        assertThat(ByteRange.parse("items=0-10", 100), nullValue());
+        assertThat(ByteRange.parse("bytes=0-10,20-30", 100), nullValue());
+        assertThat(ByteRange.parse("bytes=20-10", 100), nullValue());
+        assertThat(ByteRange.parse("bytes=a-b", 100), nullValue());
+    }
+}
@@ -0,0 +1,27 @@
+package crawler;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertThat;
+
+public class ClusterServiceTest {
+
+    @Test
+    public void unavailableNodeIsSkippedByFind() {
+        IndexService indexService = new IndexService();
+        indexService.index("bruce_willis.html", new ParserService().extract(
+                "<div class='mw-parser-output'>Bruce is very popular actor</div>".getBytes()
+        ));
+        // nothing listens on the port, so the node is not available
+        ClusterService cluster = new ClusterService(
+                indexService, "http://localhost:8080", Arrays.asList("http://localhost:8080", "http://127.0.0.1:1"),
+                100, 200, 1000, 500
+        );
+
+        assertThat(cluster.find("actor"), contains("bruce_willis.html"));
+        cluster.close();
+    }
+}
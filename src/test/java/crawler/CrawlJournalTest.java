@@ -0,0 +1,208 @@
+package crawler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class CrawlJournalTest {
+
+    private final Consumer<CrawlTask.CallbackParams> callback = params -> {
+    };
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("journal");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void recoverEmpty() throws IOException {
+        CrawlJournal journal = new CrawlJournal(dir, 1000);
+        VisitedSet visited = new VisitedSet(0);
+
+        assertThat(journal.recover(visited), is(empty()));
+        assertThat(visited.size(), equalTo(0));
+        journal.close();
+    }
+
+    @Test
+    public void recoverOutstandingTask() throws IOException {
+        CrawlJournal journal = new CrawlJournal(dir, 1000);
+        journal.recover(new VisitedSet(0));
+
+        CrawlTask task = new CrawlTask("https://en.wikipedia.org/wiki/Bruce_Willis", 3, callback);
+        Page root = Page.initial(task);
+        Page processed = Page.nested("/wiki/Die_Hard", root);
+        Page failed = Page.nested("/wiki/Moonlighting", root);
+        Page pending = Page.nested("/wiki/Alan_Rickman", root);
+
+        journal.taskStarted(task);
+        journal.queued(root);
+        journal.queued(processed);
+        journal.queued(failed);
+        journal.queued(pending);
+        journal.processed(root);
+        journal.processed(processed);
+        journal.failed(failed);
+        journal.close();
+
+        VisitedSet visited = new VisitedSet(0);
+        CrawlJournal reopened = new CrawlJournal(dir, 1000);
+        List<CrawlJournal.RecoveredTask> tasks = reopened.recover(visited);
+
+        assertThat(tasks.size(), equalTo(1));
+        CrawlJournal.RecoveredTask recovered = tasks.get(0);
+        assertThat(recovered.getUrl(), equalTo("https://en.wikipedia.org/wiki/Bruce_Willis"));
+        assertThat(recovered.getDepth(), equalTo(3));
+        assertThat(recovered.getProcessed(), equalTo(3));
+        assertThat(recovered.getFailed(), equalTo(1));
+        assertThat(recovered.getPending().keySet(), contains("https://en.wikipedia.org/wiki/Alan_Rickman"));
+        assertThat(recovered.getPending().get("https://en.wikipedia.org/wiki/Alan_Rickman"), equalTo(2));
+
+        assertThat(visited.contains(root.getCanonicalForm()), is(true));
+        assertThat(visited.contains(pending.getCanonicalForm()), is(true));
+        assertThat(visited.contains(failed.getCanonicalForm()), is(false));
+        reopened.close();
+    }
+
+    @Test
+    public void visitedOfCompletedTaskDropped() throws IOException {
+        CrawlJournal journal = new CrawlJournal(dir, 1000);
+        journal.recover(new VisitedSet(0));
+
+        CrawlTask task = new CrawlTask("https://en.wikipedia.org/wiki/Bruce_Willis", 1, callback);
+        Page root = Page.initial(task);
+        journal.taskStarted(task);
+        journal.queued(root);
+        journal.processed(root);
+        journal.taskCompleted(task);
+        journal.close();
+
+        VisitedSet visited = new VisitedSet(0);
+        CrawlJournal reopened = new CrawlJournal(dir, 1000);
+        assertThat(reopened.recover(visited), is(empty()));
+        assertThat(visited.size(), equalTo(0));
+        reopened.close();
+    }
+
+    @Test
+    public void outstandingTaskSurvivesCompaction() throws IOException {
+        CrawlJournal journal = new CrawlJournal(dir, 1000);
+        journal.recover(new VisitedSet(0));
+
+        CrawlTask task = new CrawlTask("https://en.wikipedia.org/wiki/Bruce_Willis", 2, callback);
+        Page root = Page.initial(task);
+        Page pending = Page.nested("/wiki/Die_Hard", root);
+        journal.taskStarted(task);
+        journal.queued(root);
+        journal.queued(pending);
+        journal.processed(root);
+        journal.close();
+
+        // first recovery compacts the journal, second one reads compacted form
+        CrawlJournal compacted = new CrawlJournal(dir, 1000);
+        assertThat(compacted.recover(new VisitedSet(0)).size(), equalTo(1));
+        compacted.close();
+
+        VisitedSet visited = new VisitedSet(0);
+        CrawlJournal reopened = new CrawlJournal(dir, 1000);
+        List<CrawlJournal.RecoveredTask> tasks = reopened.recover(visited);
+        assertThat(tasks.size(), equalTo(1));
+        assertThat(tasks.get(0).getProcessed(), equalTo(1));
+        assertThat(tasks.get(0).getPending().keySet(), contains("https://en.wikipedia.org/wiki/Die_Hard"));
+        assertThat(visited.contains(root.getCanonicalForm()), is(true));
+        assertThat(visited.contains(pending.getCanonicalForm()), is(true));
+        assertThat(visited.size(), equalTo(2));
+        reopened.close();
+    }
+
+    @Test
+    public void pendingPagesSurviveCrashAfterRecovery() throws IOException {
+        CrawlJournal journal = new CrawlJournal(dir, 1000);
+        journal.recover(new VisitedSet(0));
+
+        CrawlTask task = new CrawlTask("https://en.wikipedia.org/wiki/Bruce_Willis", 2, callback);
+        journal.taskStarted(task);
+        journal.queued(Page.initial(task));
+        journal.close();
+
+        CrawlJournal recovered = new CrawlJournal(dir, 1000);
+        CrawlJournal.RecoveredTask outstanding = recovered.recover(new VisitedSet(0)).get(0);
+        CrawlTask resumed = new CrawlTask(outstanding.getUrl(), outstanding.getDepth(), callback);
+        recovered.taskResumed(resumed, outstanding);
+        // crash: nothing is logged or checkpointed after recovery
+
+        CrawlJournal reopened = new CrawlJournal(dir, 1000);
+        List<CrawlJournal.RecoveredTask> tasks = reopened.recover(new VisitedSet(0));
+        assertThat(tasks.size(), equalTo(1));
+        assertThat(tasks.get(0).getPending().keySet(), contains("https://en.wikipedia.org/wiki/Bruce_Willis"));
+        reopened.close();
+        recovered.close();
+    }
+
+    @Test
+    public void restoredTaskKeepsCounters() throws IOException {
+        CrawlJournal journal = new CrawlJournal(dir, 1000);
+        journal.recover(new VisitedSet(0));
+
+        CrawlTask task = new CrawlTask("https://en.wikipedia.org/wiki/Bruce_Willis", 3, callback);
+        task.restore(5, 2);
+        Page pending = Page.restore(task, "https://en.wikipedia.org/wiki/Die_Hard", 2);
+        pending.start();
+        journal.taskStarted(task);
+        journal.queued(pending);
+        journal.close();
+
+        CrawlJournal reopened = new CrawlJournal(dir, 1000);
+        CrawlJournal.RecoveredTask recovered = reopened.recover(new VisitedSet(0)).get(0);
+
+        assertThat(recovered.getProcessed(), equalTo(5));
+        assertThat(recovered.getFailed(), equalTo(2));
+        assertThat(recovered.getPending().size(), equalTo(1));
+        reopened.close();
+    }
+
+    @Test
+    public void incompleteTailIsSkipped() throws IOException {
+        CrawlJournal journal = new CrawlJournal(dir, 1000);
+        journal.recover(new VisitedSet(0));
+
+        CrawlTask task = new CrawlTask("https://en.wikipedia.org/wiki/Bruce_Willis", 2, callback);
+        Page root = Page.initial(task);
+        journal.taskStarted(task);
+        journal.queued(root);
+        journal.close();
+
+        Path file = dir.resolve("crawl.journal");
+        byte[] content = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(content, content.length - 3));
+
+        VisitedSet visited = new VisitedSet(0);
+        CrawlJournal reopened = new CrawlJournal(dir, 1000);
+        assertThat(reopened.recover(visited), is(empty()));
+        reopened.close();
+    }
+}
@@ -75,6 +75,17 @@ public class CrawlTaskTest {
         verify(callback, only()).accept(new CrawlTask.CallbackParams("https://en.wikipedia.org/wiki/Bruce_Willis", 2, 1));
     }
 
+    @Test
+    public void completedTaskIsNotStartedAgain() {
+        CrawlTask req = new CrawlTask("https://en.wikipedia.org/wiki/Bruce_Willis", 1, defaultCallback);
+        assertThat(req.tryIncrement(), equalTo(true));
+        req.decrement();
+
+        assertThat(req.tryIncrement(), equalTo(false));
+        assertThat(req.getInProcessCount(), equalTo(0));
+        assertThat(req.getTotalCount(), equalTo(1));
+    }
+
     @Test
     public void toStringValue() {
         CrawlTask req = new CrawlTask("https://en.wikipedia.org/wiki/Bruce_Willis", 1, defaultCallback);
@@ -3,17 +3,29 @@ package crawler;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
-import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.only;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 
@@ -31,42 +43,267 @@ public class CrawlerServiceTest {
     private DownloadService downloadService = mock(DownloadService.class);
     private StorageService storageService = mock(StorageService.class);
     private ParserService parserService = mock(ParserService.class);
-    private IndexService indexService = mock(IndexService.class);
+    private IndexPipeline indexPipeline = mock(IndexPipeline.class);
+    private CrawlJournal journal = mock(CrawlJournal.class);
     private CrawlService crawler;
     @SuppressWarnings("unchecked")
     private Consumer<CrawlTask.CallbackParams> callback = mock(Consumer.class);
 
     @Before
     public void setUp() {
+        doReturn(new PageContent()).when(parserService).extract(any(InputStream.class));
+        doReturn(CompletableFuture.completedFuture(null)).when(storageService).storeValidators(any(), any());
         crawler = new CrawlService(
-                executor, executor,
-                downloadService, parserService, storageService, indexService,
-                callback, 1
+                Executors.newSingleThreadExecutor(), 1, 10, executor, new Frontier(1000),
+                downloadService, parserService, storageService, indexPipeline, journal, new RetryPolicy(1, 0, 0),
+                new ClusterService(null, "http://localhost:8080", Collections.emptyList(), 100, 200),
+                new DuplicateDetector(), callback, 2
         );
     }
 
+    @Test
+    public void pageOfOtherNodeIsForwarded() throws ExecutionException, InterruptedException {
+        ClusterService cluster = mock(ClusterService.class);
+        doReturn(false).when(cluster).isLocal(any(Page.class));
+        crawler = new CrawlService(
+                Executors.newSingleThreadExecutor(), 1, 10, executor, new Frontier(1000),
+                downloadService, parserService, storageService, indexPipeline, journal, new RetryPolicy(1, 0, 0),
+                cluster, new DuplicateDetector(), callback, 1
+        );
+
+        crawler.download(new CrawlRequest("https://en.wikipedia.org/wiki/Bruce_Willis", 1)).get();
+
+        verify(cluster).forward(any());
+        verify(downloadService, never()).getAsync(any(), any());
+        verify(journal, never()).queued(any());
+    }
+
+    @Test
+    public void forwardedPageIsDownloaded() throws ExecutionException, InterruptedException {
+        doReturn(CompletableFuture.completedFuture(new DownloadService.Download(body("page content"), null, null)))
+                .when(downloadService).getAsync(any(), any());
+
+        crawler.accept(Collections.singletonList(new ClusterService.ForwardedPage(
+                "https://en.wikipedia.org/wiki/Die_Hard", 2, "https://en.wikipedia.org/wiki/Bruce_Willis", 2
+        )));
+        crawler.accept(Collections.singletonList(new ClusterService.ForwardedPage(
+                "https://en.wikipedia.org/wiki/Die_Hard", 2, "https://en.wikipedia.org/wiki/Bruce_Willis", 2
+        )));
+
+        verify(callback, timeout(1000)).accept(
+                new CrawlTask.CallbackParams("https://en.wikipedia.org/wiki/Bruce_Willis", 1, 0)
+        );
+        verify(journal).queued(any());
+    }
+
+    @Test
+    public void forwardedBatchWithInvalidTaskIsRejected() {
+        try {
+            crawler.accept(Arrays.asList(
+                    new ClusterService.ForwardedPage("https://en.wikipedia.org/wiki/Die_Hard", 2, "https://en.wikipedia.org/wiki/Bruce_Willis", 2),
+                    new ClusterService.ForwardedPage("https://en.wikipedia.org/wiki/Moonlighting", 2, "https://example.com/Bruce_Willis", 2)
+            ));
+            fail("batch with task of other domain should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            crawler.accept(Collections.singletonList(
+                    new ClusterService.ForwardedPage("https://en.wikipedia.org/wiki/Die_Hard", 2, "https://en.wikipedia.org/wiki/Bruce_Willis", 3)
+            ));
+            fail("task deeper than allowed should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        verify(journal, never()).queued(any());
+        verify(journal, never()).taskStarted(any());
+    }
+
     @Test
     public void failOnFirstStep() throws ExecutionException, InterruptedException {
-        doThrow(new RuntimeException("download failure")).when(downloadService).getBodyBytes(any());
+        CompletableFuture<DownloadService.Download> failure = new CompletableFuture<>();
+        failure.completeExceptionally(new RuntimeException("download failure"));
+        doReturn(failure).when(downloadService).getAsync(any(), any());
 
         crawler.download(new CrawlRequest("https://en.wikipedia.org/wiki/Bruce_Willis", 1)).get();
 
-        verify(storageService, never()).store(any(), any(byte[].class));
+        verify(storageService, never()).create(any());
         verify(parserService, never()).parse(any(), any());
-        verify(indexService, never()).index(anyString(), any());
+        verify(indexPipeline, never()).submit(anyString(), any());
+        verify(journal).failed(any());
         verify(callback, only()).accept(
                 new CrawlTask.CallbackParams("https://en.wikipedia.org/wiki/Bruce_Willis", 1, 1)
         );
     }
 
+    @Test
+    public void retryAfterOverload() throws ExecutionException, InterruptedException {
+        CompletableFuture<DownloadService.Download> failure = new CompletableFuture<>();
+        failure.completeExceptionally(downloadService.new HttpError("https://en.wikipedia.org/wiki/Bruce_Willis", 503, -1));
+        doReturn(failure)
+                .doReturn(CompletableFuture.completedFuture(new DownloadService.Download(body("page content"), null, null)))
+                .when(downloadService).getAsync(any(), any());
+
+        crawler.download(new CrawlRequest("https://en.wikipedia.org/wiki/Bruce_Willis", 1)).get();
+
+        verify(journal, never()).failed(any());
+        verify(journal).processed(any());
+        verify(callback, only()).accept(
+                new CrawlTask.CallbackParams("https://en.wikipedia.org/wiki/Bruce_Willis", 1, 0)
+        );
+    }
+
     @Test
     public void success() throws ExecutionException, InterruptedException {
-        doReturn("page content".getBytes()).when(downloadService).getBodyBytes(any());
+        doReturn(CompletableFuture.completedFuture(new DownloadService.Download(body("page content"), "\"1\"", null)))
+                .when(downloadService).getAsync(any(), any());
 
         crawler.download(new CrawlRequest("https://en.wikipedia.org/wiki/Bruce_Willis", 1)).get();
 
+        verify(indexPipeline).submit(anyString(), any());
         verify(callback, only()).accept(
                 new CrawlTask.CallbackParams("https://en.wikipedia.org/wiki/Bruce_Willis", 1, 0)
         );
+        verify(journal).processed(any());
+        verify(storageService).storeValidators(
+                any(), eq(new PageValidators("\"1\"", null, PageValidators.hash("page content".getBytes())))
+        );
+    }
+
+    @Test
+    public void notModifiedPageIsNotProcessed() throws ExecutionException, InterruptedException {
+        PageValidators validators = new PageValidators("\"1\"", null, PageValidators.hash("page content".getBytes()));
+        doReturn(validators).when(storageService).loadValidators(any());
+        doReturn(CompletableFuture.completedFuture(new DownloadService.Download(null, "\"1\"", null)))
+                .when(downloadService).getAsync(any(), eq(validators));
+
+        crawler.download(new CrawlRequest("https://en.wikipedia.org/wiki/Bruce_Willis", 1)).get();
+
+        verify(storageService, never()).create(any());
+        verify(storageService, never()).storeValidators(any(), any());
+        verify(parserService, never()).extract(any(InputStream.class));
+        verify(indexPipeline, never()).submit(anyString(), any());
+        verify(journal).processed(any());
+    }
+
+    @Test
+    public void crawledPageIsRevalidatedOnRecrawl() throws ExecutionException, InterruptedException {
+        PageValidators validators = new PageValidators("\"1\"", null, PageValidators.hash("page content".getBytes()));
+        doReturn(CompletableFuture.completedFuture(new DownloadService.Download(body("page content"), "\"1\"", null)))
+                .when(downloadService).getAsync(any(), eq(null));
+        doReturn(CompletableFuture.completedFuture(new DownloadService.Download(null, "\"1\"", null)))
+                .when(downloadService).getAsync(any(), eq(validators));
+
+        crawler.download(new CrawlRequest("https://en.wikipedia.org/wiki/Bruce_Willis", 1)).get();
+        doReturn(validators).when(storageService).loadValidators(any());
+        crawler.download(new CrawlRequest("https://en.wikipedia.org/wiki/Bruce_Willis", 1)).get();
+        verify(downloadService, times(1)).getAsync(any(), any());
+
+        crawler.download(new CrawlRequest("https://en.wikipedia.org/wiki/Bruce_Willis", 1, true)).get();
+
+        verify(downloadService).getAsync(any(), eq(validators));
+        verify(indexPipeline, times(1)).submit(anyString(), any());
+        verify(journal, times(2)).processed(any());
+    }
+
+    @Test
+    public void unchangedContentIsNotIndexed() throws ExecutionException, InterruptedException {
+        PageValidators validators = new PageValidators(null, null, PageValidators.hash("page content".getBytes()));
+        doReturn(validators).when(storageService).loadValidators(any());
+        doReturn(CompletableFuture.completedFuture(new DownloadService.Download(body("page content"), null, null)))
+                .when(downloadService).getAsync(any(), any());
+
+        crawler.download(new CrawlRequest("https://en.wikipedia.org/wiki/Bruce_Willis", 1)).get();
+
+        verify(indexPipeline, never()).submit(anyString(), any());
+        verify(storageService, never()).storeValidators(any(), any());
+        verify(journal).processed(any());
+    }
+
+    @Test
+    public void storedPageIsNotDownloaded() throws ExecutionException, InterruptedException {
+        doReturn(body("page content")).when(storageService).openDownloaded(any());
+
+        crawler.download(new CrawlRequest("https://en.wikipedia.org/wiki/Bruce_Willis", 1)).get();
+
+        verify(downloadService, never()).getAsync(any(), any());
+        verify(storageService, never()).create(any());
+        verify(indexPipeline).submit(anyString(), any());
+        verify(callback, only()).accept(
+                new CrawlTask.CallbackParams("https://en.wikipedia.org/wiki/Bruce_Willis", 1, 0)
+        );
+    }
+
+    @Test
+    public void duplicateContentIsNotStoredAndIndexed() throws ExecutionException, InterruptedException {
+        StorageService.PendingPage file = mock(StorageService.PendingPage.class);
+        doReturn(file).when(storageService).create(any());
+        doReturn(CompletableFuture.completedFuture(null)).when(file).commit();
+        doReturn(CompletableFuture.completedFuture(new DownloadService.Download(body("page content"), null, null)))
+                .doReturn(CompletableFuture.completedFuture(new DownloadService.Download(body("page content"), null, null)))
+                .when(downloadService).getAsync(any(), any());
+
+        crawler.download(new CrawlRequest("https://en.wikipedia.org/wiki/Bruce_Willis", 1)).get();
+        crawler.download(new CrawlRequest("https://en.wikipedia.org/wiki/Walter_Bruce_Willis", 1)).get();
+
+        verify(file).commit();
+        verify(indexPipeline).submit(anyString(), any());
+        verify(storageService).storeValidators(any(), any());
+        verify(journal, times(2)).processed(any());
+    }
+
+    @Test
+    public void contentIsNotRegisteredUntilStored() throws ExecutionException, InterruptedException {
+        StorageService.PendingPage file = mock(StorageService.PendingPage.class);
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("disk is full"));
+        doReturn(file).when(storageService).create(any());
+        doReturn(failed).doReturn(CompletableFuture.completedFuture(null)).when(file).commit();
+        doReturn(CompletableFuture.completedFuture(new DownloadService.Download(body("page content"), null, null)))
+                .doReturn(CompletableFuture.completedFuture(new DownloadService.Download(body("page content"), null, null)))
+                .when(downloadService).getAsync(any(), any());
+
+        crawler.download(new CrawlRequest("https://en.wikipedia.org/wiki/Bruce_Willis", 1)).get();
+        crawler.download(new CrawlRequest("https://en.wikipedia.org/wiki/Walter_Bruce_Willis", 1)).get();
+
+        // the first copy was lost, so the second one is stored instead of becoming its alias
+        verify(file, times(2)).commit();
+    }
+
+    @Test
+    public void pageIsProcessedWhenDurable() throws ExecutionException, InterruptedException {
+        StorageService.PendingPage file = mock(StorageService.PendingPage.class);
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        doReturn(file).when(storageService).create(any());
+        doReturn(written).when(file).commit();
+        doReturn(CompletableFuture.completedFuture(new DownloadService.Download(body("page content"), null, null)))
+                .when(downloadService).getAsync(any(), any());
+
+        CompletableFuture<CrawlTask.CallbackParams> completion =
+                crawler.download(new CrawlRequest("https://en.wikipedia.org/wiki/Bruce_Willis", 1));
+
+        verify(indexPipeline, timeout(1000)).submit(anyString(), any());
+        verify(journal, never()).processed(any());
+
+        written.complete(null);
+        completion.get();
+        verify(journal).processed(any());
+    }
+
+    @Test
+    public void workerWaitingForPageHoldsNoDownloadSlot() throws InterruptedException {
+        doReturn(new CompletableFuture<>()).when(downloadService).getAsync(any(), any());
+
+        crawler.download(new CrawlRequest("https://en.wikipedia.org/wiki/Bruce_Willis", 1));
+        verify(downloadService, timeout(1000)).getAsync(any(), any());
+        // worker returns to empty frontier
+        Thread.sleep(100);
+
+        assertThat(crawler.getLimits().get("download_in_flight"), equalTo(1));
+    }
+
+    private static InputStream body(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
     }
 }
\ No newline at end of file
@@ -0,0 +1,98 @@
+package crawler;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+public class DictionaryCodecTest {
+
+    private static final String SKIN = "<!DOCTYPE html>\n<html class=\"client-nojs\" lang=\"en\" dir=\"ltr\">\n"
+            + "<head>\n<meta charset=\"UTF-8\"/>\n<link rel=\"stylesheet\" href=\"/w/load.php?lang=en&amp;modules=site.styles\"/>\n"
+            + "<script>document.documentElement.className=\"client-js\";RLCONF={\"wgCanonicalNamespace\":\"\"};</script>\n"
+            + "</head>\n<body class=\"mediawiki ltr sitedir-ltr mw-hide-empty-elt skin-vector action-view\">\n"
+            + "<div id=\"mw-navigation\"><h2>Navigation menu</h2><div id=\"mw-head\"><div id=\"p-personal\" role=\"navigation\">"
+            + "<ul><li id=\"pt-login\"><a href=\"/wiki/Special:UserLogin\" title=\"Log in\">Log in</a></li></ul></div></div>\n";
+
+    @Test
+    public void roundTripWithoutDictionary() throws IOException {
+        byte[] page = page(0);
+
+        assertThat(new String(decompress(DictionaryCodec.NO_DICTIONARY, compress(DictionaryCodec.NO_DICTIONARY, page)),
+                StandardCharsets.UTF_8), equalTo(new String(page, StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void roundTripWithDictionary() throws IOException {
+        DictionaryCodec codec = DictionaryCodec.train(0, samples());
+        byte[] page = page(100);
+
+        assertThat(new String(decompress(codec, compress(codec, page)), StandardCharsets.UTF_8),
+                equalTo(new String(page, StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void dictionaryShrinksPages() throws IOException {
+        DictionaryCodec codec = DictionaryCodec.train(0, samples());
+        byte[] page = page(100);
+
+        assertThat(compress(codec, page).length, lessThan(compress(DictionaryCodec.NO_DICTIONARY, page).length));
+    }
+
+    @Test
+    public void dictionaryFitsDeflateWindow() {
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            StringBuilder page = new StringBuilder();
+            for (int j = 0; j < 5000; j++) {
+                page.append("<div class=\"navbox-").append(j).append("\">");
+            }
+            samples.add(page.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        DictionaryCodec codec = DictionaryCodec.train(0, samples);
+
+        assertThat(codec.getDictionary().length, lessThanOrEqualTo(DictionaryCodec.MAX_DICTIONARY_SIZE));
+    }
+
+    private static List<byte[]> samples() {
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            samples.add(page(i));
+        }
+        return samples;
+    }
+
+    private static byte[] page(int seed) {
+        StringBuilder page = new StringBuilder(SKIN);
+        page.append("<div class=\"mw-parser-output\"><p>Article number ").append(seed).append(" text.</p></div>\n");
+        page.append("</body>\n</html>\n");
+        return page.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] compress(DictionaryCodec codec, byte[] page) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream compressed = codec.compress(out)) {
+            compressed.write(page);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] decompress(DictionaryCodec codec, byte[] compressed) throws IOException {
+        try (InputStream in = codec.decompress(new ByteArrayInputStream(compressed))) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+}
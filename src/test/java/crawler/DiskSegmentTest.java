@@ -0,0 +1,151 @@
+package crawler;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class DiskSegmentTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("segments");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void writeAndRead() throws IOException {
+        SegmentBuffer buffer = new SegmentBuffer();
+        add(buffer, "bruce.html", "bruce", "actor");
+        add(buffer, "history.html", "салтыков-щедрин", "actor");
+
+        SegmentWriter.write(dir, "segment-1", buffer);
+        DiskSegment segment = DiskSegment.open(dir, "segment-1");
+
+        assertThat(segment.getDocCount(), equalTo(2));
+        assertThat(segment.getTermCount(), equalTo(3));
+        assertThat(docs(segment, "actor"), contains("bruce.html", "history.html"));
+        assertThat(docs(segment, "салтыков-щедрин"), contains("history.html"));
+        assertThat(segment.postings("missing"), is(nullValue()));
+        assertThat(segment.contains("bruce.html"), is(true));
+        assertThat(segment.contains("willis.html"), is(false));
+    }
+
+    @Test
+    public void termsByPrefix() throws IOException {
+        SegmentBuffer buffer = new SegmentBuffer();
+        add(buffer, "1.html", "photon", "photo", "phone", "actor");
+        add(buffer, "2.html", "photograph", "photo", "pi");
+
+        assertThat(ImmutableList.copyOf(buffer.terms("photo")), contains("photo", "photograph", "photon"));
+
+        SegmentWriter.write(dir, "segment-1", buffer);
+        DiskSegment segment = DiskSegment.open(dir, "segment-1");
+
+        assertThat(ImmutableList.copyOf(segment.terms("photo")), contains("photo", "photograph", "photon"));
+        assertThat(ImmutableList.copyOf(segment.terms("ph")), contains("phone", "photo", "photograph", "photon"));
+        assertThat(ImmutableList.copyOf(segment.terms("")).size(), equalTo(6));
+        assertThat(ImmutableList.copyOf(segment.terms("photos")), is(empty()));
+        assertThat(ImmutableList.copyOf(segment.terms("z")), is(empty()));
+    }
+
+    @Test
+    public void skipsSurviveWrite() throws IOException {
+        SegmentBuffer buffer = new SegmentBuffer();
+        for (int i = 0; i < Postings.SKIP_INTERVAL * 5; i++) {
+            add(buffer, i + ".html", i % 2 == 0 ? "even" : "odd");
+        }
+
+        SegmentWriter.write(dir, "segment-1", buffer);
+        PostingsIterator iterator = DiskSegment.open(dir, "segment-1").postings("even");
+
+        assertThat(iterator.size(), equalTo(Postings.SKIP_INTERVAL * 5 / 2));
+        assertThat(iterator.advance(101), equalTo(102));
+        assertThat(iterator.nextDoc(), equalTo(104));
+    }
+
+    @Test
+    public void merge() throws IOException {
+        SegmentBuffer first = new SegmentBuffer();
+        add(first, "a.html", "common", "first");
+        add(first, "b.html", "common");
+        SegmentWriter.write(dir, "segment-1", first);
+
+        SegmentBuffer second = new SegmentBuffer();
+        add(second, "c.html", "second", "common");
+        SegmentWriter.write(dir, "segment-2", second);
+
+        SegmentMerger.merge(
+                dir,
+                "segment-3",
+                ImmutableList.of(DiskSegment.open(dir, "segment-1"), DiskSegment.open(dir, "segment-2"))
+        );
+        DiskSegment merged = DiskSegment.open(dir, "segment-3");
+
+        assertThat(merged.getDocCount(), equalTo(3));
+        assertThat(docs(merged, "common"), contains("a.html", "b.html", "c.html"));
+        assertThat(docs(merged, "first"), contains("a.html"));
+        assertThat(docs(merged, "second"), contains("c.html"));
+        assertThat(merged.contains("c.html"), is(true));
+    }
+
+    @Test
+    public void frequenciesAndLengths() throws IOException {
+        SegmentBuffer buffer = new SegmentBuffer();
+        add(buffer, "a.html", "word", "word", "other");
+        add(buffer, "b.html", "word");
+
+        SegmentWriter.write(dir, "segment-1", buffer);
+        DiskSegment segment = DiskSegment.open(dir, "segment-1");
+        PostingsIterator iterator = segment.postings("word");
+
+        assertThat(segment.getTotalLength(), equalTo(4L));
+        assertThat(segment.getDocLength(0), equalTo(3));
+        assertThat(segment.getDocLength(1), equalTo(1));
+        assertThat(iterator.getMaxFreq(), equalTo(2));
+        assertThat(iterator.nextDoc(), equalTo(0));
+        assertThat(iterator.freq(), equalTo(2));
+        assertThat(iterator.nextDoc(), equalTo(1));
+        assertThat(iterator.freq(), equalTo(1));
+    }
+
+    private void add(SegmentBuffer buffer, String path, String... terms) {
+        DocumentTerms document = new DocumentTerms();
+        for (String term : terms) {
+            document.token(term.toCharArray(), term.length());
+        }
+        buffer.add(path, document);
+    }
+
+    private List<String> docs(Segment segment, String term) {
+        List<String> result = new ArrayList<>();
+        PostingsIterator iterator = segment.postings(term);
+        for (int docId = iterator.nextDoc(); docId != PostingsIterator.NO_MORE_DOCS; docId = iterator.nextDoc()) {
+            result.add(segment.getPath(docId));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,36 @@
+package crawler;
+
+import org.junit.Test;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+public class DownloadServiceTest {
+
+    @Test
+    public void retryAfterSeconds() {
+        assertThat(DownloadService.parseRetryAfter("120"), equalTo(120_000L));
+    }
+
+    @Test
+    public void retryAfterDate() {
+        String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusMinutes(1));
+
+        long delay = DownloadService.parseRetryAfter(date);
+
+        assertThat(delay, greaterThan(0L));
+        assertThat(delay, lessThan(61_000L));
+    }
+
+    @Test
+    public void retryAfterAbsentOrMalformed() {
+        assertThat(DownloadService.parseRetryAfter(null), equalTo(-1L));
+        assertThat(DownloadService.parseRetryAfter("soon"), equalTo(-1L));
+    }
+}
@@ -0,0 +1,112 @@
+package crawler;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class DuplicateDetectorTest {
+
+    private static final String[] WORDS = {
+            "bruce", "willis", "is", "an", "american", "actor", "producer", "and", "singer", "his", "career",
+            "began", "on", "the", "off", "broadway", "stage", "in", "die", "hard", "film", "series", "television"
+    };
+
+    @Test
+    public void exactCopyIsDuplicate() {
+        DuplicateDetector detector = new DuplicateDetector();
+
+        assertThat(detector.register("en/bruce_willis", hash("page"), "short text"), is(nullValue()));
+        assertThat(detector.register("en/walter_bruce_willis", hash("page"), "short text"), equalTo("en/bruce_willis"));
+        assertThat(detector.register("en/die_hard", hash("other page"), "short text"), is(nullValue()));
+
+        assertThat(detector.getOriginal("en/walter_bruce_willis"), equalTo("en/bruce_willis"));
+        assertThat(detector.getOriginal("en/die_hard"), is(nullValue()));
+        assertThat(detector.getAliasCount(), equalTo(1));
+    }
+
+    @Test
+    public void nearCopyIsDuplicate() {
+        DuplicateDetector detector = new DuplicateDetector();
+        String article = text(new Random(1), 1000);
+
+        assertThat(detector.register("en/bruce_willis", hash("page"), article), is(nullValue()));
+        // the same article with a different note on top
+        assertThat(
+                detector.register("en/walter_bruce_willis", hash("redirected page"), "redirected from walter bruce willis\n" + article),
+                equalTo("en/bruce_willis")
+        );
+        assertThat(detector.register("en/die_hard", hash("other page"), text(new Random(2), 1000)), is(nullValue()));
+    }
+
+    @Test
+    public void shortTextIsComparedOnlyExactly() {
+        DuplicateDetector detector = new DuplicateDetector();
+        String stub = text(new Random(1), 20);
+
+        assertThat(detector.register("en/bruce", hash("page"), stub), is(nullValue()));
+        assertThat(detector.register("en/willis", hash("other page"), stub), is(nullValue()));
+    }
+
+    @Test
+    public void changedContentOfTheSamePageIsNotDuplicate() {
+        DuplicateDetector detector = new DuplicateDetector();
+        String article = text(new Random(1), 1000);
+
+        assertThat(detector.register("en/bruce_willis", hash("page"), article), is(nullValue()));
+        assertThat(detector.register("en/bruce_willis", hash("page"), article), is(nullValue()));
+        assertThat(detector.register("en/bruce_willis", hash("edited page"), article + "\nedited"), is(nullValue()));
+        assertThat(detector.getAliasCount(), equalTo(0));
+    }
+
+    @Test
+    public void similarTextHasCloseSimhash() {
+        String article = text(new Random(1), 1000);
+
+        long distance = Long.bitCount(DuplicateDetector.simhash(article) ^ DuplicateDetector.simhash(article + "\none more line"));
+
+        assertThat(distance, lessThanOrEqualTo((long) DuplicateDetector.MAX_DISTANCE));
+    }
+
+    @Test
+    public void fingerprintsAreLoadedOnRestart() throws IOException {
+        Path dir = Files.createTempDirectory("fingerprints");
+        try {
+            DuplicateDetector detector = new DuplicateDetector(dir);
+            detector.register("en/bruce_willis", hash("page"), "short text");
+            detector.register("en/walter_bruce_willis", hash("page"), "short text");
+            detector.close();
+
+            DuplicateDetector restarted = new DuplicateDetector(dir);
+            assertThat(restarted.getOriginal("en/walter_bruce_willis"), equalTo("en/bruce_willis"));
+            assertThat(restarted.register("en/willis", hash("page"), "short text"), equalTo("en/bruce_willis"));
+            restarted.close();
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    private static String hash(String body) {
+        return PageValidators.hash(body.getBytes());
+    }
+
+    private static String text(Random random, int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(i % 12 == 11 ? '\n' : ' ');
+        }
+        return text.toString();
+    }
+}
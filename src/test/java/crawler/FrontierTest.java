@@ -0,0 +1,204 @@
+package crawler;
+
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+public class FrontierTest {
+
+    private final Consumer<CrawlTask.CallbackParams> callback = params -> {
+    };
+
+    @Test
+    public void shallowPagesFirst() throws InterruptedException {
+        Frontier frontier = new Frontier(1000);
+        Page root = page("https://en.wikipedia.org/wiki/Bruce_Willis");
+        Page nested = Page.nested("/wiki/Die_Hard", root);
+        Page deeper = Page.nested("/wiki/Alan_Rickman", nested);
+
+        frontier.add(deeper);
+        frontier.add(nested);
+        frontier.add(root);
+
+        assertThat(frontier.size(), equalTo(3));
+        assertThat(frontier.take(), equalTo(root));
+        assertThat(frontier.take(), equalTo(nested));
+        assertThat(frontier.take(), equalTo(deeper));
+        assertThat(frontier.size(), equalTo(0));
+    }
+
+    @Test
+    public void sameDepthInDiscoveryOrder() throws InterruptedException {
+        Frontier frontier = new Frontier(1000);
+        Page root = page("https://en.wikipedia.org/wiki/Bruce_Willis");
+        Page first = Page.nested("/wiki/Die_Hard", root);
+        Page second = Page.nested("/wiki/Alan_Rickman", root);
+
+        frontier.add(first);
+        frontier.add(second);
+
+        assertThat(frontier.take(), equalTo(first));
+        assertThat(frontier.take(), equalTo(second));
+    }
+
+    @Test
+    public void failedHostDelayed() throws InterruptedException {
+        Frontier frontier = new Frontier(1000);
+        Page failed = page("https://en.wikipedia.org/wiki/Bruce_Willis");
+        Page other = page("https://de.wikipedia.org/wiki/Bruce_Willis");
+
+        frontier.add(failed);
+        frontier.take();
+        frontier.failed(failed, TimeUnit.MILLISECONDS.toNanos(200));
+        frontier.retry(failed.retry());
+        frontier.add(other);
+
+        long start = System.nanoTime();
+        assertThat(frontier.take(), equalTo(other));
+        Page retried = frontier.take();
+
+        assertThat(retried, equalTo(failed));
+        assertThat(retried.getAttempt(), equalTo(1));
+        assertThat(System.nanoTime() - start, greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(200)));
+    }
+
+    @Test
+    public void openBreakerSlowsHost() throws InterruptedException {
+        Frontier frontier = new Frontier(1000);
+        Page root = page("https://en.wikipedia.org/wiki/Bruce_Willis");
+        Page first = Page.nested("/wiki/Die_Hard", root);
+        Page second = Page.nested("/wiki/Alan_Rickman", root);
+
+        for (int i = 0; i < 3; i++) {
+            frontier.failed(root, 0);
+        }
+        frontier.add(first);
+        frontier.add(second);
+
+        long start = System.nanoTime();
+        frontier.take();
+        frontier.take();
+
+        assertThat(System.nanoTime() - start, greaterThanOrEqualTo(TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    @Test
+    public void successClosesBreaker() throws InterruptedException {
+        Frontier frontier = new Frontier(1000);
+        Page root = page("https://en.wikipedia.org/wiki/Bruce_Willis");
+        Page first = Page.nested("/wiki/Die_Hard", root);
+        Page second = Page.nested("/wiki/Alan_Rickman", root);
+
+        for (int i = 0; i < 3; i++) {
+            frontier.failed(root, 0);
+        }
+        frontier.succeeded(root);
+        frontier.add(first);
+        frontier.add(second);
+        frontier.take();
+
+        long start = System.nanoTime();
+        frontier.take();
+
+        assertThat(System.nanoTime() - start, lessThan(TimeUnit.MILLISECONDS.toNanos(500)));
+    }
+
+    @Test
+    public void hostRequestedNotFasterThanRate() throws InterruptedException {
+        Frontier frontier = new Frontier(10);
+        Page root = page("https://en.wikipedia.org/wiki/Bruce_Willis");
+        frontier.add(root);
+        frontier.add(Page.nested("/wiki/Die_Hard", root));
+        frontier.add(Page.nested("/wiki/Alan_Rickman", root));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            frontier.take();
+        }
+
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), greaterThanOrEqualTo(190L));
+    }
+
+    @Test
+    public void otherHostsAreNotDelayed() throws InterruptedException {
+        Frontier frontier = new Frontier(1);
+        Page english = page("https://en.wikipedia.org/wiki/Bruce_Willis");
+        Page german = page("https://de.wikipedia.org/wiki/Bruce_Willis");
+        frontier.add(english);
+        frontier.add(Page.nested("/wiki/Die_Hard", english));
+        frontier.add(german);
+
+        long start = System.nanoTime();
+        assertThat(frontier.take(), equalTo(english));
+        assertThat(frontier.take(), equalTo(german));
+
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan(500L));
+    }
+
+    @Test
+    public void takeWaitsForPage() throws InterruptedException {
+        Frontier frontier = new Frontier(1000);
+        AtomicReference<Page> taken = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+
+        Thread worker = new Thread(() -> {
+            try {
+                taken.set(frontier.take());
+                done.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        worker.start();
+
+        assertThat(done.await(100, TimeUnit.MILLISECONDS), is(false));
+        Page page = page("https://en.wikipedia.org/wiki/Bruce_Willis");
+        frontier.add(page);
+
+        assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(taken.get(), equalTo(page));
+    }
+
+    @Test
+    public void spillOverflowAndReloadInOrder() throws Exception {
+        Path file = Files.createTempFile("frontier", ".spill");
+        Frontier frontier = new Frontier(1000, 4, file);
+        try {
+            Page root = page("https://en.wikipedia.org/wiki/Root");
+            List<Page> pages = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                pages.add(Page.nested("/wiki/Page_" + i, root));
+            }
+            pages.forEach(frontier::add);
+
+            assertThat(frontier.size(), equalTo(20));
+
+            List<Page> taken = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                taken.add(frontier.take());
+            }
+
+            assertThat(taken, equalTo(pages));
+            assertThat(frontier.size(), equalTo(0));
+        } finally {
+            frontier.close();
+        }
+    }
+
+    private Page page(String url) {
+        return Page.initial(new CrawlTask(url, 3, callback));
+    }
+}
@@ -0,0 +1,58 @@
+package crawler;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+public class HashRingTest {
+
+    private static final int KEYS = 30_000;
+
+    @Test
+    public void singleNodeOwnsEverything() {
+        HashRing ring = new HashRing(Arrays.asList("http://localhost:8080"), 16);
+
+        assertThat(ring.getOwner("en/bruce_willis"), equalTo("http://localhost:8080"));
+        assertThat(ring.getOwner("de/bruce_willis"), equalTo("http://localhost:8080"));
+    }
+
+    @Test
+    public void keysSpreadEvenly() {
+        HashRing ring = new HashRing(Arrays.asList("http://localhost:8080", "http://localhost:8081", "http://localhost:8082"), 128);
+
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(ring.getOwner("en/article_" + i), 1, Integer::sum);
+        }
+
+        assertThat(counts.size(), equalTo(3));
+        for (int count : counts.values()) {
+            assertThat(count, greaterThan(KEYS / 3 * 7 / 10));
+            assertThat(count, lessThan(KEYS / 3 * 13 / 10));
+        }
+    }
+
+    @Test
+    public void addedNodeTakesKeysOnlyFromOthers() {
+        HashRing before = new HashRing(Arrays.asList("http://localhost:8080", "http://localhost:8081"), 128);
+        HashRing after = new HashRing(Arrays.asList("http://localhost:8080", "http://localhost:8081", "http://localhost:8082"), 128);
+
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String key = "en/article_" + i;
+            if (!before.getOwner(key).equals(after.getOwner(key))) {
+                assertThat(after.getOwner(key), equalTo("http://localhost:8082"));
+                moved++;
+            }
+        }
+
+        assertThat(moved, lessThan(KEYS / 2));
+    }
+}
@@ -0,0 +1,99 @@
+package crawler;
+
+import com.google.common.base.Strings;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class HtmlExtractorTest {
+
+    private final HtmlExtractor extractor = new HtmlExtractor();
+    private final List<String> texts = new ArrayList<>();
+    private final List<String> links = new ArrayList<>();
+
+    private final HtmlExtractor.Handler handler = new HtmlExtractor.Handler() {
+        @Override
+        public void text(char[] chars, int offset, int length) {
+            texts.add(new String(chars, offset, length));
+        }
+
+        @Override
+        public void link(String href) {
+            links.add(href);
+        }
+    };
+
+    @Test
+    public void onlyContentZone() throws IOException {
+        extract("<html><body><p>before</p><div class=\"mw-parser-output\"><div>inner</div>text</div><p>after</p></body></html>");
+
+        assertThat(texts, contains("inner", "text"));
+    }
+
+    @Test
+    public void textNodesSplitByMarkup() throws IOException {
+        extract("<div class='mw-parser-output'>Bruce is <b>very</b><!-- comment -->popular</div>");
+
+        assertThat(texts, contains("Bruce is ", "very", "popular"));
+    }
+
+    @Test
+    public void entitiesDecoded() throws IOException {
+        extract("<div class='mw-parser-output'>Tom &amp; Jerry&nbsp;&#1025;&#x41; &unknown; a&b 1 < 2</div>");
+
+        assertThat(texts, contains("Tom & Jerry ЁA &unknown; a&b 1 < 2"));
+    }
+
+    @Test
+    public void scriptAndStyleSkipped() throws IOException {
+        extract("<div class='mw-parser-output'><style>.a > b {}</style>one<script>if (a</div>) {}</script>two</div>");
+
+        assertThat(texts, contains("one", "two"));
+    }
+
+    @Test
+    public void articleLinks() throws IOException {
+        extract("<a href='/wiki/Outside'>out</a><div class='mw-parser-output'>" +
+                "<a href=\"/wiki/Emmy_Award\">Emmy</a><a href=/wiki/Unquoted>x</a><a href='https://hh.ru'>y</a>" +
+                "<A HREF='/wiki/Upper?a=1&amp;b=2'>z</A><a>no href</a></div>");
+
+        assertThat(links, contains("/wiki/Emmy_Award", "/wiki/Unquoted", "/wiki/Upper?a=1&b=2"));
+    }
+
+    @Test
+    public void doctypeAndSelfClosingTags() throws IOException {
+        extract("<!DOCTYPE html><div class='mw-parser-output'><br/><img alt='text1' src=\"1.gif\"/>text<div/>more</div>");
+
+        assertThat(texts, contains("text", "more"));
+    }
+
+    @Test
+    public void textLongerThanBuffer() throws IOException {
+        String longText = Strings.repeat("word ", 5000);
+        extract("<div class='mw-parser-output'>" + longText + "</div>");
+
+        assertThat(texts, contains(longText));
+    }
+
+    @Test
+    public void noContent() throws IOException {
+        extract("<html>no content <div class='other'>here</div>");
+
+        assertThat(texts, is(empty()));
+        assertThat(links.size(), equalTo(0));
+    }
+
+    private void extract(String html) throws IOException {
+        extractor.extract(new ByteArrayInputStream(html.getBytes(StandardCharsets.UTF_8)), handler);
+    }
+}
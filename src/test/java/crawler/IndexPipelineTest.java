@@ -0,0 +1,95 @@
+package crawler;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class IndexPipelineTest {
+
+    private final ParserService parser = new ParserService();
+
+    @Test
+    public void indexInBatches() throws InterruptedException {
+        List<Integer> batches = new CopyOnWriteArrayList<>();
+        IndexService service = new IndexService() {
+            @Override
+            void index(List<Document> documents) {
+                batches.add(documents.size());
+                super.index(documents);
+            }
+        };
+
+        IndexPipeline pipeline = new IndexPipeline(service, 100, 2, 3, 50);
+        for (int i = 0; i < 10; i++) {
+            pipeline.submit(i + ".html", createDocument("common word" + (char) ('a' + i)));
+        }
+        pipeline.close();
+
+        assertThat(service.find("common").size(), equalTo(10));
+        assertThat(service.find("wordc"), containsInAnyOrder("2.html"));
+        assertThat(batches.stream().mapToInt(Integer::intValue).sum(), equalTo(10));
+        assertThat(batches, everyItem(lessThanOrEqualTo(3)));
+    }
+
+    @Test
+    public void blockWhenQueueIsFull() throws InterruptedException {
+        CountDownLatch indexing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        IndexService service = new IndexService() {
+            @Override
+            void index(List<Document> documents) {
+                indexing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.index(documents);
+            }
+        };
+
+        IndexPipeline pipeline = new IndexPipeline(service, 1, 1, 1, 50);
+        pipeline.submit("1.html", createDocument("first"));
+        assertThat(indexing.await(5, TimeUnit.SECONDS), is(true));
+        pipeline.submit("2.html", createDocument("second"));
+
+        CountDownLatch submitted = new CountDownLatch(1);
+        Thread crawler = new Thread(() -> {
+            pipeline.submit("3.html", createDocument("third"));
+            submitted.countDown();
+        });
+        crawler.start();
+
+        assertThat(submitted.await(200, TimeUnit.MILLISECONDS), is(false));
+        release.countDown();
+        assertThat(submitted.await(5, TimeUnit.SECONDS), is(true));
+
+        pipeline.close();
+        assertThat(service.find("third"), containsInAnyOrder("3.html"));
+    }
+
+    @Test
+    public void rejectAfterClose() throws InterruptedException {
+        IndexPipeline pipeline = new IndexPipeline(new IndexService(), 1, 1, 1, 50);
+        pipeline.close();
+
+        assertThrows(IllegalStateException.class, () -> pipeline.submit("1.html", createDocument("late")));
+    }
+
+    private PageContent createDocument(String text) {
+        String html = "<body><div class='mw-parser-output'>" + text + "</div></body>";
+        return parser.extract(html.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -1,14 +1,12 @@
 package crawler;
 
 import org.junit.Test;
-import org.w3c.dom.Document;
-import org.xml.sax.SAXException;
 
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
 
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
@@ -23,6 +21,7 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 public class IndexServiceTest {
 
     private final IndexService service = new IndexService();
+    private final ParserService parser = new ParserService();
 
 
     @Test
@@ -37,7 +36,7 @@ public class IndexServiceTest {
     }
 
     @Test
-    public void indexAndFind() throws ParserConfigurationException, IOException, SAXException {
+    public void indexAndFind() {
         service.index(
                 "bruce_willis.html",
                 createDocument(
@@ -53,7 +52,7 @@ public class IndexServiceTest {
     }
 
     @Test
-    public void indexRussian() throws ParserConfigurationException, IOException, SAXException {
+    public void indexRussian() {
         service.index(
                 "history.html",
                 createDocument(
@@ -68,7 +67,7 @@ public class IndexServiceTest {
     }
 
     @Test
-    public void indexBoth() throws ParserConfigurationException, IOException, SAXException {
+    public void indexBoth() {
         service.index(
                 "bruce.html",
                 createDocument("<body><div class='mw-parser-output'>yandex</div></body>")
@@ -81,8 +80,195 @@ public class IndexServiceTest {
         assertThat(service.find("yandex"), containsInAnyOrder("bruce.html", "history.html"));
     }
 
-    private Document createDocument(String text) throws ParserConfigurationException, IOException, SAXException {
-        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(text.getBytes()));
+    @Test
+    public void findOnlyDocumentsWithTerm() {
+        service.index(
+                "bruce.html",
+                createDocument("<body><div class='mw-parser-output'>actor</div></body>")
+        );
+        service.index(
+                "history.html",
+                createDocument("<body><div class='mw-parser-output'>writer</div></body>")
+        );
+
+        assertThat(service.find("actor"), contains("bruce.html"));
+        assertThat(service.find("writer"), contains("history.html"));
+    }
+
+    @Test
+    public void findByPattern() {
+        service.index(
+                "photo.html",
+                createDocument("<body><div class='mw-parser-output'>photo of photon</div></body>")
+        );
+        service.index(
+                "phone.html",
+                createDocument("<body><div class='mw-parser-output'>phone and photograph</div></body>")
+        );
+
+        assertThat(service.find("photo*"), containsInAnyOrder("photo.html", "phone.html"));
+        assertThat(service.find("Photo?"), contains("photo.html"));
+        assertThat(service.find("ph*n*"), containsInAnyOrder("photo.html", "phone.html"));
+        assertThat(service.find("pho?e"), contains("phone.html"));
+        assertThat(service.find("video*"), is(empty()));
+    }
+
+    @Test
+    public void patternSupportsOnlyWords() {
+        Exception exc = assertThrows(IllegalArgumentException.class, () -> service.find("19*"));
+        assertThat(exc, hasMessage(equalTo("Pattern should contain only letters, dash and wildcards, but [19*] given")));
+    }
+
+    @Test
+    public void searchBooleanQuery() {
+        service.index(
+                "bruce.html",
+                createDocument("<body><div class='mw-parser-output'>Bruce Willis, actor</div></body>")
+        );
+        service.index(
+                "history.html",
+                createDocument("<body><div class='mw-parser-output'>Bruce Springsteen, singer</div></body>")
+        );
+
+        assertThat(service.search("bruce AND actor"), contains("bruce.html"));
+        assertThat(service.search("bruce NOT actor"), contains("history.html"));
+        assertThat(service.search("actor OR singer"), containsInAnyOrder("bruce.html", "history.html"));
+        assertThat(service.search("actor singer"), is(empty()));
+    }
+
+    @Test
+    public void searchValidatesTerms() {
+        Exception exc = assertThrows(IllegalArgumentException.class, () -> service.search("actor AND 1900"));
+        assertThat(exc, hasMessage(equalTo("Term should contain only letters and dash, but [1900] given")));
+    }
+
+    @Test
+    public void rankByRelevance() {
+        service.index(
+                "bruce.html",
+                createDocument("<body><div class='mw-parser-output'>Bruce Willis, actor. Actor of Die Hard</div></body>")
+        );
+        service.index(
+                "history.html",
+                createDocument("<body><div class='mw-parser-output'>Bruce Springsteen, singer and actor</div></body>")
+        );
+        service.index(
+                "other.html",
+                createDocument("<body><div class='mw-parser-output'>Singer</div></body>")
+        );
+
+        assertThat(service.rank("actor", 10), contains("bruce.html", "history.html"));
+        assertThat(service.rank("Willis actor", 1), contains("bruce.html"));
+    }
+
+    @Test
+    public void rankValidatesResultSize() {
+        Exception exc = assertThrows(IllegalArgumentException.class, () -> service.rank("actor", 0));
+        assertThat(exc, hasMessage(equalTo("Number of results should be positive, but [0] given")));
+    }
+
+    @Test
+    public void inMemorySegmentsAreMerged() {
+        for (int i = 0; i < 250; i++) {
+            service.index(
+                    i + ".html",
+                    createDocument("<body><div class='mw-parser-output'>common word" + (char) ('a' + i % 26) + "</div></body>")
+            );
+        }
+        service.index("2.html", createDocument("<body><div class='mw-parser-output'>other</div></body>"));
+
+        // 2 segments of 100 documents and 5 of 10
+        assertThat(service.getSegmentCount(), equalTo(7));
+        assertThat(service.find("common").size(), equalTo(250));
+        assertThat(service.find("wordc").size(), equalTo(10));
+        assertThat(service.find("other"), is(empty()));
+    }
+
+    @Test
+    public void flushedSegmentsSurviveRestart() throws Exception {
+        Path dir = Files.createTempDirectory("index");
+        try {
+            IndexService persistent = new IndexService(dir, 2, 2, 0);
+            for (int i = 0; i < 9; i++) {
+                persistent.index(
+                        i + ".html",
+                        createDocument("<body><div class='mw-parser-output'>common word" + (char) ('a' + i) + "</div></body>")
+                );
+            }
+            assertThat(persistent.find("common").size(), equalTo(9));
+            persistent.close();
+
+            IndexService reopened = new IndexService(dir, 2, 2, 0);
+            assertThat(reopened.find("common").size(), equalTo(9));
+            assertThat(reopened.find("wordc"), contains("2.html"));
+
+            reopened.index("2.html", createDocument("<body><div class='mw-parser-output'>other</div></body>"));
+            assertThat(reopened.find("other"), is(empty()));
+            reopened.close();
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    public void documentsOfFailedFlushAreFlushedAgain() throws Exception {
+        Path dir = Files.createTempDirectory("index");
+        try {
+            IndexService persistent = new IndexService(dir, 2, 2, 0);
+            // directory in place of postings file fails the first flush
+            Files.createDirectory(dir.resolve("segment-000000" + SegmentWriter.POSTINGS));
+            for (int i = 0; i < 3; i++) {
+                persistent.index(
+                        i + ".html",
+                        createDocument("<body><div class='mw-parser-output'>common word" + (char) ('a' + i) + "</div></body>")
+                );
+            }
+            assertThat(persistent.find("common").size(), equalTo(3));
+            persistent.close();
+
+            IndexService reopened = new IndexService(dir, 2, 2, 0);
+            assertThat(reopened.find("common").size(), equalTo(3));
+            reopened.close();
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    public void documentsVisibleAfterRefresh() throws Exception {
+        Path dir = Files.createTempDirectory("index");
+        try {
+            IndexService refreshed = new IndexService(dir, 100, 2, 60_000);
+            refreshed.index("bruce.html", createDocument("<body><div class='mw-parser-output'>actor</div></body>"));
+            assertThat(refreshed.find("actor"), is(empty()));
+            assertThat(refreshed.rank("actor", 10), is(empty()));
+
+            refreshed.refresh();
+            assertThat(refreshed.find("actor"), contains("bruce.html"));
+            assertThat(refreshed.rank("actor", 10), contains("bruce.html"));
+
+            // not yet visible document is still indexed only once
+            refreshed.index("history.html", createDocument("<body><div class='mw-parser-output'>writer</div></body>"));
+            refreshed.index("history.html", createDocument("<body><div class='mw-parser-output'>actor</div></body>"));
+            refreshed.close();
+
+            IndexService reopened = new IndexService(dir, 100, 2, 0);
+            assertThat(reopened.find("actor"), contains("bruce.html"));
+            assertThat(reopened.find("writer"), contains("history.html"));
+            reopened.close();
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    private PageContent createDocument(String text) {
+        return parser.extract(text.getBytes(StandardCharsets.UTF_8));
     }
 
 }
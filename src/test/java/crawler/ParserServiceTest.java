@@ -25,7 +25,7 @@ public class ParserServiceTest {
     public void noLinks() {
         String body = "<html>no links here</html>";
 
-        Set<Page> result = service.parse(initialPage, service.convertToDoc(body.getBytes()));
+        Set<Page> result = service.parse(initialPage, service.extract(body.getBytes()));
 
         assertThat(result, is(empty()));
     }
@@ -34,7 +34,7 @@ public class ParserServiceTest {
     public void linksOutOfContentZone() {
         String body = "<html><a href='https://en.wikipedia.org/wiki/1'>1</a><div class='mw-parser-output'>no links here</div></html>";
 
-        Set<Page> result = service.parse(initialPage, service.convertToDoc(body.getBytes()));
+        Set<Page> result = service.parse(initialPage, service.extract(body.getBytes()));
 
         assertThat(result, is(empty()));
     }
@@ -43,7 +43,7 @@ public class ParserServiceTest {
     public void skipNonWikipediaLinks() {
         String body = "<html><div class='mw-parser-output'><a href='https://hh.ru/parser'>1</a></div></html>";
 
-        Set<Page> result = service.parse(initialPage, service.convertToDoc(body.getBytes()));
+        Set<Page> result = service.parse(initialPage, service.extract(body.getBytes()));
 
         assertThat(result, is(empty()));
     }
@@ -52,7 +52,7 @@ public class ParserServiceTest {
     public void skipNonArticleLinks() {
         String body = "<html><div class='mw-parser-output'><a href='https://en.wikipedia.org/File:image.gif'>1</a></div></html>";
 
-        Set<Page> result = service.parse(initialPage, service.convertToDoc(body.getBytes()));
+        Set<Page> result = service.parse(initialPage, service.extract(body.getBytes()));
 
         assertThat(result, is(empty()));
     }
@@ -61,7 +61,7 @@ public class ParserServiceTest {
     public void noHref() {
         String body = "<html><div class='mw-parser-output'><p><a>1</a></p></div></html>";
 
-        Set<Page> result = service.parse(initialPage, service.convertToDoc(body.getBytes()));
+        Set<Page> result = service.parse(initialPage, service.extract(body.getBytes()));
 
         assertThat(result, is(empty()));
     }
@@ -71,7 +71,7 @@ public class ParserServiceTest {
         String body = "<html><div class='mw-parser-output'><p><a href='/wiki/interesting'>1</a></p></div></html>";
 
         Page nested = Page.nested("/wiki/2", initialPage);
-        Set<Page> result = service.parse(nested, service.convertToDoc(body.getBytes()));
+        Set<Page> result = service.parse(nested, service.extract(body.getBytes()));
 
         assertThat(result, is(empty()));
     }
@@ -80,7 +80,7 @@ public class ParserServiceTest {
     public void imageIgnored() {
         String body = "<html><div class='mw-parser-output'><p><a href='/wiki/File:1.jpg'>1</a></p></div></html>";
 
-        Set<Page> result = service.parse(initialPage, service.convertToDoc(body.getBytes()));
+        Set<Page> result = service.parse(initialPage, service.extract(body.getBytes()));
 
         assertThat(result, is(empty()));
     }
@@ -89,7 +89,7 @@ public class ParserServiceTest {
     public void nestedLink() {
         String body = "<html><div class='mw-parser-output'><p><a href='/wiki/interesting'>1</a></p></div></html>";
 
-        Set<Page> result = service.parse(initialPage, service.convertToDoc(body.getBytes()));
+        Set<Page> result = service.parse(initialPage, service.extract(body.getBytes()));
 
         assertThat(result, containsInAnyOrder(Page.nested("/wiki/interesting", initialPage)));
     }
@@ -98,7 +98,7 @@ public class ParserServiceTest {
     public void firstChild() {
         String body = "<html><div class='mw-parser-output'><a href='/wiki/interesting'>1</a></div></html>";
 
-        Set<Page> result = service.parse(initialPage, service.convertToDoc(body.getBytes()));
+        Set<Page> result = service.parse(initialPage, service.extract(body.getBytes()));
 
         assertThat(result, containsInAnyOrder(Page.nested("/wiki/interesting", initialPage)));
     }
@@ -0,0 +1,92 @@
+package crawler;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class PostingsTest {
+
+    private final Postings postings = new Postings();
+
+    @Test
+    public void empty() {
+        PostingsIterator iterator = postings.iterator();
+
+        assertThat(iterator.size(), equalTo(0));
+        assertThat(iterator.nextDoc(), equalTo(PostingsIterator.NO_MORE_DOCS));
+    }
+
+    @Test
+    public void decodeInOrder() {
+        postings.add(0, 1);
+        postings.add(1, 1);
+        postings.add(200, 1);
+        postings.add(70000, 1);
+        postings.add(Integer.MAX_VALUE - 1, 1);
+
+        PostingsIterator iterator = postings.iterator();
+
+        assertThat(iterator.size(), equalTo(5));
+        assertThat(iterator.nextDoc(), equalTo(0));
+        assertThat(iterator.nextDoc(), equalTo(1));
+        assertThat(iterator.nextDoc(), equalTo(200));
+        assertThat(iterator.nextDoc(), equalTo(70000));
+        assertThat(iterator.nextDoc(), equalTo(Integer.MAX_VALUE - 1));
+        assertThat(iterator.nextDoc(), equalTo(PostingsIterator.NO_MORE_DOCS));
+    }
+
+    @Test
+    public void iteratorsAreIndependent() {
+        postings.add(3, 1);
+        postings.add(5, 1);
+
+        PostingsIterator first = postings.iterator();
+        first.nextDoc();
+
+        assertThat(postings.iterator().nextDoc(), equalTo(3));
+        assertThat(first.nextDoc(), equalTo(5));
+    }
+
+    @Test
+    public void advanceWithinBlock() {
+        postings.add(1, 1);
+        postings.add(4, 1);
+        postings.add(9, 1);
+
+        PostingsIterator iterator = postings.iterator();
+
+        assertThat(iterator.advance(4), equalTo(4));
+        assertThat(iterator.advance(5), equalTo(9));
+        assertThat(iterator.advance(10), equalTo(PostingsIterator.NO_MORE_DOCS));
+    }
+
+    @Test
+    public void advanceOverSkips() {
+        for (int i = 0; i < Postings.SKIP_INTERVAL * 10; i++) {
+            postings.add(i * 3, 1);
+        }
+
+        PostingsIterator iterator = postings.iterator();
+
+        assertThat(iterator.nextDoc(), equalTo(0));
+        assertThat(iterator.advance(100), equalTo(102));
+        assertThat(iterator.advance(Postings.SKIP_INTERVAL * 3 * 3), equalTo(Postings.SKIP_INTERVAL * 3 * 3));
+        assertThat(iterator.nextDoc(), equalTo(Postings.SKIP_INTERVAL * 3 * 3 + 3));
+        assertThat(iterator.advance(Postings.SKIP_INTERVAL * 3 * 10 - 4), equalTo(Postings.SKIP_INTERVAL * 3 * 10 - 3));
+        assertThat(iterator.nextDoc(), equalTo(PostingsIterator.NO_MORE_DOCS));
+    }
+
+    @Test
+    public void advanceToCurrent() {
+        for (int i = 0; i < Postings.SKIP_INTERVAL * 2; i++) {
+            postings.add(i, 1);
+        }
+
+        PostingsIterator iterator = postings.iterator();
+
+        assertThat(iterator.advance(40), equalTo(40));
+        assertThat(iterator.advance(40), equalTo(40));
+        assertThat(iterator.advance(10), equalTo(40));
+    }
+}
@@ -0,0 +1,123 @@
+package crawler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.internal.matchers.ThrowableMessageMatcher.hasMessage;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class QueryTest {
+
+    private final Map<String, Postings> index = new HashMap<>();
+    private final Function<String, PostingsIterator> lookup = term -> {
+        Postings postings = index.get(term);
+        return null == postings ? null : postings.iterator();
+    };
+
+    @Test
+    public void implicitAnd() {
+        Query query = Query.parse("Bruce  Willis", String::toLowerCase);
+
+        assertThat(query.getClauses().size(), equalTo(1));
+        assertThat(query.getClauses().get(0).getRequired(), contains("bruce", "willis"));
+        assertThat(query.getClauses().get(0).getExcluded(), is(empty()));
+    }
+
+    @Test
+    public void allOperators() {
+        Query query = Query.parse("bruce AND willis NOT actor OR singer AND NOT actor", String::toLowerCase);
+
+        assertThat(query.getClauses().size(), equalTo(2));
+        assertThat(query.getClauses().get(0).getRequired(), contains("bruce", "willis"));
+        assertThat(query.getClauses().get(0).getExcluded(), contains("actor"));
+        assertThat(query.getClauses().get(1).getRequired(), contains("singer"));
+        assertThat(query.getClauses().get(1).getExcluded(), contains("actor"));
+    }
+
+    @Test
+    public void lowercaseOperatorsAreTerms() {
+        Query query = Query.parse("rock and roll", String::toLowerCase);
+
+        assertThat(query.getClauses().get(0).getRequired(), contains("rock", "and", "roll"));
+    }
+
+    @Test
+    public void emptyQuery() {
+        Exception exc = assertThrows(IllegalArgumentException.class, () -> Query.parse(" ", String::toLowerCase));
+        assertThat(exc, hasMessage(equalTo("Query should not be empty")));
+    }
+
+    @Test
+    public void onlyExcludedTerms() {
+        Exception exc = assertThrows(IllegalArgumentException.class, () -> Query.parse("a OR NOT b", String::toLowerCase));
+        assertThat(exc, hasMessage(equalTo("Operator [OR] should be followed by a term, but [NOT] given")));
+
+        exc = assertThrows(IllegalArgumentException.class, () -> Query.parse("NOT b", String::toLowerCase));
+        assertThat(exc, hasMessage(equalTo("Every OR part of query should contain a term without NOT, but [NOT b] given")));
+    }
+
+    @Test
+    public void danglingOperator() {
+        Exception exc = assertThrows(IllegalArgumentException.class, () -> Query.parse("a AND", String::toLowerCase));
+        assertThat(exc, hasMessage(equalTo("Operator [AND] should be followed by a term")));
+
+        exc = assertThrows(IllegalArgumentException.class, () -> Query.parse("AND a", String::toLowerCase));
+        assertThat(exc, hasMessage(equalTo("Operator [AND] should follow a term")));
+    }
+
+    @Test
+    public void intersectAndExclude() {
+        index("a", 1, 2, 3, 5, 8, 13, 21, 34);
+        index("b", 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13);
+        index("c", 3, 13);
+
+        assertThat(evaluate("a b"), contains(2, 3, 5, 8, 13));
+        assertThat(evaluate("a b NOT c"), contains(2, 5, 8));
+        assertThat(evaluate("a c OR b NOT a"), contains(3, 13, 4, 6, 7, 9, 10, 11, 12));
+        assertThat(evaluate("a missing"), is(empty()));
+        assertThat(evaluate("c NOT missing"), contains(3, 13));
+    }
+
+    @Test
+    public void intersectLongLists() {
+        int[] even = new int[1000];
+        int[] tens = new int[200];
+        for (int i = 0; i < even.length; i++) {
+            even[i] = i * 2;
+        }
+        for (int i = 0; i < tens.length; i++) {
+            tens[i] = i * 10 + 10;
+        }
+        index("even", even);
+        index("tens", tens);
+        index("last", 1990, 1998, 2000);
+
+        assertThat(evaluate("even tens last"), contains(1990));
+        assertThat(evaluate("even last").size(), equalTo(2));
+        assertThat(evaluate("tens even").size(), equalTo(199));
+    }
+
+    private void index(String term, int... docIds) {
+        Postings postings = new Postings();
+        for (int docId : docIds) {
+            postings.add(docId, 1);
+        }
+        index.put(term, postings);
+    }
+
+    private List<Integer> evaluate(String str) {
+        List<Integer> result = new ArrayList<>();
+        Query.parse(str, s -> s).evaluate(lookup, result::add);
+        return result;
+    }
+}
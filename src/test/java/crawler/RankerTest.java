@@ -0,0 +1,116 @@
+package crawler;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class RankerTest {
+
+    @Test
+    public void frequentTermInShortDocumentFirst() {
+        SegmentBuffer buffer = new SegmentBuffer();
+        add(buffer, "long.html", "actor", "bruce", "film", "film", "film", "film", "film", "film");
+        add(buffer, "short.html", "actor", "actor", "film");
+        add(buffer, "once.html", "actor", "film", "film");
+        add(buffer, "none.html", "film");
+
+        List<String> result = new Ranker(ImmutableList.of(buffer), ImmutableList.of("actor"), 10).rank();
+
+        assertThat(result, contains("short.html", "once.html", "long.html"));
+    }
+
+    @Test
+    public void rareTermWeighsMore() {
+        SegmentBuffer buffer = new SegmentBuffer();
+        add(buffer, "common.html", "film", "film");
+        add(buffer, "rare.html", "bruce", "other");
+        add(buffer, "a.html", "film");
+        add(buffer, "b.html", "film");
+
+        List<String> result = new Ranker(ImmutableList.of(buffer), ImmutableList.of("film", "bruce"), 1).rank();
+
+        assertThat(result, contains("rare.html"));
+    }
+
+    @Test
+    public void missingTerms() {
+        SegmentBuffer buffer = new SegmentBuffer();
+        add(buffer, "a.html", "film");
+
+        assertThat(new Ranker(ImmutableList.of(buffer), ImmutableList.of("missing"), 3).rank(), is(empty()));
+    }
+
+    @Test
+    public void sameAsExhaustiveScoring() {
+        Random random = new Random(42);
+        String[] vocabulary = {"a", "b", "c", "d", "e", "f"};
+
+        List<Segment> segments = new ArrayList<>();
+        for (int s = 0; s < 3; s++) {
+            SegmentBuffer buffer = new SegmentBuffer();
+            for (int doc = 0; doc < 300; doc++) {
+                String[] terms = new String[1 + random.nextInt(20)];
+                for (int i = 0; i < terms.length; i++) {
+                    // skewed distribution, so terms have different weights
+                    terms[i] = vocabulary[Math.min(random.nextInt(vocabulary.length), random.nextInt(vocabulary.length))];
+                }
+                add(buffer, s + "-" + doc + ".html", terms);
+            }
+            segments.add(buffer);
+        }
+
+        List<String> query = ImmutableList.of("a", "c", "e", "f");
+        Map<String, Double> scores = exhaustive(segments, query);
+        List<Double> expected = new ArrayList<>(scores.values());
+        expected.sort(Comparator.reverseOrder());
+
+        List<String> result = new Ranker(segments, query, 15).rank();
+
+        assertThat(result.size(), equalTo(15));
+        for (int i = 0; i < result.size(); i++) {
+            // ties may be returned in any order, so scores are compared instead of paths
+            assertThat(Math.abs(scores.get(result.get(i)) - expected.get(i)) < 1e-9, is(true));
+        }
+    }
+
+    private Map<String, Double> exhaustive(List<Segment> segments, List<String> query) {
+        long docCount = segments.stream().mapToLong(Segment::getDocCount).sum();
+        double averageLength = (double) segments.stream().mapToLong(Segment::getTotalLength).sum() / docCount;
+
+        Map<String, Double> scores = new HashMap<>();
+        for (String term : query) {
+            long docFreq = segments.stream().mapToLong(s -> s.postings(term).size()).sum();
+            double idf = Math.log(1 + (docCount - docFreq + 0.5) / (docFreq + 0.5));
+
+            for (Segment segment : segments) {
+                PostingsIterator iterator = segment.postings(term);
+                for (int docId = iterator.nextDoc(); docId != PostingsIterator.NO_MORE_DOCS; docId = iterator.nextDoc()) {
+                    double freq = iterator.freq();
+                    double norm = 1.2 * (1 - 0.75 + 0.75 * segment.getDocLength(docId) / averageLength);
+                    scores.merge(segment.getPath(docId), idf * freq * 2.2 / (freq + norm), Double::sum);
+                }
+            }
+        }
+        return scores;
+    }
+
+    private void add(SegmentBuffer buffer, String path, String... terms) {
+        DocumentTerms document = new DocumentTerms();
+        for (String term : terms) {
+            document.token(term.toCharArray(), term.length());
+        }
+        buffer.add(path, document);
+    }
+}
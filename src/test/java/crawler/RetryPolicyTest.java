@@ -0,0 +1,74 @@
+package crawler;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+public class RetryPolicyTest {
+
+    private final DownloadService downloadService = new DownloadService(1);
+    private final RetryPolicy policy = new RetryPolicy(2, 100, 1000);
+    private final Page page = Page.initial(new CrawlTask("https://en.wikipedia.org/wiki/Bruce_Willis", 1, p -> {
+    }));
+
+    @Test
+    public void overloadIsRetried() {
+        assertThat(policy.shouldRetry(page, error(503, -1)), equalTo(true));
+        assertThat(policy.shouldRetry(page, error(429, -1)), equalTo(true));
+        assertThat(policy.shouldRetry(page, new CompletionException(new UncheckedIOException(
+                new DownloadService.BodyError("https://en.wikipedia.org/wiki/Bruce_Willis", new IOException("connection reset"))
+        ))), equalTo(true));
+    }
+
+    @Test
+    public void localFailureIsNotRetried() {
+        assertThat(policy.shouldRetry(page, new CompletionException(new UncheckedIOException(new IOException("disk is full")))), equalTo(false));
+    }
+
+    @Test
+    public void missingPageIsNotRetried() {
+        assertThat(policy.shouldRetry(page, error(404, -1)), equalTo(false));
+        assertThat(policy.shouldRetry(page, new IllegalStateException()), equalTo(false));
+    }
+
+    @Test
+    public void retriesAreLimited() {
+        assertThat(policy.shouldRetry(page.retry(), error(503, -1)), equalTo(true));
+        assertThat(policy.shouldRetry(page.retry().retry(), error(503, -1)), equalTo(false));
+    }
+
+    @Test
+    public void delayGrowsWithAttempts() {
+        for (int i = 0; i < 100; i++) {
+            assertThat(policy.getDelayNanos(page, error(503, -1)), lessThan(TimeUnit.MILLISECONDS.toNanos(101)));
+            assertThat(policy.getDelayNanos(page.retry(), error(503, -1)), lessThan(TimeUnit.MILLISECONDS.toNanos(201)));
+        }
+    }
+
+    @Test
+    public void delayIsLimited() {
+        Page retried = page;
+        for (int i = 0; i < 100; i++) {
+            retried = retried.retry();
+        }
+
+        assertThat(policy.getDelayNanos(retried, error(503, -1)), lessThan(TimeUnit.MILLISECONDS.toNanos(1001)));
+    }
+
+    @Test
+    public void retryAfterIsHonored() {
+        assertThat(policy.getDelayNanos(page, error(429, 5000)), greaterThanOrEqualTo(TimeUnit.SECONDS.toNanos(5)));
+    }
+
+    private Throwable error(int code, long retryAfterMillis) {
+        return new CompletionException(downloadService.new HttpError("https://en.wikipedia.org/wiki/Bruce_Willis", code, retryAfterMillis));
+    }
+}
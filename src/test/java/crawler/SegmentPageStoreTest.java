@@ -0,0 +1,183 @@
+package crawler;
+
+import com.google.common.io.ByteStreams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class SegmentPageStoreTest {
+
+    private final CrawlTask task = new CrawlTask("https://en.wikipedia.org/wiki/Bruce_Willis", 2, p -> {
+    });
+    private final Page page = Page.initial(task);
+    private final Page other = Page.nested("/wiki/Die_Hard", page);
+
+    private Path dir;
+    private SegmentPageStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("pages");
+        store = new SegmentPageStore(dir, 1 << 20);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        store.close();
+    }
+
+    @Test
+    public void readStored() throws IOException {
+        write(store, page, "first body");
+        write(store, other, "second body");
+
+        assertThat(read(store, page), equalTo("first body"));
+        assertThat(read(store, other), equalTo("second body"));
+        assertThat(store.open(Page.nested("/wiki/Alan_Rickman", page)), nullValue());
+    }
+
+    @Test
+    public void latestBodyWins() throws IOException {
+        write(store, page, "first body");
+        write(store, page, "second body");
+
+        assertThat(read(store, page), equalTo("second body"));
+    }
+
+    @Test
+    public void storedBodyLocatedInSegment() throws IOException {
+        write(store, page, "first body");
+        write(store, other, "second body");
+
+        PageStore.StoredBody stored = store.locate(other);
+        ByteBuffer body = ByteBuffer.allocate((int) stored.getLength());
+        try (FileChannel channel = FileChannel.open(stored.getFile(), StandardOpenOption.READ)) {
+            channel.read(body, stored.getOffset());
+        }
+
+        assertThat(new String(body.array(), StandardCharsets.UTF_8), equalTo("second body"));
+        assertThat(store.locate(Page.nested("/wiki/Alan_Rickman", page)), nullValue());
+    }
+
+    @Test
+    public void notCommittedIsDiscarded() throws IOException {
+        try (PageStore.PendingFile file = store.create(page)) {
+            file.getChannel().write(ByteBuffer.wrap("body".getBytes(StandardCharsets.UTF_8)));
+        }
+
+        assertThat(store.open(page), nullValue());
+    }
+
+    @Test
+    public void validatorsOnlyForStoredPage() {
+        PageValidators validators = new PageValidators("\"1\"", "Wed, 21 Oct 2015 07:28:00 GMT", PageValidators.hash(new byte[1]));
+        store.storeValidators(page, validators);
+        assertThat(store.loadValidators(page), nullValue());
+
+        write(store, page, "body");
+        assertThat(store.loadValidators(page), equalTo(validators));
+    }
+
+    @Test
+    public void indexRebuiltOnRestart() throws IOException {
+        PageValidators validators = new PageValidators(null, null, PageValidators.hash("first body".getBytes(StandardCharsets.UTF_8)));
+        write(store, page, "first body");
+        store.storeValidators(page, validators);
+        write(store, other, "second body");
+        store.close();
+
+        store = new SegmentPageStore(dir, 1 << 20);
+
+        assertThat(read(store, page), equalTo("first body"));
+        assertThat(read(store, other), equalTo("second body"));
+        assertThat(store.loadValidators(page), equalTo(validators));
+    }
+
+    @Test
+    public void segmentRolledOver() throws IOException {
+        store.close();
+        store = new SegmentPageStore(dir, 10);
+
+        write(store, page, "first body");
+        write(store, other, "second body");
+
+        assertThat(store.getSegmentCount(), equalTo(2));
+        assertThat(read(store, page), equalTo("first body"));
+        assertThat(read(store, other), equalTo("second body"));
+    }
+
+    @Test
+    public void tornRecordTruncated() throws IOException {
+        write(store, page, "first body");
+        store.close();
+
+        Path segment;
+        try (Stream<Path> files = Files.list(dir)) {
+            segment = files.filter(p -> p.toString().endsWith(".warc")).findFirst().get();
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap("WARC/1.0\r\nWARC-Type: resp".getBytes(StandardCharsets.UTF_8)));
+        }
+
+        store = new SegmentPageStore(dir, 1 << 20);
+        write(store, other, "second body");
+        store.close();
+
+        store = new SegmentPageStore(dir, 1 << 20);
+
+        assertThat(read(store, page), equalTo("first body"));
+        assertThat(read(store, other), equalTo("second body"));
+    }
+
+    @Test
+    public void compressedBodiesReadAfterDictionaryTrained() throws Exception {
+        store.close();
+        store = new SegmentPageStore(dir, 1 << 20, true, 2);
+        Page third = Page.nested("/wiki/Alan_Rickman", page);
+
+        write(store, page, "<html><head><title>first</title></head></html>");
+        write(store, other, "<html><head><title>second</title></head></html>");
+        store.awaitTraining();
+        write(store, third, "<html><head><title>third</title></head></html>");
+
+        assertThat(Files.exists(dir.resolve("dictionary-00000.bin")), equalTo(true));
+        assertThat(read(store, page), equalTo("<html><head><title>first</title></head></html>"));
+        assertThat(read(store, third), equalTo("<html><head><title>third</title></head></html>"));
+        assertThat(store.locate(third), nullValue());
+        store.close();
+
+        store = new SegmentPageStore(dir, 1 << 20, true, 2);
+
+        assertThat(read(store, other), equalTo("<html><head><title>second</title></head></html>"));
+        assertThat(read(store, third), equalTo("<html><head><title>third</title></head></html>"));
+    }
+
+    private static void write(SegmentPageStore store, Page page, String body) {
+        try (PageStore.PendingFile file = store.create(page)) {
+            file.getChannel().write(ByteBuffer.wrap(body.getBytes(StandardCharsets.UTF_8)));
+            file.commit();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String read(SegmentPageStore store, Page page) throws IOException {
+        try (InputStream in = store.open(page)) {
+            return new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package crawler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class SpillQueueTest {
+
+    private Path file;
+    private SpillQueue queue;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("frontier", ".spill");
+        queue = new SpillQueue(file);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        queue.close();
+    }
+
+    @Test
+    public void readInWriteOrder() {
+        queue.add(new SpillQueue.Record("https://en.wikipedia.org/wiki/Bruce_Willis", 1, 0));
+        queue.add(new SpillQueue.Record("https://en.wikipedia.org/wiki/Салтыков-Щедрин", 2, 1));
+
+        assertThat(queue.size(), equalTo(2));
+        SpillQueue.Record first = queue.poll();
+        assertThat(first.getUrl(), equalTo("https://en.wikipedia.org/wiki/Bruce_Willis"));
+        assertThat(first.getDepth(), equalTo(1));
+        assertThat(first.getTaskId(), equalTo(0));
+
+        queue.add(new SpillQueue.Record("https://en.wikipedia.org/wiki/Die_Hard", 3, 0));
+
+        assertThat(queue.poll().getUrl(), equalTo("https://en.wikipedia.org/wiki/Салтыков-Щедрин"));
+        assertThat(queue.poll().getUrl(), equalTo("https://en.wikipedia.org/wiki/Die_Hard"));
+        assertThat(queue.poll(), is(nullValue()));
+    }
+
+    @Test
+    public void deleteSegmentsOnceRead() throws IOException {
+        queue.close();
+        queue = new SpillQueue(file, 1024);
+        for (int i = 0; i < 1000; i++) {
+            queue.add(new SpillQueue.Record("https://en.wikipedia.org/wiki/" + i, 1, 0));
+        }
+        int written = queue.getSegmentCount();
+        assertThat(written, greaterThan(10));
+        assertThat(segmentFiles(), equalTo((long) written));
+
+        for (int i = 0; i < 500; i++) {
+            assertThat(queue.poll().getUrl(), equalTo("https://en.wikipedia.org/wiki/" + i));
+        }
+        assertThat(queue.getSegmentCount(), lessThan(written / 2 + 2));
+        assertThat(segmentFiles(), equalTo((long) queue.getSegmentCount()));
+
+        // queue which is never drained does not keep read records
+        for (int i = 1000; i < 2000; i++) {
+            queue.add(new SpillQueue.Record("https://en.wikipedia.org/wiki/" + i, 1, 0));
+            assertThat(queue.poll().getUrl(), equalTo("https://en.wikipedia.org/wiki/" + (i - 500)));
+        }
+        assertThat(queue.getSegmentCount(), lessThan(written / 2 + 2));
+
+        for (int i = 1500; i < 2000; i++) {
+            assertThat(queue.poll().getUrl(), equalTo("https://en.wikipedia.org/wiki/" + i));
+        }
+        assertThat(queue.getSegmentCount(), equalTo(1));
+        assertThat(segmentFiles(), equalTo(1L));
+
+        queue.add(new SpillQueue.Record("https://en.wikipedia.org/wiki/again", 1, 0));
+        assertThat(queue.poll().getUrl(), equalTo("https://en.wikipedia.org/wiki/again"));
+    }
+
+    @Test
+    public void segmentsOfPreviousRunAreDeleted() throws IOException {
+        queue.add(new SpillQueue.Record("https://en.wikipedia.org/wiki/Bruce_Willis", 1, 0));
+        queue.poll();
+        queue.add(new SpillQueue.Record("https://en.wikipedia.org/wiki/Die_Hard", 1, 0));
+
+        // previous queue is not closed, as after crash
+        queue = new SpillQueue(file);
+
+        assertThat(queue.poll(), is(nullValue()));
+        assertThat(segmentFiles(), equalTo(1L));
+    }
+
+    @Test
+    public void deleteOnClose() throws IOException {
+        queue.add(new SpillQueue.Record("https://en.wikipedia.org/wiki/Bruce_Willis", 1, 0));
+        queue.close();
+
+        assertThat(Files.exists(file), is(false));
+    }
+
+    private long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(file.getParent())) {
+            return files.filter(p -> p.getFileName().toString().startsWith(file.getFileName() + ".")).count();
+        }
+    }
+}
@@ -6,12 +6,21 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertThat;
 
 public class StorageServiceTest {
@@ -44,6 +53,122 @@ public class StorageServiceTest {
         );
     }
 
+    @Test
+    public void loadStored() {
+        service.store(page, defaultBody);
+
+        assertThat(new String(service.load(page), StandardCharsets.UTF_8), equalTo("body"));
+    }
+
+    @Test
+    public void loadMissing() {
+        assertThat(service.load(page), nullValue());
+    }
+
+    @Test
+    public void pendingFileVisibleAfterCommit() throws IOException {
+        try (StorageService.PendingPage file = service.create(page)) {
+            file.getChannel().write(ByteBuffer.wrap(defaultBody));
+            assertThat(service.load(page), nullValue());
+            file.commit().join();
+        }
+
+        assertThat(new String(service.load(page), StandardCharsets.UTF_8), equalTo("body"));
+    }
+
+    @Test
+    public void pendingFileDiscardedWithoutCommit() throws IOException {
+        try (StorageService.PendingPage file = service.create(page)) {
+            file.getChannel().write(ByteBuffer.wrap(defaultBody));
+        }
+
+        assertThat(service.open(page), nullValue());
+        assertThat(Files.exists(fs.getPath("/data/en/b/r/bruce_willis.html.tmp")), equalTo(false));
+    }
+
+    @Test
+    public void loadStoredValidators() {
+        service.store(page, defaultBody);
+        service.storeValidators(page, new PageValidators("\"1\"", null, PageValidators.hash(defaultBody))).join();
+
+        assertThat(
+                service.loadValidators(page),
+                equalTo(new PageValidators("\"1\"", null, PageValidators.hash(defaultBody)))
+        );
+    }
+
+    @Test
+    public void validatorsWithoutPageAreIgnored() {
+        service.storeValidators(page, new PageValidators("\"1\"", null, PageValidators.hash(defaultBody))).join();
+
+        assertThat(service.loadValidators(page), nullValue());
+    }
+
+    @Test
+    public void writesQueuedDuringSyncAreSyncedTogether() throws Exception {
+        CountDownLatch syncing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger syncs = new AtomicInteger();
+        StorageService grouped = new StorageService(new FilePageStore(fs.getPath("/data")) {
+            @Override
+            public void sync() {
+                syncs.incrementAndGet();
+                syncing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        PageValidators validators = new PageValidators("\"1\"", null, PageValidators.hash(defaultBody));
+
+        CompletableFuture<Void> first = grouped.storeValidators(page, validators);
+        syncing.await();
+        List<CompletableFuture<Void>> group = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            group.add(grouped.storeValidators(page, validators));
+        }
+        assertThat(first.isDone(), equalTo(false));
+
+        release.countDown();
+        CompletableFuture.allOf(group.toArray(new CompletableFuture[0])).get(1, TimeUnit.SECONDS);
+        assertThat(syncs.get(), equalTo(2));
+        grouped.close();
+    }
+
+    @Test
+    public void committedFileRenamedOnSync() throws IOException {
+        FilePageStore store = new FilePageStore(fs.getPath("/data"));
+        try (PageStore.PendingFile file = store.create(page)) {
+            file.getChannel().write(ByteBuffer.wrap(defaultBody));
+            file.commit();
+        }
+        assertThat(store.open(page), nullValue());
+
+        store.sync();
+
+        assertThat(
+                new String(Files.readAllBytes(fs.getPath("/data/en/b/r/bruce_willis.html")), StandardCharsets.UTF_8),
+                equalTo("body")
+        );
+    }
+
+    @Test
+    public void aliasIsResolvedToOriginal() {
+        DuplicateDetector duplicates = new DuplicateDetector();
+        StorageService resolving = new StorageService(new FilePageStore(fs.getPath("/data")), 16, 16, duplicates);
+        Page alias = Page.initial(new CrawlTask("http://en.wikipedia.org/wiki/Walter_Bruce_Willis", 2, p -> {
+        }));
+        resolving.store(page, defaultBody);
+        duplicates.register(page.getUrl().toString(), PageValidators.hash(defaultBody), "body");
+        duplicates.register(alias.getUrl().toString(), PageValidators.hash(defaultBody), "body");
+
+        assertThat(new String(resolving.load(alias), StandardCharsets.UTF_8), equalTo("body"));
+        assertThat(resolving.locate(alias).getFile(), equalTo(fs.getPath("/data/en/b/r/bruce_willis.html")));
+        assertThat(resolving.openDownloaded(alias), nullValue());
+    }
+
     @Test
     public void fileOverwritten() throws IOException {
         Files.createDirectories(fs.getPath("/data/en/b/r/"));
@@ -0,0 +1,64 @@
+package crawler;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class TeeInputStreamTest {
+
+    private final BufferPool pool = new BufferPool(4, 1);
+
+    @Test
+    public void readerAndSinkReceiveTheSameBytes() throws IOException {
+        byte[] body = "<p>page content</p>".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+
+        try (TeeInputStream in = new TeeInputStream(new ByteArrayInputStream(body), Channels.newChannel(sink), pool)) {
+            byte[] chunk = new byte[3];
+            for (int count = in.read(chunk); count >= 0; count = in.read(chunk)) {
+                read.write(chunk, 0, count);
+            }
+
+            assertThat(in.getLength(), equalTo((long) body.length));
+            assertThat(in.getHash(), equalTo(PageValidators.hash(body)));
+        }
+
+        assertThat(read.toString("UTF-8"), equalTo("<p>page content</p>"));
+        assertThat(sink.toString("UTF-8"), equalTo("<p>page content</p>"));
+    }
+
+    @Test
+    public void drainReadsTheRest() throws IOException {
+        byte[] body = "page content".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+
+        try (TeeInputStream in = new TeeInputStream(new ByteArrayInputStream(body), Channels.newChannel(sink), pool)) {
+            assertThat(in.read(), equalTo((int) 'p'));
+            in.drain();
+
+            assertThat(in.read(), equalTo(-1));
+            assertThat(in.getHash(), equalTo(PageValidators.hash(body)));
+        }
+
+        assertThat(sink.toString("UTF-8"), equalTo("page content"));
+    }
+
+    @Test
+    public void bufferReturnedToPool() throws IOException {
+        try (TeeInputStream in = new TeeInputStream(new ByteArrayInputStream(new byte[10]), null, pool)) {
+            in.drain();
+            assertThat(pool.getFreeCount(), equalTo(0));
+        }
+
+        assertThat(pool.getFreeCount(), equalTo(1));
+        assertThat(pool.acquire().capacity(), equalTo(4));
+    }
+}
@@ -0,0 +1,55 @@
+package crawler;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class TermHashTest {
+
+    private final TermHash hash = new TermHash();
+
+    @Test
+    public void denseIds() {
+        assertThat(add("bruce"), equalTo(0));
+        assertThat(add("willis"), equalTo(1));
+        assertThat(add("bruce"), equalTo(0));
+
+        assertThat(hash.size(), equalTo(2));
+        assertThat(hash.toString(1), equalTo("willis"));
+        assertThat(hash.find("willis"), equalTo(1));
+        assertThat(hash.find("actor"), equalTo(-1));
+    }
+
+    @Test
+    public void growth() {
+        for (int i = 0; i < 10000; i++) {
+            assertThat(add("term" + i), equalTo(i));
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertThat(hash.find("term" + i), equalTo(i));
+        }
+    }
+
+    @Test
+    public void addFromBufferSlice() {
+        char[] chars = "xxactorxx".toCharArray();
+
+        assertThat(hash.add(chars, 2, 5), equalTo(0));
+        assertThat(hash.find("actor"), equalTo(0));
+    }
+
+    @Test
+    public void clear() {
+        add("bruce");
+        hash.clear();
+
+        assertThat(hash.size(), equalTo(0));
+        assertThat(hash.find("bruce"), equalTo(-1));
+        assertThat(add("willis"), equalTo(0));
+    }
+
+    private int add(String term) {
+        return hash.add(term.toCharArray(), 0, term.length());
+    }
+}
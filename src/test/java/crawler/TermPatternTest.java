@@ -0,0 +1,42 @@
+package crawler;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class TermPatternTest {
+
+    @Test
+    public void detectPattern() {
+        assertThat(TermPattern.isPattern("photo*"), is(true));
+        assertThat(TermPattern.isPattern("ph?to"), is(true));
+        assertThat(TermPattern.isPattern("photo"), is(false));
+    }
+
+    @Test
+    public void prefixEndsAtFirstWildcard() {
+        assertThat(TermPattern.parse("Photo*").getPrefix(), equalTo("photo"));
+        assertThat(TermPattern.parse("ph?t*").getPrefix(), equalTo("ph"));
+        assertThat(TermPattern.parse("*photo").getPrefix(), equalTo(""));
+    }
+
+    @Test
+    public void matchWildcards() {
+        TermPattern pattern = TermPattern.parse("ph?to*");
+
+        assertThat(pattern.matches("photo"), is(true));
+        assertThat(pattern.matches("photograph"), is(true));
+        assertThat(pattern.matches("phto"), is(false));
+        assertThat(pattern.matches("phonto"), is(false));
+    }
+
+    @Test
+    public void matchRussian() {
+        TermPattern pattern = TermPattern.parse("Салтыков-*");
+
+        assertThat(pattern.matches("салтыков-щедрин"), is(true));
+        assertThat(pattern.matches("салтыков"), is(false));
+    }
+}
@@ -0,0 +1,62 @@
+package crawler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class TokenizerTest {
+
+    private final Tokenizer tokenizer = new Tokenizer();
+    private final List<String> tokens = new ArrayList<>();
+
+    @Test
+    public void splitOnDelimiters() {
+        tokenizer.tokenize("Bruce is\tvery,popular:actor;really?yes!\n[one]two'three.", this::collect);
+
+        assertThat(tokens, contains("bruce", "is", "very", "popular", "actor", "really", "yes", "one", "two", "three"));
+    }
+
+    @Test
+    public void stripNonLetters() {
+        tokenizer.tokenize("Салтыков-Щедрин (1826) C3PO 1900 «ёлка»", this::collect);
+
+        assertThat(tokens, contains("салтыков-щедрин", "cpo", "лка"));
+    }
+
+    @Test
+    public void longToken() {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            word.append('a');
+        }
+        tokenizer.tokenize(word, this::collect);
+
+        assertThat(tokens, contains(word.toString()));
+    }
+
+    @Test
+    public void noTokens() {
+        tokenizer.tokenize(" 1900, (2000) - 1826-1889. ", this::collect);
+
+        assertThat(tokens, is(empty()));
+    }
+
+    @Test
+    public void normalizeWord() {
+        assertThat(Tokenizer.normalize("ACTOR"), equalTo("actor"));
+        assertThat(Tokenizer.normalize("a.b"), equalTo("ab"));
+        assertThat(Tokenizer.normalize("1900"), equalTo(""));
+        assertThat(Tokenizer.normalize("-"), equalTo(""));
+    }
+
+    private void collect(char[] chars, int length) {
+        tokens.add(new String(chars, 0, length));
+    }
+}
@@ -0,0 +1,129 @@
+package crawler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class VisitedSetTest {
+
+    @Test
+    public void addOnlyOnce() {
+        VisitedSet visited = new VisitedSet(0);
+
+        assertThat(visited.add("en/bruce_willis"), is(true));
+        assertThat(visited.add("en/bruce_willis"), is(false));
+        assertThat(visited.contains("en/bruce_willis"), is(true));
+        assertThat(visited.contains("en/die_hard"), is(false));
+        assertThat(visited.size(), equalTo(1));
+    }
+
+    @Test
+    public void removeAllowsToAddAgain() {
+        VisitedSet visited = new VisitedSet(0);
+        visited.add("en/bruce_willis");
+
+        assertThat(visited.remove("en/bruce_willis"), is(true));
+        assertThat(visited.remove("en/bruce_willis"), is(false));
+        assertThat(visited.contains("en/bruce_willis"), is(false));
+        assertThat(visited.size(), equalTo(0));
+
+        assertThat(visited.add("en/bruce_willis"), is(true));
+        assertThat(visited.contains("en/bruce_willis"), is(true));
+    }
+
+    @Test
+    public void growBeyondInitialSize() {
+        VisitedSet visited = new VisitedSet(4);
+        for (int i = 0; i < 10_000; i++) {
+            assertThat(visited.add("en/" + i), is(true));
+            if (i % 3 == 0) {
+                visited.remove("en/" + i);
+            }
+        }
+
+        assertThat(visited.size(), equalTo(10_000 - 3334));
+        for (int i = 0; i < 10_000; i++) {
+            assertThat(visited.contains("en/" + i), is(i % 3 != 0));
+        }
+    }
+
+    @Test
+    public void concurrentAddsClaimEveryUrlOnce() throws InterruptedException {
+        VisitedSet visited = new VisitedSet(0);
+        AtomicInteger added = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (int i = 0; i < 20_000; i++) {
+                    if (visited.add("en/" + i)) {
+                        added.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(added.get(), equalTo(20_000));
+        assertThat(visited.size(), equalTo(20_000));
+    }
+
+    @Test
+    public void removesAreNotLostWhileTableGrows() throws InterruptedException {
+        VisitedSet visited = new VisitedSet(0);
+        for (int i = 0; i < 10_000; i++) {
+            visited.add("en/removed/" + i);
+        }
+        CountDownLatch start = new CountDownLatch(1);
+
+        Thread adder = new Thread(() -> {
+            try {
+                start.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (int i = 0; i < 50_000; i++) {
+                visited.add("en/added/" + i);
+            }
+        });
+        Thread remover = new Thread(() -> {
+            try {
+                start.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (int i = 0; i < 10_000; i++) {
+                visited.remove("en/removed/" + i);
+            }
+        });
+        adder.start();
+        remover.start();
+        start.countDown();
+        adder.join();
+        remover.join();
+
+        assertThat(visited.size(), equalTo(50_000));
+        for (int i = 0; i < 10_000; i++) {
+            assertThat(visited.contains("en/removed/" + i), is(false));
+        }
+    }
+}